@@ -147,7 +147,13 @@ param(
     [switch]$Win,
 
     [Parameter(Mandatory=$false)]
-    [int]$Delay = 5
+    [int]$Delay = 5,
+
+    [Parameter(Mandatory=$false)]
+    [int]$Repeat = 1,
+
+    [Parameter(Mandatory=$false)]
+    [int]$Move = 0
 )
 
 Add-Type -AssemblyName System.Windows.Forms
@@ -175,6 +181,12 @@ public class KeyboardSim {
         Thread.Sleep(5);
     }
 
+    // No settle delay: used for long caret-move / backspace runs in "edit"
+    public static void TapVk(byte vk) {
+        keybd_event(vk, 0, 0, UIntPtr.Zero);
+        keybd_event(vk, 0, KEYEVENTF_KEYUP, UIntPtr.Zero);
+    }
+
     public static void KeyDown(byte vk) {
         keybd_event(vk, 0, 0, UIntPtr.Zero);
         Thread.Sleep(5);
@@ -210,20 +222,42 @@ public class KeyboardSim {
 }
 "@ -Language CSharp
 
+function Send-TextChars([string]$Chars) {
+    # Send text character by character for better reliability
+    foreach ($char in $Chars.ToCharArray()) {
+        $escapedChar = $char.ToString() -replace '[+^%~(){}\\[\\]]', '{$0}'
+        [System.Windows.Forms.SendKeys]::SendWait($escapedChar)
+        Start-Sleep -Milliseconds $Delay
+    }
+}
+
 switch ($Action) {
     "text" {
         if ($Text) {
-            # Send text character by character for better reliability
-            foreach ($char in $Text.ToCharArray()) {
-                $escapedChar = $char.ToString() -replace '[+^%~(){}\\[\\]]', '{$0}'
-                [System.Windows.Forms.SendKeys]::SendWait($escapedChar)
-                Start-Sleep -Milliseconds $Delay
-            }
+            Send-TextChars $Text
             Write-Output "OK"
         }
     }
     "key" {
-        [KeyboardSim]::SendKeyWithModifiers([byte]$VkCode, $Ctrl, $Alt, $Shift, $Win)
+        for ($i = 0; $i -lt $Repeat; $i++) {
+            [KeyboardSim]::SendKeyWithModifiers([byte]$VkCode, $Ctrl, $Alt, $Shift, $Win)
+        }
+        Write-Output "OK"
+    }
+    "edit" {
+        # Atomic replace: move the caret $Move grapheme clusters (negative = left),
+        # then $Repeat backspaces followed by $Text, in one process. The phone
+        # counts in clusters because that's what one arrow or Backspace crosses
+        $arrow = if ($Move -lt 0) { 0x25 } else { 0x27 }
+        for ($i = 0; $i -lt [Math]::Abs($Move); $i++) {
+            [KeyboardSim]::TapVk($arrow)
+        }
+        for ($i = 0; $i -lt $Repeat; $i++) {
+            [KeyboardSim]::TapVk(0x08)
+        }
+        if ($Text) {
+            Send-TextChars $Text
+        }
         Write-Output "OK"
     }
     "winkey" {
@@ -283,9 +317,18 @@ async function processQueue() {
                 if (item.modifiers?.alt) args.push('-Alt');
                 if (item.modifiers?.shift) args.push('-Shift');
                 if (item.modifiers?.win) args.push('-Win');
+                if (item.repeat > 1) args.push('-Repeat', item.repeat.toString());
+                await runScript(args);
+            } else if (item.type === 'edit') {
+                const args = ['-Action', 'edit', '-Repeat', item.deleteCount.toString()];
+                if (item.move) args.push('-Move', item.move.toString());
+                if (item.text) args.push('-Text', item.text);
+                if (item.delay) args.push('-Delay', item.delay.toString());
                 await runScript(args);
             } else if (item.type === 'winkey') {
                 await runScript(['-Action', 'winkey']);
+            } else if (item.type === 'marker') {
+                item.callback();
             }
         } catch (error) {
             console.error('[KeyboardInjector] Queue error:', error);
@@ -294,37 +337,68 @@ async function processQueue() {
     isProcessing = false;
 }
 
-function queueText(text, delay = 0) {
+// `tag` marks where an item came from, so cancelQueued can drop just those
+function queueText(text, delay = 0, tag) {
     if (!text) return;
     if (!scriptReady) initialize();
     console.log('[KeyboardInjector] Queuing text:', JSON.stringify(text), 'delay:', delay);
-    inputQueue.push({ type: 'text', text, delay });
+    inputQueue.push({ type: 'text', text, delay, tag });
     processQueue();
 }
 
-function queueKey(vkCode, modifiers = {}) {
+function queueKey(vkCode, modifiers = {}, repeat = 1, tag) {
     if (!scriptReady) initialize();
-    console.log('[KeyboardInjector] Queuing key:', vkCode, 'modifiers:', modifiers);
-    inputQueue.push({ type: 'key', vkCode, modifiers });
+    console.log('[KeyboardInjector] Queuing key:', vkCode, 'modifiers:', modifiers, 'repeat:', repeat);
+    inputQueue.push({ type: 'key', vkCode, modifiers, repeat, tag });
     processQueue();
 }
 
-function queueWinKey() {
+// Move caret, delete N grapheme clusters, then type text — one queue item, one PowerShell spawn
+function queueEdit(deleteCount, text, delay = 0, move = 0, tag) {
+    if (deleteCount <= 0 && !text && !move) return;
+    if (!scriptReady) initialize();
+    console.log('[KeyboardInjector] Queuing edit: move', move, 'delete', deleteCount, 'insert', JSON.stringify(text));
+    inputQueue.push({ type: 'edit', move, deleteCount: Math.max(0, deleteCount), text, delay, tag });
+    processQueue();
+}
+
+function queueWinKey(tag) {
     if (!scriptReady) initialize();
     console.log('[KeyboardInjector] Queuing Windows key');
-    inputQueue.push({ type: 'winkey' });
+    inputQueue.push({ type: 'winkey', tag });
+    processQueue();
+}
+
+// Calls back once everything queued so far has been injected
+function whenInjected(callback) {
+    inputQueue.push({ type: 'marker', callback });
     processQueue();
 }
 
-async function sendText(text, delay = 0) { queueText(text, delay); return true; }
+// Drops input queued with `tag` that is still waiting (the item being typed
+// finishes); other input and markers stay, so their callbacks still fire.
+// Returns the number dropped.
+function cancelQueued(tag) {
+    const before = inputQueue.length;
+    const kept = inputQueue.filter(item => item.type === 'marker' || item.tag !== tag);
+    inputQueue.length = 0;
+    inputQueue.push(...kept);
+    const dropped = before - kept.length;
+    if (dropped) console.log('[KeyboardInjector] Cancelled', dropped, 'queued', tag, 'item(s)');
+    return dropped;
+}
+
+async function sendText(text, delay = 0, tag) { queueText(text, delay, tag); return true; }
+
+async function sendKey(vkCode, modifiers = {}, repeat = 1, tag) { queueKey(vkCode, modifiers, repeat, tag); return true; }
 
-async function sendKey(vkCode, modifiers = {}) { queueKey(vkCode, modifiers); return true; }
+async function sendEdit(deleteCount, text, delay = 0, move = 0, tag) { queueEdit(deleteCount, text, delay, move, tag); return true; }
 
-async function sendSpecialKey(keyName, modifiers = {}) {
+async function sendSpecialKey(keyName, modifiers = {}, repeat = 1, tag) {
     // Handle standalone Windows key press
     if (keyName === 'Win' || keyName === 'Windows' || keyName === 'Meta') {
         if (!modifiers.ctrl && !modifiers.alt && !modifiers.shift) {
-            queueWinKey();
+            queueWinKey(tag);
             return true;
         }
     }
@@ -334,17 +408,19 @@ async function sendSpecialKey(keyName, modifiers = {}) {
         console.warn('[KeyboardInjector] Unknown key:', keyName);
         return false;
     }
-    return sendKey(vkCode, modifiers);
+    return sendKey(vkCode, modifiers, repeat, tag);
 }
 
-async function handleKeyEvent(event) {
+// `tag` (optional) is stored on the queued items for cancelQueued
+async function handleKeyEvent(event, tag) {
     console.log('[KeyboardInjector] Handling event:', JSON.stringify(event));
     try {
         switch (event.type) {
-            case 'text': return await sendText(event.text, event.delay || 0);
-            case 'key': return await sendSpecialKey(event.key, event.modifiers || {});
-            case 'char': return await sendText(event.char, event.delay || 0); // handle delay for 'char' too if needed
-            case 'shortcut': return await sendSpecialKey(event.key, event.modifiers || {});
+            case 'text': return await sendText(event.text, event.delay || 0, tag);
+            case 'key': return await sendSpecialKey(event.key, event.modifiers || {}, event.repeat || 1, tag);
+            case 'edit': return await sendEdit(event.delete || 0, event.text || '', event.delay || 0, event.move || 0, tag);
+            case 'char': return await sendText(event.char, event.delay || 0, tag); // handle delay for 'char' too if needed
+            case 'shortcut': return await sendSpecialKey(event.key, event.modifiers || {}, 1, tag);
             default: console.warn('[KeyboardInjector] Unknown event type:', event.type); return false;
         }
     } catch (error) {
@@ -353,4 +429,4 @@ async function handleKeyEvent(event) {
     }
 }
 
-module.exports = { initialize, sendKey, sendText, sendSpecialKey, handleKeyEvent, VK_CODES };
+module.exports = { initialize, sendKey, sendText, sendEdit, sendSpecialKey, handleKeyEvent, whenInjected, cancelQueued, VK_CODES };
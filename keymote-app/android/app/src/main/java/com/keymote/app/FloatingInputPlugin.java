@@ -1,8 +1,10 @@
 package com.keymote.app;
 
+import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.provider.Settings;
 
 import com.getcapacitor.JSArray;
@@ -19,6 +21,15 @@ public class FloatingInputPlugin extends Plugin {
 
     private boolean pendingPermissionRequest = false;
 
+    // Forwards the overlay service's link state to JS while attached
+    private OverlayLink.Listener linkListener;
+
+    @Override
+    public void load() {
+        // Bound from the start, so stats requests find the service's Messenger ready
+        OverlayLink.get(getContext()).attach();
+    }
+
     @PluginMethod()
     public void hasOverlayPermission(PluginCall call) {
         JSObject result = new JSObject();
@@ -77,6 +88,9 @@ public class FloatingInputPlugin extends Plugin {
         Intent intent = new Intent(getContext(), FloatingInputService.class);
         intent.putExtra(FloatingInputService.EXTRA_IPS, ips);
         intent.putExtra(FloatingInputService.EXTRA_PORT, port);
+        // Pairing credentials: the desktop takes app input and mouse ops only once they check out
+        intent.putExtra(FloatingInputService.EXTRA_DEVICE_ID, call.getString("deviceId"));
+        intent.putExtra(FloatingInputService.EXTRA_TOKEN, call.getString("token"));
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             getContext().startForegroundService(intent);
@@ -94,6 +108,175 @@ public class FloatingInputPlugin extends Plugin {
         call.resolve();
     }
 
+    /**
+     * Latency percentiles (ms) from the overlay connection: keystroke-to-inject,
+     * desktop inject time, handshake, reconnect and dead-peer detection, plus
+     * keepalive counters (pings, wakeupsPerHour). Pass {reset: true} to start
+     * a fresh measurement window. Resolves {running: false} if the overlay
+     * service is not running.
+     */
+    @PluginMethod()
+    public void getLatencyStats(PluginCall call) {
+        requestFromService(call, FloatingInputService.MSG_GET_LATENCY_STATS,
+                call.getBoolean("reset", false) ? 1 : 0);
+    }
+
+    /**
+     * Health counters from the overlay process: frames and bytes sent, dropped
+     * and coalesced frames, writer queue depth, connects/reconnects, time
+     * connected, per-IP successes and failures, outbox backlog and
+     * compression savings, and app input relayed over the shared link.
+     * Resolves {running: false} if the overlay service is not running.
+     */
+    @PluginMethod()
+    public void getOverlayStats(PluginCall call) {
+        requestFromService(call, FloatingInputService.MSG_GET_OVERLAY_STATS, 0);
+    }
+
+    /**
+     * Attaches to the overlay service's desktop connection so the app's input
+     * can share it. Resolves the current {connected, appInput} state; changes
+     * arrive as "nativeLinkState" events with the same shape. Safe to call
+     * again; the overlay doesn't have to be running yet.
+     */
+    @PluginMethod()
+    public void attachNativeLink(PluginCall call) {
+        OverlayLink link = OverlayLink.get(getContext());
+        if (linkListener == null) {
+            linkListener = (connected, appInput) -> notifyListeners("nativeLinkState", linkState(connected, appInput));
+            link.addListener(linkListener);
+        }
+        link.attach();
+        call.resolve(linkState(link.isConnected(), link.isAppInput()));
+    }
+
+    /**
+     * Sends one input message ({message: {type: 'mouse' | 'key' | ...}})
+     * through the overlay's connection, queued behind the overlay's own
+     * frames. Resolves once the service has written it to the socket, with
+     * {sent: false} if it never got there, so the caller can use its own
+     * channel instead.
+     */
+    @PluginMethod()
+    public void sendInput(PluginCall call) {
+        JSObject message = call.getObject("message");
+        boolean queued = message != null && OverlayLink.get(getContext()).send(message.toString(),
+                reply -> resolveSent(call, reply != null && reply.arg1 == 1));
+        if (!queued) {
+            resolveSent(call, false);
+        }
+    }
+
+    private static void resolveSent(PluginCall call, boolean sent) {
+        JSObject result = new JSObject();
+        result.put("sent", sent);
+        call.resolve(result);
+    }
+
+    private static JSObject linkState(boolean connected, boolean appInput) {
+        JSObject state = new JSObject();
+        state.put("connected", connected);
+        state.put("appInput", appInput);
+        return state;
+    }
+
+    /**
+     * Tells the app process whether the WebView has a live desktop session
+     * ({active}). The CPU and Wi-Fi locks are pinned at low latency while it
+     * does and the app is in front.
+     */
+    @PluginMethod()
+    public void setSessionActive(PluginCall call) {
+        boolean active = call.getBoolean("active", false);
+        getActivity().runOnUiThread(() -> {
+            if (getActivity() instanceof MainActivity) {
+                ((MainActivity) getActivity()).setSessionActive(active);
+            }
+        });
+        call.resolve();
+    }
+
+    /** Input went out from the WebView; keeps the locks from idling out. Throttle on the JS side. */
+    @PluginMethod()
+    public void noteInputActivity(PluginCall call) {
+        SessionLocks.get(getContext(), "app").onActivity();
+        call.resolve();
+    }
+
+    /**
+     * Sets how long the locks stay held after the last input ({ms}). The app
+     * process applies it at once; the overlay service on its next start.
+     */
+    @PluginMethod()
+    public void setLockIdleTimeout(PluginCall call) {
+        Long requested = call.getLong("ms");
+        if (requested == null || requested < 0) {
+            call.reject("ms must be a non-negative number");
+            return;
+        }
+        // A stored value below the active window would fail LockPolicy on every start
+        long ms = Math.max(SessionLocks.ACTIVE_MS, requested);
+        getContext().getSharedPreferences(FloatingInputService.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putLong(SessionLocks.PREF_IDLE_MS, ms)
+                .apply();
+        getActivity().runOnUiThread(() -> SessionLocks.get(getContext(), "app").setIdleMs(ms));
+        call.resolve();
+    }
+
+    /**
+     * Lock hold time in the app process: level, heldMs, lowLatencyMs,
+     * acquisitions, idleMs. The overlay process reports its own under
+     * "locks" in getLatencyStats. Pass {reset: true} to start a new window.
+     */
+    @PluginMethod()
+    public void getLockStats(PluginCall call) {
+        boolean reset = call.getBoolean("reset", false);
+        getActivity().runOnUiThread(() ->
+                call.resolve(bundleToJSObject(SessionLocks.get(getContext(), "app").stats(reset))));
+    }
+
+    // Asks the overlay service over the shared link. Resolves {running: false}
+    // at once when the service isn't bound, or if it goes away before replying.
+    private void requestFromService(PluginCall call, int what, int arg1) {
+        OverlayLink link = OverlayLink.get(getContext());
+        link.attach();
+        boolean sent = link.request(what, arg1, reply -> {
+            Bundle data = reply == null ? null : reply.getData();
+            JSObject result = bundleToJSObject(data);
+            result.put("running", data != null);
+            call.resolve(result);
+        });
+        if (!sent) {
+            JSObject result = new JSObject();
+            result.put("running", false);
+            call.resolve(result);
+        }
+    }
+
+    private static JSObject bundleToJSObject(Bundle bundle) {
+        JSObject obj = new JSObject();
+        if (bundle == null) return obj;
+        for (String key : bundle.keySet()) {
+            Object value = bundle.get(key);
+            if (value instanceof Bundle) {
+                obj.put(key, bundleToJSObject((Bundle) value));
+            } else {
+                obj.put(key, value);
+            }
+        }
+        return obj;
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        if (linkListener != null) {
+            OverlayLink.get(getContext()).removeListener(linkListener);
+            linkListener = null;
+        }
+        super.handleOnDestroy();
+    }
+
     @Override
     protected void handleOnResume() {
         super.handleOnResume();
@@ -6,35 +6,57 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.content.pm.ServiceInfo;
 import android.graphics.PixelFormat;
 import android.graphics.drawable.GradientDrawable;
+import android.hardware.display.DisplayManager;
+import android.net.ConnectivityManager;
+import android.net.Network;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.view.WindowManager;
 import android.view.inputmethod.InputMethodManager;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import androidx.core.app.NotificationCompat;
 
+import org.java_websocket.WebSocket;
 import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.framing.Framedata;
 import org.java_websocket.handshake.ServerHandshake;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * Floating overlay input service — runs in a separate process (:overlay).
@@ -54,10 +76,30 @@ public class FloatingInputService extends Service {
     public static final String PREFS_NAME = "keymote_overlay";
     public static final String PREF_WS_IPS = "ws_ips";
     public static final String PREF_WS_PORT = "ws_port";
+    // Pairing credentials, proving the socket belongs to a paired device
+    public static final String PREF_WS_DEVICE_ID = "ws_device_id";
+    public static final String PREF_WS_TOKEN = "ws_token";
+    // Per-IP connection history (see OverlayEndpointTable), used to order dials
+    public static final String PREF_WS_ENDPOINTS = "ws_endpoints";
 
     // Intent extras for starting
     public static final String EXTRA_IPS = "ips";
     public static final String EXTRA_PORT = "port";
+    public static final String EXTRA_DEVICE_ID = "deviceId";
+    public static final String EXTRA_TOKEN = "token";
+
+    // Messenger protocol for clients bound from the app process
+    // Stats requests: arg2 = request id, echoed in the reply's arg2
+    public static final int MSG_GET_LATENCY_STATS = 1; // arg1 = 1 to reset after reading
+    public static final int MSG_LATENCY_STATS = 2;     // reply, data = one Bundle per histogram
+    public static final int MSG_GET_OVERLAY_STATS = 3;
+    public static final int MSG_OVERLAY_STATS = 4;     // reply, data = counters (see overlayStats())
+    // Shared desktop link: the WebView app's input rides this service's socket
+    public static final int MSG_REGISTER_LINK = 5;     // replyTo gets MSG_LINK_STATE now and on every change
+    public static final int MSG_UNREGISTER_LINK = 6;
+    public static final int MSG_SEND_INPUT = 7;        // data "json" = one app input message; arg2 = request id
+    public static final int MSG_LINK_STATE = 8;        // arg1 = 1 if connected, arg2 = 1 if the desktop takes app input
+    public static final int MSG_INPUT_SENT = 9;        // reply to MSG_SEND_INPUT: arg1 = 1 if written to the socket
 
     private WindowManager windowManager;
     private View bubbleView;
@@ -65,31 +107,129 @@ public class FloatingInputService extends Service {
     private WindowManager.LayoutParams bubbleParams;
     private WindowManager.LayoutParams panelParams;
     private boolean isExpanded = false;
+    // Window moves go out once per frame (see OverlayLayoutScheduler)
+    private OverlayLayoutScheduler layouts;
+    private DisplayManager.DisplayListener displayListener;
+    // Screen size for clamping the bubble; re-read on configuration and display changes
+    private int screenWidth, screenHeight;
+    private int bubbleSizePx;
+    private GradientDrawable statusDotShape;
+    private int statusDotColor;
 
     // WebSocket
-    private WebSocketClient wsClient;
+    private volatile WebSocketClient wsClient;
     private String[] wsIPs;
     private int wsPort;
-    private boolean wsConnected = false;
+    private volatile String wsDeviceId;
+    private volatile String wsToken;
+    private volatile boolean wsConnected = false;
     private Handler mainHandler;
-    private int reconnectAttempts = 0;
+    // CPU and Wi-Fi locks: pinned while the panel is open, kept by outgoing frames
+    private SessionLocks locks;
+    // App-process Messengers (FloatingInputPlugin) told about link state changes; main thread
+    private final List<Messenger> linkClients = new ArrayList<>();
+    private static final int MIN_RECONNECT_DELAY = 1000;
     private static final int MAX_RECONNECT_DELAY = 30000;
-
-    // Real-time sync tracking
-    private String lastSentText = "";
+    private final ReconnectBackoff reconnectBackoff =
+            new ReconnectBackoff(MIN_RECONNECT_DELAY, MAX_RECONNECT_DELAY, new Random());
+
+    // Default-network tracking (main thread). While there is no network the
+    // reconnect loop is parked instead of burning attempts; a new default
+    // network redials at once.
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private Network defaultNetwork;
+    private boolean networkAvailable = true;
+
+    // Heartbeat: replaces Java-WebSocket's fixed connection-lost timer
+    private final KeepalivePolicy keepalive = new KeepalivePolicy();
+
+    // Outbound frames are encoded and sent on a per-connection writer thread;
+    // the UI thread only queues them
+    private static final int WRITER_QUEUE_CAPACITY = 256;
+    private volatile OverlayFrameWriter frameWriter;
+    // Set once the desktop's hello announces binary framing; JSON until then
+    private volatile boolean binaryFrames = false;
+    // Set once the desktop's hello says it can move its caret for mid-text edits
+    private volatile boolean cursorEdits = false;
+    // Set once the desktop's hello says it acks sequenced frames; until then
+    // (and for older desktops) frames count as delivered once sent
+    private volatile boolean desktopAcks = false;
+    // Set once the desktop's hello says it inflates compressed text fields
+    private volatile boolean deflateFrames = false;
+    // Set once the desktop says it dispatches app input sent over this socket:
+    // in its auth reply, or in the hello of desktops that don't ask for auth
+    private volatile boolean appInput = false;
+    // Set once the desktop says it takes the touchpad's mouse ops (same as appInput)
+    private volatile boolean desktopMouse = false;
+    private volatile boolean helloSeen = false;
+    // Current connection's codec, for its compression counters
+    private volatile OverlayWireCodec frameCodec;
+
+    // Durable outbox: every op is journaled before it is offered to the writer
+    // and replayed in order after a reconnect until the desktop acks it
+    private static final String OUTBOX_FILE = "overlay_outbox.journal";
+    private static final int OUTBOX_CAPACITY = 512 * 1024;
+    private static final int REPLAY_BATCH = 64;
+    private static final long REPLAY_BACKOFF_MS = 16;
+    private static final int HELLO_TIMEOUT_MS = 1000;
+    private OverlayOutbox outbox;
+    // Live ops go straight to the writer only once the replay has caught up
+    private volatile boolean outboxLive = false;
+    private long replayNext; // main thread only
+    private int replayGen;
+    private boolean queuedNoticeShown = false;
+    // Ops the full outbox couldn't journal while a replay ran. Each waits
+    // behind the journaled ops typed before it; seq holds the outbox's last
+    // seq at the time. Main thread only.
+    private final ArrayDeque<OverlayFrameWriter.Frame> unjournaledOps = new ArrayDeque<>();
+
+    // Large inserts stream in acked chunks; ops typed meanwhile wait behind them
+    private volatile OverlayPasteStream pasteStream;
+    private final ArrayDeque<OverlayFrameWriter.Frame> heldOps = new ArrayDeque<>();
+
+    // Real-time sync tracking: what the desktop has, with the gap at its caret
+    private final OverlayTextMirror sentText = new OverlayTextMirror();
+    private final OverlayTextDiff.Edit pendingEdit = new OverlayTextDiff.Edit();
     private boolean ignoreTextChange = false;
 
     // Bubble position before expand (to restore on collapse)
     private int savedBubbleX, savedBubbleY;
 
+    // Touchpad mode: the panel shows a touchpad instead of the text field.
+    // Kept across collapse/expand.
+    private static final int INPUT_HEIGHT_DP = 88;
+    private static final int STATUS_CONNECTED = 0xFF4CAF50;
+    private static final int STATUS_DISCONNECTED = 0xFFFF0000;
+    private static final int TOUCHPAD_HEIGHT_DP = 160;
+    private OverlayTouchpad touchpad;
+    private boolean touchpadMode = false;
+
     // Drag tracking
     private int initialX, initialY;
     private float initialTouchX, initialTouchY;
     private static final int CLICK_THRESHOLD = 10;
 
+    // Latency distributions in microseconds, read through the bound Messenger
+    private final LatencyHistogram keystrokeLatency = new LatencyHistogram(); // typed -> desktop ack (after injection)
+    private final LatencyHistogram injectLatency = new LatencyHistogram();    // desktop receipt -> injected
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram(); // winning dial -> open
+    private final LatencyHistogram reconnectLatency = new LatencyHistogram(); // connection lost -> open again
+    private final LatencyHistogram deadPeerLatency = new LatencyHistogram();  // last traffic -> declared dead
+    private final LatencyHistogram touchpadLatency = new LatencyHistogram();  // oldest touch sample -> queued to send
+    private volatile long connectionLostAt = 0; // elapsedRealtime; 0 = not reconnecting
+    // When each recent outbox seq was typed, for keystroke latency (guarded by typedAtSeq)
+    private static final int TYPED_AT_SLOTS = 1024;
+    private final long[] typedAtSeq = new long[TYPED_AT_SLOTS];
+    private final long[] typedAtMicros = new long[TYPED_AT_SLOTS];
+    private long latencyMeasuredSeq = 0;
+
+    private Messenger messenger;
+    private final OverlayCounters counters = new OverlayCounters();
+    private long createdAt; // elapsedRealtime
+
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return messenger.getBinder();
     }
 
     @Override
@@ -97,7 +237,20 @@ public class FloatingInputService extends Service {
         super.onCreate();
         Log.d(TAG, "FloatingInputService onCreate (pid=" + android.os.Process.myPid() + ")");
         mainHandler = new Handler(Looper.getMainLooper());
+        createdAt = SystemClock.elapsedRealtime();
+        locks = SessionLocks.get(this, "overlay");
+        messenger = new Messenger(new Handler(Looper.getMainLooper(), this::handleClientMessage));
+        try {
+            outbox = OverlayOutbox.open(new File(getFilesDir(), OUTBOX_FILE), OUTBOX_CAPACITY);
+            Log.d(TAG, "Outbox session " + Long.toHexString(outbox.sessionId()) + ", "
+                    + outbox.pendingCount() + " op(s) pending");
+        } catch (IOException e) {
+            Log.e(TAG, "Outbox unavailable, ops will not survive disconnects: " + e.getMessage());
+        }
         windowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
+        layouts = new OverlayLayoutScheduler(windowManager);
+        refreshDisplayMetrics();
+        registerDisplayListener();
 
         startAsForeground();
 
@@ -107,6 +260,8 @@ public class FloatingInputService extends Service {
         } catch (Exception e) {
             Log.e(TAG, "Failed to create overlay views: " + e.getMessage());
         }
+
+        registerNetworkCallback();
     }
 
     @Override
@@ -115,18 +270,24 @@ public class FloatingInputService extends Service {
         if (intent != null && intent.hasExtra(EXTRA_PORT)) {
             wsIPs = intent.getStringArrayExtra(EXTRA_IPS);
             wsPort = intent.getIntExtra(EXTRA_PORT, 0);
+            wsDeviceId = intent.getStringExtra(EXTRA_DEVICE_ID);
+            wsToken = intent.getStringExtra(EXTRA_TOKEN);
 
             // Persist for restart after kill
             SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
             prefs.edit()
                     .putString(PREF_WS_IPS, String.join(",", wsIPs))
                     .putInt(PREF_WS_PORT, wsPort)
+                    .putString(PREF_WS_DEVICE_ID, wsDeviceId)
+                    .putString(PREF_WS_TOKEN, wsToken)
                     .apply();
         } else {
             // Recover from SharedPreferences (service restarted by OS)
             SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
             String ipsStr = prefs.getString(PREF_WS_IPS, null);
             wsPort = prefs.getInt(PREF_WS_PORT, 0);
+            wsDeviceId = prefs.getString(PREF_WS_DEVICE_ID, null);
+            wsToken = prefs.getString(PREF_WS_TOKEN, null);
             if (ipsStr != null) {
                 wsIPs = ipsStr.split(",");
             }
@@ -148,7 +309,15 @@ public class FloatingInputService extends Service {
 
     @Override
     public void onDestroy() {
+        locks.shutdown();
+        unregisterNetworkCallback();
+        cancelPendingReconnect();
         disconnectWebSocket();
+        if (outbox != null) {
+            outbox.close();
+        }
+        unregisterDisplayListener();
+        layouts.cancel();
         if (bubbleView != null) {
             try {
                 windowManager.removeView(bubbleView);
@@ -171,9 +340,22 @@ public class FloatingInputService extends Service {
 
     // Generation counter: prevents stale callbacks from old WebSocket clients
     // from interfering with the current connection attempt
-    private int wsGeneration = 0;
+    private volatile int wsGeneration = 0;
     private Runnable pendingReconnect = null;
 
+    // Connection racing: all IPs are dialed DIAL_STAGGER_MS apart and the first
+    // handshake wins. dialing/dialsRemaining are only touched on the main thread.
+    private static final int DIAL_STAGGER_MS = 250;
+    private static final int CONNECT_TIMEOUT_MS = 8000;
+    private final Object dialLock = new Object();
+    private final List<WebSocketClient> dialing = new ArrayList<>();
+    private int dialsRemaining;
+    private long dialStartedAt;
+    // Time from starting a dial round to the winning handshake
+    private volatile long lastConnectMs = -1;
+    // Loaded lazily from prefs; main thread only
+    private OverlayEndpointTable endpointTable;
+
     private void connectWebSocket() {
         if (wsIPs == null || wsIPs.length == 0)
             return;
@@ -195,94 +377,272 @@ public class FloatingInputService extends Service {
         // Close existing client (increment generation to ignore its callbacks)
         disconnectWebSocket();
 
-        // Try first IP (usually the main LAN IP)
-        tryConnectToIP(0);
+        raceConnect();
     }
 
-    private void tryConnectToIP(int ipIndex) {
-        if (wsIPs == null || ipIndex >= wsIPs.length) {
-            Log.w(TAG, "All IPs failed, scheduling reconnect");
-            scheduleReconnect();
-            return;
+    // Dial every candidate IP, staggered so a healthy first address usually wins
+    // without opening sockets to the rest; the first completed handshake wins
+    private void raceConnect() {
+        final int gen = wsGeneration;
+        // Last-good address first, so it gets a head start on the stagger
+        String[] ips = endpoints().order(wsIPs);
+        if (ips.length == 0) return;
+        Log.d(TAG, "Dial order: " + String.join(", ", ips));
+        dialStartedAt = SystemClock.elapsedRealtime();
+        dialsRemaining = ips.length;
+        for (int i = 0; i < ips.length; i++) {
+            final String ip = ips[i];
+            mainHandler.postDelayed(() -> dialIP(ip, gen), (long) i * DIAL_STAGGER_MS);
         }
 
-        String ip = wsIPs[ipIndex].trim();
-        String url = "ws://" + ip + ":" + wsPort;
-        Log.d(TAG, "Connecting to: " + url + " (gen=" + wsGeneration + ")");
+        // Timeout: whatever is still dialing when the last IP has had its full window is abandoned
+        mainHandler.postDelayed(() -> {
+            if (gen != wsGeneration || wsClient != null) return;
+            Log.w(TAG, "Connection timeout, " + dialing.size() + " dial(s) abandoned");
+            long now = System.currentTimeMillis();
+            for (WebSocketClient client : dialing) {
+                endpoints().recordFailure(client.getURI().getHost(), now);
+            }
+            saveEndpoints();
+            closeDials(null);
+            dialsRemaining = 0;
+            scheduleReconnect();
+        }, (long) (ips.length - 1) * DIAL_STAGGER_MS + CONNECT_TIMEOUT_MS);
+    }
+
+    private void dialIP(String ip, int gen) {
+        if (gen != wsGeneration || wsClient != null) return; // Superseded or already won
 
-        final int gen = wsGeneration; // Capture current generation
+        String url = "ws://" + ip + ":" + wsPort;
+        Log.d(TAG, "Connecting to: " + url + " (gen=" + gen + ")");
 
+        final long dialedAt = SystemClock.elapsedRealtime();
+        WebSocketClient client;
         try {
-            wsClient = new WebSocketClient(new URI(url)) {
+            client = new WebSocketClient(new URI(url)) {
                 @Override
                 public void onOpen(ServerHandshake handshake) {
-                    if (gen != wsGeneration) return; // Stale callback
-                    Log.d(TAG, "WebSocket connected to " + url);
+                    if (!claimConnection(this, gen)) {
+                        close(); // Lost the race, or stale
+                        return;
+                    }
+                    long openedAt = SystemClock.elapsedRealtime();
+                    long elapsed = openedAt - dialStartedAt;
+                    Log.d(TAG, "WebSocket connected to " + url + " in " + elapsed + "ms");
+                    startFrameWriter(this);
                     wsConnected = true;
-                    reconnectAttempts = 0;
-                    mainHandler.post(() -> updateStatusDot(true));
+                    lastConnectMs = elapsed;
+                    handshakeLatency.record((openedAt - dialedAt) * 1000);
+                    long lostAt = connectionLostAt;
+                    counters.onConnected(openedAt, lostAt > 0);
+                    if (lostAt > 0) {
+                        reconnectLatency.record((openedAt - lostAt) * 1000);
+                        connectionLostAt = 0;
+                    }
+                    mainHandler.post(() -> {
+                        if (gen != wsGeneration) return;
+                        reconnectBackoff.reset();
+                        // Desktops too old to say hello never trigger the replay themselves
+                        mainHandler.postDelayed(() -> {
+                            if (gen == wsGeneration && wsConnected && !helloSeen) {
+                                beginReplay(gen, 0);
+                            }
+                        }, HELLO_TIMEOUT_MS);
+                        endpoints().recordSuccess(ip, openedAt - dialedAt, System.currentTimeMillis());
+                        saveEndpoints();
+                        closeDials(this);
+                        updateStatusDot(true);
+                        broadcastLinkState();
+                        startKeepalive();
+                    });
                 }
 
                 @Override
                 public void onMessage(String message) {
-                    if (gen != wsGeneration) return;
-                    Log.d(TAG, "WS message: " + message);
+                    if (gen != wsGeneration || this != wsClient) return;
+                    keepalive.onHeard(SystemClock.elapsedRealtime());
+                    handleDesktopMessage(message, gen);
+                }
+
+                @Override
+                public void onWebsocketPong(WebSocket conn, Framedata f) {
+                    super.onWebsocketPong(conn, f);
+                    if (gen != wsGeneration || this != wsClient) return;
+                    keepalive.onHeard(SystemClock.elapsedRealtime());
                 }
 
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     if (gen != wsGeneration) return; // Stale — ignore
+                    if (this != wsClient) {
+                        mainHandler.post(() -> onDialFailed(this, ip, gen));
+                        return;
+                    }
                     Log.d(TAG, "WebSocket closed: code=" + code + " reason=" + reason + " remote=" + remote);
+                    if (wsConnected) {
+                        connectionLostAt = SystemClock.elapsedRealtime();
+                        counters.onDisconnected(connectionLostAt);
+                    }
                     wsConnected = false;
+                    stopFrameWriter();
+                    mainHandler.removeCallbacks(keepaliveTick);
                     mainHandler.post(() -> {
                         if (gen != wsGeneration) return;
                         updateStatusDot(false);
+                        broadcastLinkState();
                         scheduleReconnect();
                     });
                 }
 
                 @Override
                 public void onError(Exception ex) {
+                    // onClose always follows and decides what to do next
                     if (gen != wsGeneration) return; // Stale — ignore
                     Log.w(TAG, "WebSocket error on " + ip + ": " + ex.getMessage());
-                    wsConnected = false;
-                    mainHandler.post(() -> {
-                        if (gen != wsGeneration) return;
-                        updateStatusDot(false);
-                        tryConnectToIP(ipIndex + 1);
-                    });
                 }
             };
-            wsClient.setConnectionLostTimeout(10);
-            wsClient.connect();
-
-            // Timeout: if not connected within 8s, move to next IP
-            mainHandler.postDelayed(() -> {
-                if (gen != wsGeneration) return;
-                if (!wsConnected && wsClient != null) {
-                    Log.w(TAG, "Connection timeout for " + url);
-                    try { wsClient.close(); } catch (Exception ignored) {}
-                    tryConnectToIP(ipIndex + 1);
-                }
-            }, 8000);
         } catch (Exception e) {
-            Log.e(TAG, "Failed to create WS client: " + e.getMessage());
-            tryConnectToIP(ipIndex + 1);
+            Log.e(TAG, "Failed to create WS client for " + ip + ": " + e.getMessage());
+            onDialFailed(null, ip, gen);
+            return;
+        }
+        client.setConnectionLostTimeout(0); // KeepalivePolicy probes instead
+        dialing.add(client);
+        client.connect();
+    }
+
+    // Called from the winning client's socket thread; decides the race atomically
+    private boolean claimConnection(WebSocketClient client, int gen) {
+        synchronized (dialLock) {
+            if (gen != wsGeneration || wsClient != null) return false;
+            wsClient = client;
+            return true;
+        }
+    }
+
+    // Main thread. A dial that closed before winning; reconnect once every IP has failed.
+    private void onDialFailed(WebSocketClient client, String ip, int gen) {
+        if (gen != wsGeneration) return;
+        if (client != null && !dialing.remove(client)) return; // Already abandoned
+        endpoints().recordFailure(ip, System.currentTimeMillis());
+        saveEndpoints();
+        dialsRemaining--;
+        if (dialsRemaining == 0 && wsClient == null) {
+            Log.w(TAG, "All IPs failed, scheduling reconnect");
+            scheduleReconnect();
         }
     }
 
+    // Main thread. Cancels every in-flight dial except the winner (if any).
+    private void closeDials(WebSocketClient winner) {
+        for (WebSocketClient client : dialing) {
+            if (client == winner) continue;
+            try {
+                client.close();
+            } catch (Exception ignored) {
+            }
+        }
+        dialing.clear();
+    }
+
+    private OverlayEndpointTable endpoints() {
+        if (endpointTable == null) {
+            SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            endpointTable = OverlayEndpointTable.parse(prefs.getString(PREF_WS_ENDPOINTS, null));
+            endpointTable.prune(System.currentTimeMillis());
+        }
+        return endpointTable;
+    }
+
+    private void saveEndpoints() {
+        endpointTable.prune(System.currentTimeMillis());
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putString(PREF_WS_ENDPOINTS, endpointTable.serialize())
+                .apply();
+    }
+
     private void disconnectWebSocket() {
-        wsGeneration++; // Invalidate all callbacks from current/old client
-        if (wsClient != null) {
+        synchronized (dialLock) {
+            wsGeneration++; // Invalidate all callbacks from current/old clients
+        }
+        mainHandler.removeCallbacks(keepaliveTick);
+        stopFrameWriter();
+        closeDials(null);
+        WebSocketClient client = wsClient;
+        if (client != null) {
             try {
-                wsClient.close();
+                client.close();
             } catch (Exception ignored) {
             }
             wsClient = null;
         }
+        boolean wasConnected = wsConnected;
+        if (wasConnected) {
+            counters.onDisconnected(SystemClock.elapsedRealtime());
+        }
         wsConnected = false;
+        appInput = false;
+        if (wasConnected) {
+            broadcastLinkState();
+        }
+    }
+
+    // --- Keepalive ---
+
+    private void startKeepalive() {
+        keepalive.onConnected(SystemClock.elapsedRealtime());
+        mainHandler.removeCallbacks(keepaliveTick);
+        kickKeepalive();
+        mainHandler.post(keepaliveTick);
     }
 
+    // Main thread. Re-evaluates the probing mode; polls at once when it changes
+    // so an expand after a long idle spell checks the link straight away.
+    private void kickKeepalive() {
+        if (keepalive.setActive(isExpanded || framesInFlight()) && wsConnected) {
+            mainHandler.removeCallbacks(keepaliveTick);
+            mainHandler.post(keepaliveTick);
+        }
+    }
+
+    private boolean framesInFlight() {
+        OverlayFrameWriter writer = frameWriter;
+        return (writer != null && writer.getQueueDepth() > 0)
+                || (desktopAcks && outbox != null && outbox.pendingCount() > 0);
+    }
+
+    private final Runnable keepaliveTick = new Runnable() {
+        @Override
+        public void run() {
+            WebSocketClient client = wsClient;
+            if (client == null || !wsConnected) return;
+            long now = SystemClock.elapsedRealtime();
+            keepalive.setActive(isExpanded || framesInFlight());
+            switch (keepalive.poll(now)) {
+                case KeepalivePolicy.PING:
+                    try {
+                        client.sendPing(); // control frame; safe from any thread
+                    } catch (Exception e) {
+                        Log.w(TAG, "Ping failed: " + e.getMessage());
+                    }
+                    break;
+                case KeepalivePolicy.DEAD: {
+                    long silent = keepalive.silentFor(now);
+                    deadPeerLatency.record(silent * 1000);
+                    Log.w(TAG, "Desktop silent for " + silent + "ms, dropping connection ("
+                            + String.format(java.util.Locale.US, "%.1f", keepalive.wakeupsPerHour(now))
+                            + " pings/h)");
+                    // onClose follows synchronously and schedules the reconnect
+                    client.closeConnection(CloseFrame.ABNORMAL_CLOSE, "Keepalive timeout");
+                    return;
+                }
+                default:
+                    break;
+            }
+            mainHandler.postDelayed(this, keepalive.nextPollDelay(now));
+        }
+    };
+
     private void cancelPendingReconnect() {
         if (pendingReconnect != null) {
             mainHandler.removeCallbacks(pendingReconnect);
@@ -292,71 +652,801 @@ public class FloatingInputService extends Service {
 
     private void scheduleReconnect() {
         cancelPendingReconnect();
-        reconnectAttempts++;
-        int delay = Math.min(2000 * reconnectAttempts, MAX_RECONNECT_DELAY);
-        Log.d(TAG, "Reconnecting in " + delay + "ms (attempt " + reconnectAttempts + ")");
+        if (!networkAvailable) {
+            // Circuit open: nothing to dial over; the network callback redials
+            Log.d(TAG, "No network, reconnect parked until connectivity returns");
+            return;
+        }
+        long delay = reconnectBackoff.nextDelayMs();
+        counters.onReconnectScheduled();
+        Log.d(TAG, "Reconnecting in " + delay + "ms (attempt " + reconnectBackoff.getAttempts() + ")");
         pendingReconnect = this::connectWebSocket;
         mainHandler.postDelayed(pendingReconnect, delay);
     }
 
-    private void sendTextViaWebSocket(String text) {
-        if (wsClient != null && wsConnected) {
-            try {
-                JSONObject msg = new JSONObject();
-                msg.put("type", "text");
-                msg.put("text", text);
-                wsClient.send(msg.toString());
-                Log.d(TAG, "Sent text via WS: " + text.length() + " chars");
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send text: " + e.getMessage());
+    // --- Network Changes ---
+
+    private void registerNetworkCallback() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                mainHandler.post(() -> onDefaultNetworkAvailable(network));
             }
-        } else {
-            mainHandler.post(() -> Toast.makeText(this, "Not connected to desktop", Toast.LENGTH_SHORT).show());
+
+            @Override
+            public void onLost(Network network) {
+                mainHandler.post(() -> onDefaultNetworkLost(network));
+            }
+        };
+        try {
+            cm.registerDefaultNetworkCallback(networkCallback);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Network callback unavailable: " + e.getMessage());
+            networkCallback = null;
+        }
+    }
+
+    private void unregisterNetworkCallback() {
+        if (networkCallback != null) {
+            ConnectivityManager cm = (ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE);
+            if (cm != null) {
+                try {
+                    cm.unregisterNetworkCallback(networkCallback);
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+            networkCallback = null;
+        }
+    }
+
+    private void onDefaultNetworkAvailable(Network network) {
+        Network previous = defaultNetwork;
+        boolean wasOffline = !networkAvailable;
+        defaultNetwork = network;
+        networkAvailable = true;
+        if (network.equals(previous)) return;
+        if (previous == null && !wasOffline) return; // Initial callback right after registering
+
+        // The old socket is bound to a network that is gone or no longer default
+        Log.d(TAG, (wasOffline ? "Network back" : "Default network changed") + ", redialing now");
+        redialNow();
+    }
+
+    private void onDefaultNetworkLost(Network network) {
+        if (!network.equals(defaultNetwork)) return;
+        defaultNetwork = null;
+        networkAvailable = false;
+        Log.d(TAG, "Default network lost, pausing reconnects");
+        cancelPendingReconnect();
+        if (wsClient != null || !dialing.isEmpty()) {
+            if (wsConnected) {
+                connectionLostAt = SystemClock.elapsedRealtime();
+            }
+            disconnectWebSocket();
+            updateStatusDot(false);
+        }
+    }
+
+    private void redialNow() {
+        if (wsIPs == null || wsPort <= 0) return;
+        reconnectBackoff.reset();
+        cancelPendingReconnect();
+        if (wsConnected && connectionLostAt == 0) {
+            connectionLostAt = SystemClock.elapsedRealtime();
+        }
+        disconnectWebSocket();
+        updateStatusDot(false);
+        connectWebSocket();
+    }
+
+    // Runs on the socket's read thread
+    private void handleDesktopMessage(String message, int gen) {
+        try {
+            JSONObject msg = new JSONObject(message);
+            String type = msg.optString("type");
+            if ("hello".equals(type)) {
+                int proto = msg.optInt("proto", 0);
+                binaryFrames = msg.optBoolean("binary", false) && proto >= OverlayWireCodec.VERSION;
+                cursorEdits = msg.optBoolean("cursor", false);
+                desktopAcks = msg.optBoolean("acks", false) && proto >= OverlayWireCodec.VERSION_SEQ;
+                deflateFrames = binaryFrames && msg.optBoolean("deflate", false);
+                appInput = msg.optBoolean("app", false);
+                desktopMouse = msg.optBoolean("mouse", false);
+                boolean auth = msg.optBoolean("auth", false);
+                helloSeen = true;
+                Log.d(TAG, "Desktop hello: proto=" + proto + " binary=" + binaryFrames
+                        + " cursor=" + cursorEdits + " acks=" + desktopAcks + " deflate=" + deflateFrames
+                        + " app=" + appInput + " mouse=" + desktopMouse + " auth=" + auth);
+                mainHandler.post(() -> {
+                    if (gen == wsGeneration) broadcastLinkState();
+                });
+                OverlayFrameWriter writer = frameWriter;
+                if (auth && wsDeviceId != null && wsToken != null && writer != null) {
+                    // App input and mouse ops need the pairing token; queued ahead of the resume
+                    JSONObject credentials = new JSONObject();
+                    credentials.put("type", "auth");
+                    credentials.put("deviceId", wsDeviceId);
+                    credentials.put("token", wsToken);
+                    writer.offerControl(credentials.toString());
+                }
+                if (desktopAcks && outbox != null && writer != null) {
+                    // Desktop answers with the last seq it applied for this session
+                    JSONObject resume = new JSONObject();
+                    resume.put("type", "resume");
+                    resume.put("session", Long.toHexString(outbox.sessionId()));
+                    resume.put("seq", outbox.ackedSeq());
+                    writer.offerControl(resume.toString());
+                } else {
+                    mainHandler.post(() -> beginReplay(gen, 0));
+                }
+            } else if ("ack".equals(type)) {
+                long seq = msg.optLong("seq", 0);
+                if (outbox != null) {
+                    outbox.ack(seq);
+                    onOutboxAcked();
+                }
+                if (msg.has("inj")) {
+                    // Sent once the desktop has injected the frame, not just received it
+                    recordAckLatency(seq, msg.optLong("inj", 0));
+                }
+                if (msg.optBoolean("resume", false) || msg.optBoolean("resend", false)) {
+                    // Resume handshake, or the desktop saw a gap (a dropped frame)
+                    mainHandler.post(() -> beginReplay(gen, seq + 1));
+                }
+            } else if ("auth".equals(type)) {
+                boolean ok = msg.optBoolean("ok", false);
+                appInput = ok && msg.optBoolean("app", false);
+                desktopMouse = ok && msg.optBoolean("mouse", false);
+                if (!ok) Log.w(TAG, "Desktop rejected the pairing token; app input stays on P2P");
+                mainHandler.post(() -> {
+                    if (gen == wsGeneration) broadcastLinkState();
+                });
+            } else {
+                Log.d(TAG, "WS message: " + message);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Bad desktop message: " + e.getMessage());
+        }
+    }
+
+    private void startFrameWriter(WebSocketClient client) {
+        binaryFrames = false;
+        cursorEdits = false;
+        desktopAcks = false;
+        deflateFrames = false;
+        appInput = false;
+        desktopMouse = false;
+        helloSeen = false;
+        outboxLive = false;
+        OverlayWireCodec codec = new OverlayWireCodec();
+        frameCodec = codec;
+        OverlayFrameWriter writer = new OverlayFrameWriter(WRITER_QUEUE_CAPACITY,
+                OverlayFrameWriter.Backpressure.COALESCE);
+        writer.start(frame -> writeFrame(client, codec, frame), "overlay-ws-writer");
+        frameWriter = writer;
+    }
+
+    private void stopFrameWriter() {
+        outboxLive = false;
+        // Never journaled, so nothing would bring them back after a reconnect
+        mainHandler.post(unjournaledOps::clear);
+        OverlayFrameWriter writer = frameWriter;
+        frameWriter = null;
+        if (writer != null) {
+            writer.stop();
+            counters.onWriterStopped(writer);
+        }
+    }
+
+    // Runs on the writer thread: the only place that encodes frames and touches the socket
+    private void writeFrame(WebSocketClient client, OverlayWireCodec codec, OverlayFrameWriter.Frame frame) {
+        locks.onActivity(); // Frames flowing keep the Wi-Fi lock at low latency
+        long seq = frame.seq;
+        if (!desktopAcks) {
+            frame.seq = 0; // older desktops only understand unsequenced frames
+        }
+        try {
+            if (frame.kind == OverlayFrameWriter.KIND_CONTROL) {
+                client.send(frame.text);
+                counters.onFrameSent(frame.text.length());
+                return;
+            }
+            if (binaryFrames) {
+                codec.setCompression(deflateFrames);
+                ByteBuffer buf = codec.encode(frame);
+                if (buf != null) {
+                    int size = buf.remaining();
+                    client.send(buf); // copied into the outgoing frame, safe to reuse
+                    counters.onFrameSent(size);
+                    codec.release(buf);
+                    ackIfUnacknowledged(seq);
+                    return;
+                }
+            }
+
+            // JSON fallback for desktops without binary support
+            JSONObject msg = new JSONObject();
+            if (frame.seq > 0) {
+                msg.put("seq", frame.seq);
+                if (frame.firstSeq != frame.seq) {
+                    msg.put("from", frame.firstSeq);
+                }
+            }
+            if (frame.kind == OverlayFrameWriter.KIND_EDIT) {
+                if (frame.count == 0 && frame.move == 0) {
+                    msg.put("type", "text");
+                    msg.put("text", frame.text);
+                } else {
+                    msg.put("type", "edit");
+                    if (frame.move != 0) {
+                        msg.put("move", frame.move);
+                    }
+                    msg.put("delete", frame.count);
+                    msg.put("text", frame.text);
+                }
+            } else if (frame.kind == OverlayFrameWriter.KIND_KEY) {
+                msg.put("type", "key");
+                msg.put("key", frame.key);
+                if (frame.count > 1) {
+                    msg.put("repeat", frame.count);
+                }
+            } else {
+                return;
+            }
+            String json = msg.toString();
+            client.send(json);
+            counters.onFrameSent(json.length()); // chars; close enough to bytes for JSON
+            ackIfUnacknowledged(seq);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to send frame: " + e.getMessage());
+            frame.deliver(false);
+        }
+    }
+
+    // Without desktop acks, a frame handed to the socket is as delivered as it gets
+    private void ackIfUnacknowledged(long seq) {
+        if (!desktopAcks && seq > 0 && outbox != null) {
+            outbox.ack(seq);
+            onOutboxAcked();
+        }
+    }
+
+    private void onOutboxAcked() {
+        if (pasteStream != null) {
+            mainHandler.post(pastePump);
+        }
+    }
+
+    // Main thread. Offers journaled ops from fromSeq on to the writer in batches,
+    // then switches to live sends. Restarting it (a resend request) is safe: the
+    // desktop drops anything it already applied.
+    private void beginReplay(int gen, long fromSeq) {
+        if (gen != wsGeneration || frameWriter == null) return;
+        queuedNoticeShown = false;
+        if (outbox == null) {
+            sendUnjournaled(frameWriter, Long.MAX_VALUE);
+            outboxLive = true;
+            return;
+        }
+        outboxLive = false;
+        replayNext = Math.max(fromSeq, outbox.ackedSeq() + 1);
+        long pending = outbox.lastSeq() - replayNext + 1;
+        if (pending > 0) {
+            Log.d(TAG, "Replaying " + pending + " op(s) from seq " + replayNext);
+        }
+        mainHandler.removeCallbacks(replayPump);
+        replayGen = gen;
+        replayPump.run();
+    }
+
+    private final Runnable replayPump = new Runnable() {
+        @Override
+        public void run() {
+            OverlayFrameWriter writer = frameWriter;
+            if (replayGen != wsGeneration || writer == null || !wsConnected) return;
+            if (writer.getQueueDepth() > WRITER_QUEUE_CAPACITY - REPLAY_BATCH) {
+                // Let the socket catch up; a full ring would drop replayed ops
+                mainHandler.postDelayed(this, REPLAY_BACKOFF_MS);
+                return;
+            }
+            // Stop at the next unjournaled op, which goes out in between
+            int max = REPLAY_BATCH;
+            OverlayFrameWriter.Frame waiting = unjournaledOps.peek();
+            if (waiting != null) {
+                max = (int) Math.min(max, Math.max(0, waiting.seq - replayNext + 1));
+            }
+            replayNext = outbox.replay(replayNext, max,
+                    (seq, kind, move, count, text) -> offer(writer, kind, move, count, text, seq));
+            sendUnjournaled(writer, replayNext);
+            if (replayNext > outbox.lastSeq() && unjournaledOps.isEmpty()) {
+                outboxLive = true;
+            } else {
+                mainHandler.post(this);
+            }
+        }
+    };
+
+    // Offers the unjournaled ops whose preceding journaled ops (seqs below
+    // beforeSeq) have all been offered
+    private void sendUnjournaled(OverlayFrameWriter writer, long beforeSeq) {
+        OverlayFrameWriter.Frame op;
+        while ((op = unjournaledOps.peek()) != null && op.seq < beforeSeq) {
+            unjournaledOps.poll();
+            offer(writer, op.kind, op.move, op.count,
+                    op.kind == OverlayFrameWriter.KIND_KEY ? op.key : op.text, 0);
+        }
+    }
+
+    private static boolean offer(OverlayFrameWriter writer, int kind, int move, int count, String text, long seq) {
+        if (kind == OverlayFrameWriter.KIND_KEY) {
+            return writer.offerKey(text, count, seq);
         }
+        return writer.offerEdit(move, count, text, seq);
+    }
+
+    private void sendTextViaWebSocket(String text) {
+        sendEditViaWebSocket(0, 0, text);
     }
 
     // --- Real-time Text Sync (matches app input field behavior) ---
 
-    private void syncTextDiff(String newText) {
-        int commonLen = getCommonPrefixLength(newText, lastSentText);
-        int backspacesNeeded = lastSentText.length() - commonLen;
-        String newChars = newText.substring(commonLen);
+    // Called from onTextChanged: `before` chars at `start` became `count` chars of s
+    private void syncTextChange(CharSequence s, int start, int before, int count) {
+        OverlayTextDiff.Edit edit;
+        if (sentText.length() - before + count == s.length()) {
+            // Incremental: cost follows the changed run, not the text length
+            edit = sentText.replace(start, before, s, count, cursorEdits, pendingEdit);
+        } else {
+            // Mirror out of step with the EditText — full prefix + suffix resync
+            Log.w(TAG, "Text mirror out of sync, resyncing " + s.length() + " chars");
+            edit = OverlayTextDiff.diff(sentText, s, sentText.caret(), cursorEdits, pendingEdit);
+            sentText.set(s, edit.caretAfter);
+        }
 
-        // Send backspaces for deleted characters
-        for (int i = 0; i < backspacesNeeded; i++) {
-            sendKeyViaWebSocket("Backspace");
+        // One frame per change: a typo fixed mid-line moves the caret, deletes
+        // and inserts instead of retyping the whole tail
+        if (edit.move != 0 || edit.delete > 0) {
+            sendEditViaWebSocket(edit.move, edit.delete, edit.insert);
+        } else if (edit.insert.length() > 0) {
+            // Pure insertion at the caret: plain text frame
+            sendTextViaWebSocket(edit.insert);
         }
+    }
 
-        // Send new characters
-        if (newChars.length() > 0) {
-            sendTextViaWebSocket(newChars);
+    private void sendEditViaWebSocket(int move, int deleteCount, String text) {
+        if (pasteStream != null) {
+            hold(OverlayFrameWriter.KIND_EDIT, move, deleteCount, text);
+        } else if (OverlayPasteStream.shouldStream(text)) {
+            pasteStream = new OverlayPasteStream(move, deleteCount, text);
+            Log.d(TAG, "Streaming " + text.length() + " chars in chunks");
+            pastePump.run();
+        } else {
+            sendEdit(move, deleteCount, text);
         }
+    }
 
-        lastSentText = newText;
+    // Returns the op's outbox seq (0 if unjournaled)
+    private long sendEdit(int move, int deleteCount, String text) {
+        long seq = journal(OverlayFrameWriter.KIND_EDIT, move, deleteCount, text);
+        sendOp(OverlayFrameWriter.KIND_EDIT, move, deleteCount, text, seq);
+        return seq;
     }
 
-    private int getCommonPrefixLength(String a, String b) {
-        int len = Math.min(a.length(), b.length());
-        for (int i = 0; i < len; i++) {
-            if (a.charAt(i) != b.charAt(i))
-                return i;
+    // Main thread. Live ops go straight to the writer; during a replay a
+    // journaled op waits for it in the outbox and an unjournaled one in
+    // unjournaledOps, so neither overtakes the ops typed before it.
+    private void sendOp(int kind, int move, int count, String text, long seq) {
+        OverlayFrameWriter writer = frameWriter;
+        if (writer == null || !wsConnected) {
+            notifyNotSent(seq);
+            return;
         }
-        return len;
+        if (outboxLive) {
+            if (!offer(writer, kind, move, count, text, seq)) {
+                // A journaled op comes back once the desktop sees the gap and asks for a resend
+                Log.w(TAG, (kind == OverlayFrameWriter.KIND_KEY ? "Key" : "Edit")
+                        + " frame dropped (queue depth " + writer.getQueueDepth() + ")");
+                if (!desktopAcks && outbox != null) {
+                    // No desktop will ask, and the ops after it would be acked
+                    // past it once written: hand it to the replay pump, which
+                    // waits for room and keeps later ops behind it
+                    if (seq == 0) {
+                        queueUnjournaled(kind, move, count, text);
+                    }
+                    beginReplay(wsGeneration, seq > 0 ? seq : outbox.lastSeq() + 1);
+                }
+            }
+        } else if (seq == 0) {
+            queueUnjournaled(kind, move, count, text);
+        }
+        kickKeepalive();
+    }
+
+    private void queueUnjournaled(int kind, int move, int count, String text) {
+        OverlayFrameWriter.Frame op = new OverlayFrameWriter.Frame();
+        op.kind = kind;
+        op.move = move;
+        op.count = count;
+        if (kind == OverlayFrameWriter.KIND_KEY) {
+            op.key = text;
+        } else {
+            op.text = text;
+        }
+        op.seq = outbox != null ? outbox.lastSeq() : 0;
+        unjournaledOps.add(op);
     }
 
     private void sendKeyViaWebSocket(String key) {
-        if (wsClient != null && wsConnected) {
-            try {
-                JSONObject msg = new JSONObject();
-                msg.put("type", "key");
-                msg.put("key", key);
-                wsClient.send(msg.toString());
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to send key: " + e.getMessage());
+        sendKeyViaWebSocket(key, 1);
+    }
+
+    private void sendKeyViaWebSocket(String key, int repeat) {
+        if (pasteStream != null) {
+            hold(OverlayFrameWriter.KIND_KEY, 0, repeat, key);
+            return;
+        }
+        long seq = journal(OverlayFrameWriter.KIND_KEY, 0, repeat, key);
+        sendOp(OverlayFrameWriter.KIND_KEY, 0, repeat, key, seq);
+    }
+
+    // --- Chunked Paste Streaming ---
+
+    private void hold(int kind, int move, int count, String text) {
+        OverlayFrameWriter.Frame op = new OverlayFrameWriter.Frame();
+        op.kind = kind;
+        op.move = move;
+        op.count = count;
+        if (kind == OverlayFrameWriter.KIND_KEY) {
+            op.key = text;
+        } else {
+            op.text = text;
+        }
+        heldOps.add(op);
+    }
+
+    private long ackedSeq() {
+        return outbox != null ? outbox.ackedSeq() : Long.MAX_VALUE;
+    }
+
+    // Main thread. Releases chunks while the window has room; re-run on every ack.
+    // Chunks go through the outbox like any op, so a reconnect replays the ones
+    // in flight and the stream carries on once they are acked.
+    private final Runnable pastePump = new Runnable() {
+        @Override
+        public void run() {
+            OverlayPasteStream stream = pasteStream;
+            if (stream == null) return;
+            while (stream.canRelease(ackedSeq())) {
+                int move = stream.nextMove();
+                int delete = stream.nextDelete();
+                stream.onReleased(sendEdit(move, delete, stream.nextChunk()));
+            }
+            long acked = ackedSeq();
+            updatePasteProgress(stream.ackedChars(acked), stream.getTotalChars());
+            if (!stream.isFinished(acked)) return;
+
+            Log.d(TAG, "Streamed " + stream.getTotalChars() + " chars in " + stream.getReleasedChunks() + " chunks");
+            pasteStream = null;
+            updatePasteProgress(0, 0);
+            // Ops typed during the paste, in order; another long paste among them streams in turn
+            while (pasteStream == null && !heldOps.isEmpty()) {
+                OverlayFrameWriter.Frame op = heldOps.poll();
+                if (op.kind == OverlayFrameWriter.KIND_KEY) {
+                    sendKeyViaWebSocket(op.key, op.count);
+                } else {
+                    sendEditViaWebSocket(op.move, op.count, op.text);
+                }
+            }
+        }
+    };
+
+    // Stops a paste: chunks not yet released are dropped along with the ops held
+    // behind them, and the desktop is asked to drop what it has queued. The
+    // desktop then has only part of the paste, so the overlay text starts over,
+    // as with the clear button.
+    private void cancelPaste() {
+        OverlayPasteStream stream = pasteStream;
+        if (stream == null) return;
+        Log.d(TAG, "Paste cancelled at " + stream.ackedChars(ackedSeq()) + "/" + stream.getTotalChars() + " chars");
+        pasteStream = null;
+        heldOps.clear();
+        mainHandler.removeCallbacks(pastePump);
+        if (outbox != null) {
+            // Chunks released but not acked (say, while offline) would otherwise
+            // be replayed after a reconnect into text that was just cleared
+            long first = stream.firstUnackedSeq(outbox.ackedSeq());
+            if (first > 0) outbox.voidOps(first, outbox.lastSeq());
+        }
+        updatePasteProgress(0, 0);
+        OverlayFrameWriter writer = frameWriter;
+        if (writer != null && wsConnected) {
+            writer.offerControl("{\"type\":\"cancel\"}");
+        }
+        if (panelView != null) {
+            EditText input = panelView.findViewById(R.id.overlay_input);
+            ignoreTextChange = true;
+            input.setText("");
+            sentText.clear();
+            ignoreTextChange = false;
+        }
+    }
+
+    // Ring around the bubble; total 0 hides it
+    private void updatePasteProgress(int done, int total) {
+        if (bubbleView == null) return;
+        ProgressBar progress = bubbleView.findViewById(R.id.paste_progress);
+        if (progress == null) return;
+        if (total <= 0) {
+            progress.setVisibility(View.GONE);
+            return;
+        }
+        progress.setVisibility(View.VISIBLE);
+        progress.setProgress((int) (1000L * done / total));
+    }
+
+    // Returns the op's outbox seq, or 0 if it could not be journaled
+    private long journal(int kind, int move, int count, String text) {
+        if (outbox == null) return 0;
+        long seq = outbox.append(kind, move, count, text);
+        if (seq < 0) {
+            Log.w(TAG, "Outbox full (" + outbox.pendingCount() + " ops pending), sending unjournaled");
+            return 0;
+        }
+        if (wsConnected) {
+            // Ops typed while offline would measure the outage, not the link
+            synchronized (typedAtSeq) {
+                int slot = (int) (seq % TYPED_AT_SLOTS);
+                typedAtSeq[slot] = seq;
+                typedAtMicros[slot] = nowMicros();
+            }
+        }
+        return seq;
+    }
+
+    // --- Latency Stats ---
+
+    private static long nowMicros() {
+        return SystemClock.elapsedRealtimeNanos() / 1000;
+    }
+
+    // Socket thread. One ack covers every seq up to `seq` (coalesced frames).
+    private void recordAckLatency(long seq, long injectMs) {
+        long now = nowMicros();
+        synchronized (typedAtSeq) {
+            for (long s = Math.max(latencyMeasuredSeq + 1, seq - TYPED_AT_SLOTS + 1); s <= seq; s++) {
+                int slot = (int) (s % TYPED_AT_SLOTS);
+                if (typedAtSeq[slot] == s) {
+                    keystrokeLatency.record(now - typedAtMicros[slot]);
+                    typedAtSeq[slot] = 0;
+                }
+            }
+            latencyMeasuredSeq = Math.max(latencyMeasuredSeq, seq);
+        }
+        injectLatency.record(injectMs * 1000);
+    }
+
+    // Main thread. Requests from FloatingInputPlugin in the app process.
+    private boolean handleClientMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_SEND_INPUT:
+                forwardAppInput(msg.getData().getString("json"), msg.replyTo, msg.arg2);
+                return true;
+            case MSG_REGISTER_LINK:
+                if (msg.replyTo == null) return false;
+                if (!linkClients.contains(msg.replyTo)) linkClients.add(msg.replyTo);
+                sendLinkState(msg.replyTo);
+                return true;
+            case MSG_UNREGISTER_LINK:
+                linkClients.remove(msg.replyTo);
+                return true;
+            default:
+                break;
+        }
+        if (msg.replyTo == null) {
+            return false;
+        }
+        Message reply;
+        switch (msg.what) {
+            case MSG_GET_LATENCY_STATS:
+                reply = Message.obtain(null, MSG_LATENCY_STATS, 0, msg.arg2);
+                reply.setData(latencyStats(msg.arg1 == 1));
+                break;
+            case MSG_GET_OVERLAY_STATS:
+                reply = Message.obtain(null, MSG_OVERLAY_STATS, 0, msg.arg2);
+                reply.setData(overlayStats());
+                break;
+            default:
+                return false;
+        }
+        try {
+            msg.replyTo.send(reply);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Stats client went away: " + e.getMessage());
+        }
+        return true;
+    }
+
+    // --- Shared desktop link ---
+
+    // Main thread. The app's input joins the same writer queue as the overlay's
+    // own frames, so both reach the desktop in the order they were produced.
+    // Nothing is journaled: pointer moves are stale by the time a reconnect
+    // replays them. Instead replyTo hears whether the frame was written to the
+    // socket, and the app sends anything that wasn't over its P2P channel.
+    private void forwardAppInput(String json, Messenger replyTo, int requestId) {
+        OverlayFrameWriter writer = frameWriter;
+        boolean queued = json != null && writer != null && wsConnected && appInput
+                && writer.offerControl("{\"type\":\"app\",\"data\":" + json + "}", false,
+                        written -> onAppInputDelivered(replyTo, requestId, written));
+        if (!queued) {
+            onAppInputDelivered(replyTo, requestId, false);
+            return;
+        }
+        kickKeepalive();
+    }
+
+    // Writer thread, or main thread for input that never made the queue
+    private void onAppInputDelivered(Messenger replyTo, int requestId, boolean written) {
+        if (written) {
+            counters.onAppInputForwarded();
+        } else {
+            counters.onAppInputDropped();
+        }
+        if (replyTo == null) return;
+        try {
+            replyTo.send(Message.obtain(null, MSG_INPUT_SENT, written ? 1 : 0, requestId));
+        } catch (RemoteException e) {
+            Log.w(TAG, "Link client went away: " + e.getMessage());
+        }
+    }
+
+    // Main thread
+    private void broadcastLinkState() {
+        for (int i = linkClients.size() - 1; i >= 0; i--) {
+            if (!sendLinkState(linkClients.get(i))) {
+                linkClients.remove(i);
             }
         }
     }
 
+    private boolean sendLinkState(Messenger client) {
+        boolean connected = wsConnected;
+        Message state = Message.obtain(null, MSG_LINK_STATE,
+                connected ? 1 : 0, connected && appInput ? 1 : 0);
+        try {
+            client.send(state);
+            return true;
+        } catch (RemoteException e) {
+            Log.w(TAG, "Link client went away: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private Bundle latencyStats(boolean reset) {
+        Bundle data = new Bundle();
+        data.putBoolean("connected", wsConnected);
+        data.putLong("lastConnectMs", lastConnectMs);
+        data.putBundle("keystroke", latencyBundle(keystrokeLatency));
+        data.putBundle("inject", latencyBundle(injectLatency));
+        data.putBundle("handshake", latencyBundle(handshakeLatency));
+        data.putBundle("reconnect", latencyBundle(reconnectLatency));
+        data.putBundle("deadPeer", latencyBundle(deadPeerLatency));
+        data.putBundle("touchpad", latencyBundle(touchpadLatency));
+        data.putLong("touchpadOverFrame", touchpad != null ? touchpad.getOverFrame() : 0);
+        // Bubble drag pacing: frame times, jank, and window updates coalesced
+        data.putBundle("overlayFrames", layouts.stats(reset));
+        Bundle heartbeat = new Bundle();
+        heartbeat.putBoolean("active", keepalive.isActive());
+        heartbeat.putLong("pings", keepalive.getPings());
+        heartbeat.putLong("deadPeers", keepalive.getDeadPeers());
+        heartbeat.putDouble("wakeupsPerHour", keepalive.wakeupsPerHour(SystemClock.elapsedRealtime()));
+        data.putBundle("keepalive", heartbeat);
+        // Battery side of the latency numbers above
+        data.putBundle("locks", locks.stats(reset));
+        if (reset) {
+            keystrokeLatency.reset();
+            injectLatency.reset();
+            handshakeLatency.reset();
+            reconnectLatency.reset();
+            deadPeerLatency.reset();
+            touchpadLatency.reset();
+            if (touchpad != null) touchpad.resetStats();
+        }
+        return data;
+    }
+
+    // Plain counter reads: no locks beyond the writer's own, nothing allocated
+    // but the Bundles, so polling it from the app is cheap
+    private Bundle overlayStats() {
+        long now = SystemClock.elapsedRealtime();
+        Bundle data = new Bundle();
+        data.putBoolean("connected", wsConnected);
+        data.putLong("uptimeMs", now - createdAt);
+        data.putLong("connectedMs", counters.connectedMs(now));
+
+        Bundle frames = new Bundle();
+        OverlayFrameWriter writer = frameWriter;
+        frames.putLong("sent", counters.getFramesSent());
+        frames.putLong("bytesSent", counters.getBytesSent());
+        frames.putLong("dropped", counters.framesDropped(writer));
+        frames.putLong("coalesced", counters.framesCoalesced(writer));
+        frames.putInt("queueDepth", writer != null ? writer.getQueueDepth() : 0);
+        frames.putInt("queueHighWater", writer != null ? writer.getHighWater() : 0);
+        frames.putInt("queueCapacity", WRITER_QUEUE_CAPACITY);
+        data.putBundle("frames", frames);
+
+        Bundle connection = new Bundle();
+        connection.putLong("connects", counters.getConnects());
+        connection.putLong("reconnects", counters.getReconnects());
+        connection.putLong("reconnectAttempts", counters.getReconnectAttempts());
+        connection.putLong("lastConnectMs", lastConnectMs);
+        connection.putBoolean("networkAvailable", networkAvailable);
+        data.putBundle("connection", connection);
+
+        // Per-IP history, as persisted for dial ordering
+        Bundle ips = new Bundle();
+        for (OverlayEndpointTable.Endpoint e : endpoints().all()) {
+            Bundle ip = new Bundle();
+            ip.putInt("successes", e.successes);
+            ip.putInt("failures", e.failures);
+            ip.putLong("lastRttMs", e.lastRttMs);
+            ips.putBundle(e.ip, ip);
+        }
+        data.putBundle("endpoints", ips);
+
+        if (outbox != null) {
+            Bundle journal = new Bundle();
+            journal.putLong("pending", outbox.pendingCount());
+            journal.putLong("ackedSeq", outbox.ackedSeq());
+            data.putBundle("outbox", journal);
+        }
+
+        OverlayWireCodec codec = frameCodec;
+        if (codec != null) {
+            // Current connection only; written on the writer thread, so approximate
+            Bundle compression = new Bundle();
+            compression.putBoolean("enabled", deflateFrames);
+            compression.putLong("frames", codec.getFramesCompressed());
+            compression.putLong("bytesIn", codec.getBytesBeforeCompression());
+            compression.putLong("bytesOut", codec.getBytesAfterCompression());
+            data.putBundle("compression", compression);
+        }
+        data.putBoolean("pasteStreaming", pasteStream != null);
+
+        Bundle link = new Bundle();
+        link.putBoolean("appInput", wsConnected && appInput);
+        link.putInt("clients", linkClients.size());
+        link.putLong("forwarded", counters.getAppInputForwarded());
+        link.putLong("dropped", counters.getAppInputDropped());
+        data.putBundle("link", link);
+        return data;
+    }
+
+    // Milliseconds, as the WebView shows them
+    private static Bundle latencyBundle(LatencyHistogram h) {
+        Bundle b = new Bundle();
+        b.putLong("count", h.getCount());
+        b.putDouble("p50", h.getValueAtPercentile(50) / 1000.0);
+        b.putDouble("p90", h.getValueAtPercentile(90) / 1000.0);
+        b.putDouble("p99", h.getValueAtPercentile(99) / 1000.0);
+        b.putDouble("max", h.getMax() / 1000.0);
+        b.putDouble("mean", h.getMean() / 1000.0);
+        return b;
+    }
+
+    private void notifyNotSent(long seq) {
+        if (seq <= 0) {
+            mainHandler.post(() -> Toast.makeText(this, "Not connected to desktop", Toast.LENGTH_SHORT).show());
+        } else if (!wsConnected && !queuedNoticeShown) {
+            queuedNoticeShown = true;
+            mainHandler.post(() -> Toast.makeText(this, "Not connected — typing will be sent on reconnect",
+                    Toast.LENGTH_SHORT).show());
+        }
+    }
+
     // --- Minimal Foreground Notification (required by Android for foreground
     // services) ---
 
@@ -418,15 +1508,16 @@ public class FloatingInputService extends Service {
     private void createBubble() {
         bubbleView = LayoutInflater.from(this).inflate(R.layout.floating_bubble, null);
 
-        View statusDot = bubbleView.findViewById(R.id.status_dot);
-        GradientDrawable dotShape = new GradientDrawable();
-        dotShape.setShape(GradientDrawable.OVAL);
-        dotShape.setColor(0xFFFF0000);
-        statusDot.setBackground(dotShape);
+        // One drawable for the dot's lifetime; status changes only recolor it
+        statusDotShape = new GradientDrawable();
+        statusDotShape.setShape(GradientDrawable.OVAL);
+        statusDotColor = STATUS_DISCONNECTED;
+        statusDotShape.setColor(statusDotColor);
+        bubbleView.findViewById(R.id.status_dot).setBackground(statusDotShape);
 
         bubbleParams = new WindowManager.LayoutParams(
-                dpToPx(48),
-                dpToPx(48),
+                bubbleSizePx,
+                bubbleSizePx,
                 getOverlayType(),
                 WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE,
                 PixelFormat.TRANSLUCENT);
@@ -441,6 +1532,7 @@ public class FloatingInputService extends Service {
                     initialY = bubbleParams.y;
                     initialTouchX = event.getRawX();
                     initialTouchY = event.getRawY();
+                    if (!isExpanded) layouts.setTracking(true);
                     return true;
                 case MotionEvent.ACTION_MOVE:
                     if (isExpanded)
@@ -448,12 +1540,13 @@ public class FloatingInputService extends Service {
                     bubbleParams.x = initialX + (int) (event.getRawX() - initialTouchX);
                     bubbleParams.y = initialY + (int) (event.getRawY() - initialTouchY);
                     clampBubblePosition();
-                    try {
-                        windowManager.updateViewLayout(bubbleView, bubbleParams);
-                    } catch (Exception ignored) {
-                    }
+                    layouts.update(bubbleView, bubbleParams);
+                    return true;
+                case MotionEvent.ACTION_CANCEL:
+                    layouts.setTracking(false);
                     return true;
                 case MotionEvent.ACTION_UP:
+                    layouts.setTracking(false);
                     float dx = event.getRawX() - initialTouchX;
                     float dy = event.getRawY() - initialTouchY;
                     if (Math.abs(dx) < CLICK_THRESHOLD && Math.abs(dy) < CLICK_THRESHOLD) {
@@ -481,14 +1574,13 @@ public class FloatingInputService extends Service {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
+                if (ignoreTextChange)
+                    return;
+                syncTextChange(s, start, before, count);
             }
 
             @Override
             public void afterTextChanged(Editable s) {
-                if (ignoreTextChange)
-                    return;
-                String newText = s.toString();
-                syncTextDiff(newText);
             }
         });
 
@@ -505,10 +1597,18 @@ public class FloatingInputService extends Service {
         clearBtn.setOnClickListener(v -> {
             ignoreTextChange = true;
             input.setText("");
-            lastSentText = "";
+            sentText.clear();
             ignoreTextChange = false;
         });
 
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        touchpad = new OverlayTouchpad(this::sendMouseOp, metrics.density,
+                ViewConfiguration.get(this).getScaledTouchSlop(),
+                frameMs(windowManager.getDefaultDisplay().getRefreshRate()), touchpadLatency);
+        panelView.findViewById(R.id.overlay_touchpad).setOnTouchListener(touchpad);
+        panelView.findViewById(R.id.btn_touchpad).setOnClickListener(v -> setTouchpadMode(!touchpadMode));
+        panelView.findViewById(R.id.btn_touchpad).setAlpha(0.6f);
+
         panelParams = new WindowManager.LayoutParams(
                 WindowManager.LayoutParams.MATCH_PARENT,
                 WindowManager.LayoutParams.WRAP_CONTENT,
@@ -533,6 +1633,8 @@ public class FloatingInputService extends Service {
 
     private void expandPanel() {
         isExpanded = true;
+        locks.setPinned(true);
+        kickKeepalive();
 
         // Save original bubble position
         savedBubbleX = bubbleParams.x;
@@ -541,29 +1643,19 @@ public class FloatingInputService extends Service {
         // Move bubble just above the input panel (panel is at bottom with gravity
         // BOTTOM)
         // Switch bubble gravity to BOTTOM so it sits right above the panel
-        DisplayMetrics metrics = new DisplayMetrics();
-        windowManager.getDefaultDisplay().getMetrics(metrics);
-        int panelEstimatedHeight = dpToPx(88 + 16); // input minHeight + padding
-        int bubbleSize = dpToPx(48);
         bubbleParams.gravity = Gravity.BOTTOM | Gravity.CENTER_HORIZONTAL;
-        bubbleParams.x = 0;
-        bubbleParams.y = dpToPx(8) + panelEstimatedHeight + dpToPx(4); // panel y offset + panel height + gap
-        try {
-            windowManager.updateViewLayout(bubbleView, bubbleParams);
-        } catch (Exception ignored) {
-        }
+        placeBubbleAbovePanel();
 
         panelView.setVisibility(View.VISIBLE);
-        try {
-            windowManager.updateViewLayout(panelView, panelParams);
-        } catch (Exception ignored) {
-        }
+        layouts.apply(panelView, panelParams);
 
+        if (touchpadMode) return;
         EditText input = panelView.findViewById(R.id.overlay_input);
         input.requestFocus();
 
         // Delay keyboard show — overlay view needs time to attach and gain focus
         mainHandler.postDelayed(() -> {
+            if (touchpadMode) return;
             input.requestFocus();
             InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
             if (imm != null) {
@@ -575,6 +1667,10 @@ public class FloatingInputService extends Service {
 
     private void collapsePanel() {
         isExpanded = false;
+        locks.setPinned(false);
+        cancelPaste();
+        touchpad.reset();
+        kickKeepalive();
         panelView.setVisibility(View.GONE);
         EditText input = panelView.findViewById(R.id.overlay_input);
         InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
@@ -585,39 +1681,145 @@ public class FloatingInputService extends Service {
         bubbleParams.gravity = Gravity.TOP | Gravity.START;
         bubbleParams.x = savedBubbleX;
         bubbleParams.y = savedBubbleY;
+        layouts.apply(bubbleView, bubbleParams);
+
+    }
+
+    // Bubble gravity is BOTTOM while expanded: panel y offset + panel height + gap
+    private void placeBubbleAbovePanel() {
+        int contentDp = touchpadMode ? TOUCHPAD_HEIGHT_DP : INPUT_HEIGHT_DP;
+        int panelEstimatedHeight = dpToPx(contentDp + 16); // content + padding
+        bubbleParams.x = 0;
+        bubbleParams.y = dpToPx(8) + panelEstimatedHeight + dpToPx(4);
+        layouts.apply(bubbleView, bubbleParams);
+    }
+
+    // Swaps the text field for the touchpad. The panel stops taking focus in
+    // touchpad mode so the keyboard goes away and the app underneath keeps it.
+    private void setTouchpadMode(boolean on) {
+        if (on && wsConnected && helloSeen && !desktopMouse) {
+            Toast.makeText(this, "Update Keymote on the desktop to use the touchpad", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        touchpadMode = on;
+        touchpad.reset();
+        EditText input = panelView.findViewById(R.id.overlay_input);
+        input.setVisibility(on ? View.GONE : View.VISIBLE);
+        panelView.findViewById(R.id.btn_clear).setVisibility(on ? View.GONE : View.VISIBLE);
+        panelView.findViewById(R.id.overlay_touchpad).setVisibility(on ? View.VISIBLE : View.GONE);
+        panelView.findViewById(R.id.btn_touchpad).setAlpha(on ? 1f : 0.6f);
+        InputMethodManager imm = (InputMethodManager) getSystemService(INPUT_METHOD_SERVICE);
+        if (on) {
+            if (imm != null) imm.hideSoftInputFromWindow(input.getWindowToken(), 0);
+            panelParams.flags |= WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+        } else {
+            panelParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE;
+        }
+        // Now, not next frame: showSoftInput below needs the window focusable
+        layouts.apply(panelView, panelParams);
+        if (isExpanded) {
+            placeBubbleAbovePanel();
+            if (!on) {
+                input.requestFocus();
+                if (imm != null) imm.showSoftInput(input, InputMethodManager.SHOW_FORCED);
+            }
+        }
+    }
+
+    // Main thread. Touchpad ops are not journaled: a replayed pointer move
+    // would land somewhere the user no longer means. For the same reason a full
+    // writer queue may evict moves and scrolls; button presses are kept.
+    private void sendMouseOp(PointerAccumulator.Event event) {
+        OverlayFrameWriter writer = frameWriter;
+        if (writer == null || !wsConnected || !desktopMouse) return;
+        JSONObject op = new JSONObject();
         try {
-            windowManager.updateViewLayout(bubbleView, bubbleParams);
+            op.put("type", "mouse");
+            op.put("action", event.action);
+            if (PointerAccumulator.MOVE.equals(event.action)) {
+                op.put("dx", event.dx);
+                op.put("dy", event.dy);
+            } else if (event.delta != 0) {
+                op.put("delta", event.delta);
+            }
         } catch (Exception ignored) {
         }
-
+        boolean stale = PointerAccumulator.MOVE.equals(event.action) || PointerAccumulator.SCROLL.equals(event.action);
+        writer.offerControl(op.toString(), stale);
     }
 
     private void updateStatusDot(boolean connected) {
-        if (bubbleView == null)
+        int color = connected ? STATUS_CONNECTED : STATUS_DISCONNECTED;
+        if (statusDotShape == null || color == statusDotColor)
             return;
-        View statusDot = bubbleView.findViewById(R.id.status_dot);
-        if (statusDot != null) {
-            GradientDrawable dotShape = new GradientDrawable();
-            dotShape.setShape(GradientDrawable.OVAL);
-            dotShape.setColor(connected ? 0xFF4CAF50 : 0xFFFF0000);
-            statusDot.setBackground(dotShape);
-        }
+        statusDotColor = color;
+        statusDotShape.setColor(color);
     }
 
+    // Called per move event during a drag, so it reads the cached screen size
     private void clampBubblePosition() {
-        DisplayMetrics metrics = new DisplayMetrics();
-        windowManager.getDefaultDisplay().getMetrics(metrics);
-        int screenWidth = metrics.widthPixels;
-        int screenHeight = metrics.heightPixels;
-        int bubbleSize = dpToPx(48);
         if (bubbleParams.x < 0)
             bubbleParams.x = 0;
         if (bubbleParams.y < 0)
             bubbleParams.y = 0;
-        if (bubbleParams.x > screenWidth - bubbleSize)
-            bubbleParams.x = screenWidth - bubbleSize;
-        if (bubbleParams.y > screenHeight - bubbleSize)
-            bubbleParams.y = screenHeight - bubbleSize;
+        if (bubbleParams.x > screenWidth - bubbleSizePx)
+            bubbleParams.x = screenWidth - bubbleSizePx;
+        if (bubbleParams.y > screenHeight - bubbleSizePx)
+            bubbleParams.y = screenHeight - bubbleSizePx;
+    }
+
+    private void refreshDisplayMetrics() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        windowManager.getDefaultDisplay().getMetrics(metrics);
+        screenWidth = metrics.widthPixels;
+        screenHeight = metrics.heightPixels;
+        bubbleSizePx = dpToPx(48);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+        layouts.setRefreshRate(refreshRate);
+        if (touchpad != null) touchpad.setFrameMs(frameMs(refreshRate));
+    }
+
+    private static float frameMs(float refreshRate) {
+        return 1000f / (refreshRate > 0 ? refreshRate : 60f);
+    }
+
+    // Resolution and refresh rate can change without a configuration change
+    // (adaptive refresh, display settings)
+    private void registerDisplayListener() {
+        DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+        if (dm == null) return;
+        displayListener = new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) {
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayId) {
+            }
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                if (displayId == Display.DEFAULT_DISPLAY) refreshDisplayMetrics();
+            }
+        };
+        dm.registerDisplayListener(displayListener, mainHandler);
+    }
+
+    private void unregisterDisplayListener() {
+        DisplayManager dm = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+        if (dm != null && displayListener != null) dm.unregisterDisplayListener(displayListener);
+        displayListener = null;
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        refreshDisplayMetrics();
+        // Rotated: keep a free-floating bubble on screen
+        if (bubbleView != null && !isExpanded) {
+            clampBubblePosition();
+            layouts.update(bubbleView, bubbleParams);
+        }
     }
 
     private int dpToPx(int dp) {
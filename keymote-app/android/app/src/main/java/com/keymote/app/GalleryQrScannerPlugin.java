@@ -1,15 +1,26 @@
 package com.keymote.app;
 
 import android.app.Activity;
+import android.content.ClipData;
+import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
 import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 import android.util.Log;
 
 import androidx.activity.result.ActivityResult;
+import androidx.exifinterface.media.ExifInterface;
 
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -17,31 +28,83 @@ import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.ActivityCallback;
 import com.getcapacitor.annotation.CapacitorPlugin;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.barcode.BarcodeScanner;
 import com.google.mlkit.vision.barcode.BarcodeScannerOptions;
 import com.google.mlkit.vision.barcode.BarcodeScanning;
 import com.google.mlkit.vision.barcode.common.Barcode;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.zxing.BarcodeFormat;
 
-// ZXing Imports
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.RGBLuminanceSource;
-import com.google.zxing.Result;
-import com.google.zxing.common.HybridBinarizer;
-
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
- * Custom Capacitor Plugin for Gallery QR Scanning using native ML Kit + ZXing
- * Fallback
+ * Custom Capacitor Plugin for Gallery QR Scanning using native ML Kit and
+ * ZXing, raced against each other
  */
 @CapacitorPlugin(name = "GalleryQrScanner")
 public class GalleryQrScannerPlugin extends Plugin {
 
     private static final String TAG = "GalleryQrScanner";
 
+    // Strategies race on a small pool: one thread each, idle threads time out
+    private static final int SCAN_THREADS = 4;
+    private static final long MLKIT_TIMEOUT_MS = 10_000;
+    // How long a cancelled ML Kit task gets to let go of its bitmap
+    private static final long MLKIT_SETTLE_MS = 2_000;
+    // Sampled decodes land between this and twice this on the short side
+    private static final int DECODE_TARGET = 1500;
+    private final ThreadPoolExecutor scanExecutor = new ThreadPoolExecutor(
+            SCAN_THREADS, SCAN_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    private final ScanBitmapPool bitmapPool = new ScanBitmapPool();
+
+    // Batch scans: a couple of images decode at once on their own threads
+    // (they block on the budget, so they stay off scanExecutor), and their
+    // bitmaps plus working copies share a fixed budget
+    private static final int MAX_BATCH = 20;
+    // Longest side of the copy the mlkitScaled strategy scans
+    private static final int SCALED_MAX = 1200;
+    private static final int BATCH_DECODERS = 2;
+    private static final long BATCH_BUDGET_BYTES = 64L * 1024 * 1024;
+    private final ThreadPoolExecutor batchExecutor = new ThreadPoolExecutor(
+            BATCH_DECODERS, BATCH_DECODERS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    private final ByteBudget batchBudget = new ByteBudget(BATCH_BUDGET_BYTES);
+    private final AtomicInteger batchIds = new AtomicInteger();
+
+    {
+        scanExecutor.allowCoreThreadTimeOut(true);
+        batchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Results of earlier scans (see ScanResultCache), persisted in its own prefs file
+    private static final String PREFS_NAME = "keymote_gallery_scan";
+    private static final String PREF_RESULTS = "results";
+    private ScanResultCache resultCache;
+    // Tiles and binarizers fan out over the common pool's cores. QR only: with
+    // ~70 TRY_HARDER passes per photo, the 1D readers find "codes" in text
+    private final TiledQrDecoder zxingDecoder = new TiledQrDecoder(ForkJoinPool.commonPool())
+            .setFormats(Collections.singletonList(BarcodeFormat.QR_CODE));
+    private static final int LUMA_BAND_ROWS = 64;
+
+    // ML Kit clients are costly to build; made on first use and kept until destroy
+    private BarcodeScanner qrScanner;
+    private BarcodeScanner allFormatsScanner;
+
     @PluginMethod
     public void scanFromGallery(PluginCall call) {
         saveCall(call);
@@ -71,67 +134,453 @@ public class GalleryQrScannerPlugin extends Plugin {
         Uri imageUri = data.getData();
         Log.d(TAG, "Image selected: " + imageUri.toString());
 
-        try {
-            // Copy to temp file first (Robust handling for all ContentProviders/Cloud)
-            java.io.File tempFile = copyToTempFile(imageUri);
-            if (tempFile == null) {
-                call.reject("Failed to copy image from gallery");
-                return;
+        // Decode off the main thread; the strategies start from there
+        boolean skipCache = call.getBoolean("skipCache", false);
+        ScanListener listener = new ScanListener() {
+            @Override
+            public void onResult(JSObject result) {
+                call.resolve(result);
             }
 
-            // Decode from file with downsampling to avoid OOM
-            Bitmap bitmap = decodeSampledBitmapFromFile(tempFile.getAbsolutePath(), 1500, 1500);
+            @Override
+            public void onError(String message) {
+                call.reject(message);
+            }
+        };
+        try {
+            scanExecutor.execute(() -> scanImage(imageUri, skipCache, null, listener));
+        } catch (RejectedExecutionException e) {
+            call.reject("Scanner is shutting down");
+        }
+    }
+
+    /**
+     * Lets the user pick several images and scans them concurrently. Each
+     * image's result goes out as a "galleryScanResult" event as soon as it's
+     * known ({batchId, index, uri} plus the scanFromGallery fields, or error);
+     * the call resolves with all of them once the last one is done. At most
+     * BATCH_DECODERS images decode at a time, and a memory budget limits how
+     * many full bitmaps are in flight.
+     */
+    @PluginMethod
+    public void scanManyFromGallery(PluginCall call) {
+        saveCall(call);
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        startActivityForResult(call, intent, "handleGalleryBatchResult");
+    }
+
+    @ActivityCallback
+    private void handleGalleryBatchResult(PluginCall call, ActivityResult result) {
+        if (call == null)
+            return;
+
+        if (result.getResultCode() != Activity.RESULT_OK) {
+            JSObject ret = new JSObject();
+            ret.put("cancelled", true);
+            call.resolve(ret);
+            return;
+        }
 
-            if (bitmap == null) {
-                // Try one more time without downsampling if it failed (fallback)
-                Log.w(TAG, "Downsampled decode failed, trying standard decode...");
-                bitmap = BitmapFactory.decodeFile(tempFile.getAbsolutePath());
+        int max = Math.max(1, Math.min(MAX_BATCH, call.getInt("max", MAX_BATCH)));
+        List<Uri> uris = pickedUris(result.getData(), max);
+        if (uris.isEmpty()) {
+            call.reject("No image selected");
+            return;
+        }
+        Log.d(TAG, uris.size() + " images selected");
+
+        boolean skipCache = call.getBoolean("skipCache", false);
+        BatchScan batch = new BatchScan(call, String.valueOf(batchIds.incrementAndGet()), uris);
+        for (int i = 0; i < uris.size(); i++) {
+            int index = i;
+            try {
+                batchExecutor.execute(() -> scanImage(uris.get(index), skipCache, batchBudget,
+                        batch.listener(index)));
+            } catch (RejectedExecutionException e) {
+                batch.listener(index).onError("Scanner is shutting down");
             }
+        }
+    }
 
-            if (bitmap == null) {
-                call.reject("Failed to decode image. File size: " + tempFile.length() + " bytes");
-                return;
+    // Multiple picks come as ClipData, a single one as the data URI
+    private static List<Uri> pickedUris(Intent data, int max) {
+        List<Uri> uris = new ArrayList<>();
+        if (data == null) return uris;
+        ClipData clip = data.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount() && uris.size() < max; i++) {
+                Uri uri = clip.getItemAt(i).getUri();
+                if (uri != null) uris.add(uri);
             }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
+    }
+
+    /** One scanManyFromGallery call: streams each result, resolves when all are in. */
+    private final class BatchScan {
+        private final PluginCall call;
+        private final String batchId;
+        private final List<Uri> uris;
+        private final JSObject[] results;
+        private final AtomicInteger remaining;
+        private final long start = SystemClock.elapsedRealtime();
+
+        BatchScan(PluginCall call, String batchId, List<Uri> uris) {
+            this.call = call;
+            this.batchId = batchId;
+            this.uris = uris;
+            this.results = new JSObject[uris.size()];
+            this.remaining = new AtomicInteger(uris.size());
+        }
+
+        ScanListener listener(int index) {
+            return new ScanListener() {
+                @Override
+                public void onResult(JSObject result) {
+                    finish(index, result);
+                }
 
-            // Handle EXIF rotation using the file
-            int rotation = getRotationFromExif(tempFile.getAbsolutePath());
-            if (rotation != 0) {
-                Log.d(TAG, "Rotating bitmap by " + rotation + " degrees");
-                bitmap = rotateBitmap(bitmap, rotation);
+                @Override
+                public void onError(String message) {
+                    JSObject result = new JSObject();
+                    result.put("found", false);
+                    result.put("error", message);
+                    finish(index, result);
+                }
+            };
+        }
+
+        private void finish(int index, JSObject result) {
+            result.put("batchId", batchId);
+            result.put("index", index);
+            result.put("uri", uris.get(index).toString());
+            results[index] = result;
+            notifyListeners("galleryScanResult", result);
+            if (remaining.decrementAndGet() != 0) return;
+
+            JSArray all = new JSArray();
+            int found = 0;
+            for (JSObject r : results) {
+                all.put(r);
+                if (r.optBoolean("found")) found++;
             }
+            JSObject ret = new JSObject();
+            ret.put("batchId", batchId);
+            ret.put("count", results.length);
+            ret.put("found", found);
+            ret.put("results", all);
+            ret.put("totalMs", SystemClock.elapsedRealtime() - start);
+            ret.put("peakBytes", batchBudget.getPeak());
+            Log.d(TAG, "Batch " + batchId + ": " + found + "/" + results.length + " found in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+            call.resolve(ret);
+        }
+    }
 
-            // Process with ML Kit
-            processImageWithMLKit(call, bitmap);
+    // Where one image's outcome goes: the call for scanFromGallery, the batch for scanManyFromGallery
+    private interface ScanListener {
+        void onResult(JSObject result);
 
-            // Cleanup
-            // tempFile.delete(); // Keep for now
+        void onError(String message);
+    }
 
+    /**
+     * Everything after the pick for one image, on a worker thread: cache
+     * lookup, decode (within budget, if given), then the strategy race.
+     */
+    private void scanImage(Uri uri, boolean skipCache, ByteBudget budget, ScanListener listener) {
+        try {
+            String fingerprint = fingerprint(uri);
+            if (!skipCache && returnCached(listener, uri, fingerprint)) return;
+            DecodedImage image = decode(uri, budget);
+            if (image == null) {
+                listener.onError("Failed to decode image");
+                return;
+            }
+            processImageWithMLKit(listener, uri, image, fingerprint, budget);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.onError("Scan cancelled");
         } catch (Exception e) {
             Log.e(TAG, "Error processing image", e);
-            call.reject("Error processing image: " + e.getMessage());
+            listener.onError("Error processing image: " + e.getMessage());
         }
     }
 
-    // Safe decoding helper
-    private Bitmap decodeSampledBitmapFromFile(String path, int reqWidth, int reqHeight) {
-        try {
-            // First decode with inJustDecodeBounds=true to check dimensions
-            final BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BitmapFactory.decodeFile(path, options);
+    @PluginMethod
+    public void clearScanCache(PluginCall call) {
+        ScanResultCache cache = resultCache();
+        JSObject ret = new JSObject();
+        ret.put("cleared", cache.size());
+        ret.put("stats", cacheStats(cache, new JSObject()));
+        cache.clear();
+        saveResultCache(cache);
+        call.resolve(ret);
+    }
+
+    // Loaded from prefs on first use
+    private synchronized ScanResultCache resultCache() {
+        if (resultCache == null) {
+            String saved = getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                    .getString(PREF_RESULTS, null);
+            resultCache = ScanResultCache.parse(saved, ScanResultCache.DEFAULT_CAPACITY);
+        }
+        return resultCache;
+    }
 
-            // Calculate inSampleSize
-            options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
+    // Lookup counters since the process started, alongside what a scan reports
+    private static JSObject cacheStats(ScanResultCache cache, JSObject into) {
+        into.put("entries", cache.size());
+        into.put("hits", cache.getHits());
+        into.put("misses", cache.getMisses());
+        into.put("invalidations", cache.getInvalidations());
+        return into;
+    }
 
-            // Decode bitmap with inSampleSize set
-            options.inJustDecodeBounds = false;
-            return BitmapFactory.decodeFile(path, options);
+    private void saveResultCache(ScanResultCache cache) {
+        getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(PREF_RESULTS, cache.serialize())
+                .apply();
+    }
+
+    /**
+     * What the image looked like when it was read: size and last-modified
+     * time from the provider, or a CRC of the bytes when it reports neither.
+     * Null if the image can't be read at all.
+     */
+    private String fingerprint(Uri uri) {
+        ContentResolver resolver = getContext().getContentResolver();
+        long size = -1;
+        long modified = -1;
+        try (Cursor cursor = resolver.query(uri, null, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                size = longColumn(cursor, OpenableColumns.SIZE);
+                modified = longColumn(cursor, DocumentsContract.Document.COLUMN_LAST_MODIFIED);
+                if (modified <= 0) {
+                    long seconds = longColumn(cursor, MediaStore.MediaColumns.DATE_MODIFIED);
+                    if (seconds > 0) modified = seconds * 1000;
+                }
+            }
         } catch (Exception e) {
-            Log.e(TAG, "Error in decodeSampledBitmapFromFile", e);
+            Log.w(TAG, "Could not query image metadata", e);
+        }
+        if (size >= 0 && modified > 0) return "s:" + size + ",m:" + modified;
+
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            long length = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+            return "crc:" + length + ":" + Long.toHexString(crc.getValue());
+        } catch (IOException e) {
+            Log.w(TAG, "Could not hash image", e);
             return null;
         }
     }
 
+    private static long longColumn(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        if (index < 0 || cursor.isNull(index)) return -1;
+        try {
+            return cursor.getLong(index);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // Resolves the call from the cache if this exact file was decoded before
+    private boolean returnCached(ScanListener listener, Uri uri, String fingerprint) {
+        if (fingerprint == null) return false;
+        long start = SystemClock.elapsedRealtime();
+        ScanResultCache results = resultCache();
+        ScanResultCache.Entry entry = results.get(uri.toString(), fingerprint);
+        if (entry == null) return false;
+        JSObject cache = new JSObject();
+        cache.put("via", entry.via);
+        cache.put("storedAt", entry.storedAt);
+        JSObject timings = new JSObject();
+        timings.put("cache", cacheStats(results, cache));
+        timings.put("totalMs", SystemClock.elapsedRealtime() - start);
+        returnSuccess(listener, entry.data, entry.width, entry.height, "cache (" + entry.via + ")", timings);
+        return true;
+    }
+
+    /** A sampled decode of the picked image, rotation kept as metadata. */
+    private static final class DecodedImage {
+        final Bitmap bitmap;
+        final int rotation;
+        final int sourceWidth;
+        final int sourceHeight;
+        final int sampleSize;
+        final boolean reused;
+        final long decodeMs;
+        // Charged to the batch budget; 0 outside a batch
+        final long budgetBytes;
+
+        DecodedImage(Bitmap bitmap, int rotation, int sourceWidth, int sourceHeight,
+                     int sampleSize, boolean reused, long decodeMs, long budgetBytes) {
+            this.bitmap = bitmap;
+            this.rotation = rotation;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.sampleSize = sampleSize;
+            this.reused = reused;
+            this.decodeMs = decodeMs;
+            this.budgetBytes = budgetBytes;
+        }
+
+        // As the user sees it, i.e. after rotation
+        int width() {
+            return rotation % 180 == 0 ? bitmap.getWidth() : bitmap.getHeight();
+        }
+
+        int height() {
+            return rotation % 180 == 0 ? bitmap.getHeight() : bitmap.getWidth();
+        }
+    }
+
+    /**
+     * Reads the image straight from the content URI: bounds first, then EXIF,
+     * then a sampled decode into a pooled bitmap. Nothing is copied to disk
+     * and the pixels are never rotated; ML Kit gets the rotation instead, and
+     * ZXing doesn't care. Null if the stream isn't an image.
+     *
+     * With a budget, waits after the bounds probe until the image's whole
+     * footprint fits (see {@link #footprint}).
+     */
+    private DecodedImage decode(Uri uri, ByteBudget budget) throws IOException, InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        ContentResolver resolver = getContext().getContentResolver();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        if (sourceWidth <= 0 || sourceHeight <= 0) return null;
+
+        int rotation = getRotationFromExif(resolver, uri);
+        int sampleSize = calculateInSampleSize(options, DECODE_TARGET, DECODE_TARGET);
+        int outWidth = divUp(sourceWidth, sampleSize);
+        int outHeight = divUp(sourceHeight, sampleSize);
+        long charged = budget != null ? budget.acquire(footprint(sourceWidth, sourceHeight, sampleSize)) : 0;
+        Bitmap bitmap = null;
+        boolean reused;
+        try {
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inMutable = true;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            options.inBitmap = bitmapPool.take(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+            reused = options.inBitmap != null;
+            bitmap = decodeStream(resolver, uri, options);
+        } finally {
+            if (bitmap == null && budget != null) budget.release(charged);
+        }
+        if (bitmap == null) return null;
+
+        long ms = SystemClock.elapsedRealtime() - start;
+        Log.d(TAG, "Decoded " + sourceWidth + "x" + sourceHeight + " at 1/" + sampleSize + " in " + ms
+                + "ms (rotation " + rotation + ", " + (reused ? "reused" : "new") + " bitmap)");
+        return new DecodedImage(bitmap, rotation, sourceWidth, sourceHeight, sampleSize, reused, ms, charged);
+    }
+
+    // Retries without inBitmap if the pooled one doesn't fit after all
+    private Bitmap decodeStream(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws IOException {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return null;
+            Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+            if (bitmap == null && options.inBitmap != null) bitmapPool.release(options.inBitmap);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            bitmapPool.release(options.inBitmap);
+            options.inBitmap = null;
+            return decodeStream(resolver, uri, options);
+        }
+    }
+
+    /**
+     * The middle quarter of the photo at twice the main decode's resolution,
+     * for a small code the downsampled whole would blur. Goes back to the
+     * pool once ML Kit is done with it.
+     */
+    private String scanCenterRegion(Uri uri, DecodedImage image) throws Exception {
+        Rect rect = centerRegion(image.sourceWidth, image.sourceHeight);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = image.sampleSize / 2;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap region;
+        try (InputStream in = getContext().getContentResolver().openInputStream(uri)) {
+            if (in == null) return null;
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                options.inBitmap = bitmapPool.take(divUp(rect.width(), options.inSampleSize),
+                        divUp(rect.height(), options.inSampleSize), Bitmap.Config.ARGB_8888);
+                try {
+                    region = decoder.decodeRegion(rect, options);
+                } catch (IllegalArgumentException e) {
+                    if (options.inBitmap == null) throw e;
+                    bitmapPool.release(options.inBitmap);
+                    options.inBitmap = null;
+                    region = decoder.decodeRegion(rect, options);
+                }
+            } finally {
+                decoder.recycle();
+            }
+        }
+        if (region == null) return null;
+        try {
+            return scanWithMLKit(allFormatsScanner(), region, image.rotation);
+        } finally {
+            bitmapPool.release(region);
+        }
+    }
+
+    /**
+     * Bytes the strategies hold at once for one image: the sampled bitmap,
+     * the center region (half the width and height at twice the resolution,
+     * so about the bitmap's size again), the scaled copy and ZXing's 8-bit
+     * luminance buffer.
+     */
+    private static long footprint(int sourceWidth, int sourceHeight, int sampleSize) {
+        int width = divUp(sourceWidth, sampleSize);
+        int height = divUp(sourceHeight, sampleSize);
+        long bytes = 4L * width * height + (long) width * height;
+        if (sampleSize >= 2) {
+            Rect rect = centerRegion(sourceWidth, sourceHeight);
+            bytes += 4L * divUp(rect.width(), sampleSize / 2) * divUp(rect.height(), sampleSize / 2);
+        }
+        if (width > SCALED_MAX || height > SCALED_MAX) {
+            float ratio = Math.min((float) SCALED_MAX / width, (float) SCALED_MAX / height);
+            bytes += 4L * Math.round(width * ratio) * Math.round(height * ratio);
+        }
+        return bytes;
+    }
+
+    private static Rect centerRegion(int width, int height) {
+        return new Rect(width / 4, height / 4, width - width / 4, height - height / 4);
+    }
+
+    private static int divUp(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
     private int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
         final int height = options.outHeight;
         final int width = options.outWidth;
@@ -150,45 +599,19 @@ public class GalleryQrScannerPlugin extends Plugin {
         return inSampleSize;
     }
 
-    private java.io.File copyToTempFile(Uri uri) {
-        try {
-            InputStream inputStream = getActivity().getContentResolver().openInputStream(uri);
-            if (inputStream == null)
-                return null;
-
-            java.io.File tempFile = new java.io.File(getActivity().getCacheDir(), "temp_qs_scan.jpg");
-            if (tempFile.exists())
-                tempFile.delete();
-
-            java.io.FileOutputStream outputStream = new java.io.FileOutputStream(tempFile);
-            byte[] buffer = new byte[8 * 1024]; // 8k buffer
-            int read;
-            while ((read = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, read);
-            }
-            outputStream.flush();
-            outputStream.close();
-            inputStream.close();
-            Log.d(TAG,
-                    "Copied image to temp file: " + tempFile.getAbsolutePath() + " (" + tempFile.length() + " bytes)");
-            return tempFile;
-        } catch (java.io.IOException e) {
-            Log.e(TAG, "Failed to copy file", e);
-            return null;
-        }
-    }
-
-    private int getRotationFromExif(String filePath) {
-        try {
-            androidx.exifinterface.media.ExifInterface exif = new androidx.exifinterface.media.ExifInterface(filePath);
-            int orientation = exif.getAttributeInt(androidx.exifinterface.media.ExifInterface.TAG_ORIENTATION,
-                    androidx.exifinterface.media.ExifInterface.ORIENTATION_NORMAL);
+    // ExifInterface reads just the header from the stream
+    private int getRotationFromExif(ContentResolver resolver, Uri uri) {
+        try (InputStream in = resolver.openInputStream(uri)) {
+            if (in == null) return 0;
+            ExifInterface exif = new ExifInterface(in);
+            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
             switch (orientation) {
-                case androidx.exifinterface.media.ExifInterface.ORIENTATION_ROTATE_90:
+                case ExifInterface.ORIENTATION_ROTATE_90:
                     return 90;
-                case androidx.exifinterface.media.ExifInterface.ORIENTATION_ROTATE_180:
+                case ExifInterface.ORIENTATION_ROTATE_180:
                     return 180;
-                case androidx.exifinterface.media.ExifInterface.ORIENTATION_ROTATE_270:
+                case ExifInterface.ORIENTATION_ROTATE_270:
                     return 270;
                 default:
                     return 0;
@@ -199,87 +622,158 @@ public class GalleryQrScannerPlugin extends Plugin {
         }
     }
 
-    private Bitmap rotateBitmap(Bitmap bitmap, int degrees) {
-        android.graphics.Matrix matrix = new android.graphics.Matrix();
-        matrix.postRotate(degrees);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-    }
-
-    private void processImageWithMLKit(PluginCall call, Bitmap originalBitmap) {
-        int width = originalBitmap.getWidth();
-        int height = originalBitmap.getHeight();
+    // Races every strategy at once; the first to find a code answers the listener.
+    // The decoded bitmap goes back to the pool once every strategy is done with it.
+    private void processImageWithMLKit(ScanListener listener, Uri uri, DecodedImage image, String fingerprint,
+                                       ByteBudget budget) {
+        Bitmap bitmap = image.bitmap;
+        int width = image.width();
+        int height = image.height();
         Log.d(TAG, "Processing image with ML Kit/ZXing... Size: " + width + "x" + height);
 
-        // Strategy 1: QR_CODE (ML Kit)
-        scanBitmap(originalBitmap, Barcode.FORMAT_QR_CODE, (found1, data1) -> {
-            if (found1) {
-                returnSuccess(call, data1, width, height, "Strategy 1: ML Kit QR");
-                return;
-            }
-
-            // Strategy 2: ALL_FORMATS (ML Kit)
-            scanBitmap(originalBitmap, Barcode.FORMAT_ALL_FORMATS, (found2, data2) -> {
-                if (found2) {
-                    returnSuccess(call, data2, width, height, "Strategy 2: ML Kit All");
-                    return;
+        StrategyRace<String> race = new StrategyRace<String>()
+                .add("mlkitQr", () -> scanWithMLKit(qrScanner(), bitmap, image.rotation))
+                .add("mlkitAll", () -> scanWithMLKit(allFormatsScanner(), bitmap, image.rotation));
+        if (width > SCALED_MAX || height > SCALED_MAX) {
+            race.add("mlkitScaled", () -> {
+                Bitmap scaled = scaleBitmap(bitmap, SCALED_MAX);
+                try {
+                    return scanWithMLKit(allFormatsScanner(), scaled, image.rotation);
+                } finally {
+                    bitmapPool.release(scaled);
                 }
+            });
+        }
+        if (image.sampleSize >= 2) {
+            race.add("mlkitCenter", () -> scanCenterRegion(uri, image));
+        }
+        race.add("zxing", () -> scanWithZXing(bitmap));
+        race.whenSettled(() -> {
+            bitmapPool.release(bitmap);
+            if (budget != null) budget.release(image.budgetBytes);
+        });
 
-                // Strategy 3: Scaled Down (ML Kit)
-                if (width > 1200 || height > 1200) {
-                    Bitmap scaledBitmap = scaleBitmap(originalBitmap, 1200);
-                    scanBitmap(scaledBitmap, Barcode.FORMAT_ALL_FORMATS, (found3, data3) -> {
-                        if (found3) {
-                            returnSuccess(call, data3, width, height, "Strategy 3: ML Kit Scaled");
-                        } else {
-                            // Strategy 4: ZXing Fallback
-                            scanWithZXing(call, originalBitmap, width, height);
-                        }
-                    });
-                } else {
-                    // Strategy 4: ZXing Fallback
-                    scanWithZXing(call, originalBitmap, width, height);
+        race.start(scanExecutor, outcome -> {
+            JSObject timings = new JSObject();
+            for (StrategyRace.Attempt attempt : outcome.attempts) {
+                JSObject t = new JSObject();
+                t.put("status", attempt.status.name().toLowerCase(java.util.Locale.ROOT));
+                t.put("ms", attempt.elapsedMs);
+                if (attempt.error != null) t.put("error", attempt.error);
+                timings.put(attempt.name, t);
+            }
+            JSObject decode = new JSObject();
+            decode.put("ms", image.decodeMs);
+            decode.put("sampleSize", image.sampleSize);
+            decode.put("sourceWidth", image.sourceWidth);
+            decode.put("sourceHeight", image.sourceHeight);
+            decode.put("rotation", image.rotation);
+            decode.put("bytes", bitmap.getAllocationByteCount());
+            decode.put("reused", image.reused);
+            timings.put("decode", decode);
+            timings.put("totalMs", image.decodeMs + outcome.elapsedMs);
+            ScanResultCache cache = resultCache();
+            timings.put("cache", cacheStats(cache, new JSObject()));
+            if (outcome.winner != null) {
+                if (fingerprint != null) {
+                    cache.put(uri.toString(), new ScanResultCache.Entry(fingerprint, outcome.value,
+                            width, height, outcome.winner, System.currentTimeMillis()));
+                    saveResultCache(cache);
                 }
-            });
+                returnSuccess(listener, outcome.value, width, height,
+                        outcome.winner + " in " + outcome.elapsedMs + "ms", timings);
+            } else {
+                returnFailure(listener, width, height,
+                        "All " + outcome.attempts.size() + " strategies failed (ML Kit + ZXing)", timings);
+            }
         });
     }
 
-    private void scanWithZXing(PluginCall call, Bitmap bitmap, int w, int h) {
-        Log.d(TAG, "Strategies 1-3 failed. Trying Strategy 4: ZXing...");
+    // Worker thread. Blocks on the ML Kit task; the race's cancel interrupts the
+    // wait. ML Kit keeps reading the bitmap until its task ends, so on the way
+    // out we wait for that too, or tell the pool not to take the bitmap back.
+    private String scanWithMLKit(BarcodeScanner scanner, Bitmap bitmap, int rotation) throws Exception {
+        InputImage image = InputImage.fromBitmap(bitmap, rotation);
+        Task<List<Barcode>> task = scanner.process(image);
+        List<Barcode> barcodes;
         try {
-            int[] intArray = new int[bitmap.getWidth() * bitmap.getHeight()];
-            bitmap.getPixels(intArray, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-            RGBLuminanceSource source = new RGBLuminanceSource(bitmap.getWidth(), bitmap.getHeight(), intArray);
-            BinaryBitmap binaryBitmap = new BinaryBitmap(new HybridBinarizer(source));
-
-            Result result = new MultiFormatReader().decode(binaryBitmap);
+            barcodes = Tasks.await(task, MLKIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            settleTask(task, bitmap);
+            throw e;
+        } catch (ExecutionException | TimeoutException e) {
+            Log.w(TAG, "ML Kit scan failed: " + e.getMessage());
+            settleTask(task, bitmap);
+            return null;
+        }
+        return barcodes.isEmpty() ? null : barcodes.get(0).getRawValue();
+    }
 
-            if (result != null) {
-                returnSuccess(call, result.getText(), w, h, "Strategy 4: ZXing Fallback");
-            } else {
-                returnFailure(call, w, h, "All 4 strategies failed (ML Kit + ZXing)");
+    private void settleTask(Task<?> task, Bitmap bitmap) {
+        long deadline = SystemClock.elapsedRealtime() + MLKIT_SETTLE_MS;
+        while (!task.isComplete()) {
+            if (SystemClock.elapsedRealtime() >= deadline) {
+                bitmapPool.abandon(bitmap);
+                return;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "ZXing failed", e);
-            returnFailure(call, w, h, "All strategies failed (ML Kit + ZXing error: " + e.getMessage() + ")");
+            SystemClock.sleep(10);
+        }
+    }
+
+    // Worker thread. Builds the luminance buffer a band of rows at a time, then
+    // runs the tiled fallback; an interrupt stops the passes not yet started.
+    private String scanWithZXing(Bitmap bitmap) throws Exception {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        byte[] luma = new byte[width * height];
+        int[] band = new int[width * LUMA_BAND_ROWS];
+        for (int top = 0; top < height; top += LUMA_BAND_ROWS) {
+            int rows = Math.min(LUMA_BAND_ROWS, height - top);
+            bitmap.getPixels(band, 0, width, 0, top, width, rows);
+            TiledQrDecoder.argbToLuma(band, width * rows, luma, top * width);
+        }
+        if (Thread.interrupted()) throw new InterruptedException();
+        TiledQrDecoder.Match match = zxingDecoder.decode(luma, width, height);
+        if (match == null) return null;
+        Log.d(TAG, "ZXing found it on " + match.pass + " (" + match.attempted + "/" + match.passes + " passes)");
+        return match.text;
+    }
+
+    // Created once and reused; closed in handleOnDestroy
+    private synchronized BarcodeScanner qrScanner() {
+        if (qrScanner == null) {
+            qrScanner = BarcodeScanning.getClient(new BarcodeScannerOptions.Builder()
+                    .setBarcodeFormats(Barcode.FORMAT_QR_CODE)
+                    .build());
         }
+        return qrScanner;
     }
 
-    private void scanBitmap(Bitmap bitmap, int format, ScanCallback callback) {
-        BarcodeScannerOptions options = new BarcodeScannerOptions.Builder()
-                .setBarcodeFormats(format)
-                .build();
-        BarcodeScanner scanner = BarcodeScanning.getClient(options);
-        InputImage image = InputImage.fromBitmap(bitmap, 0);
+    private synchronized BarcodeScanner allFormatsScanner() {
+        if (allFormatsScanner == null) {
+            allFormatsScanner = BarcodeScanning.getClient(new BarcodeScannerOptions.Builder()
+                    .setBarcodeFormats(Barcode.FORMAT_ALL_FORMATS)
+                    .build());
+        }
+        return allFormatsScanner;
+    }
 
-        scanner.process(image)
-                .addOnSuccessListener(barcodes -> {
-                    if (!barcodes.isEmpty()) {
-                        callback.onScanComplete(true, barcodes.get(0).getRawValue());
-                    } else {
-                        callback.onScanComplete(false, null);
-                    }
-                })
-                .addOnFailureListener(e -> callback.onScanComplete(false, null));
+    @Override
+    protected void handleOnDestroy() {
+        batchExecutor.shutdownNow();
+        scanExecutor.shutdownNow();
+        bitmapPool.clear();
+        synchronized (this) {
+            if (qrScanner != null) {
+                qrScanner.close();
+                qrScanner = null;
+            }
+            if (allFormatsScanner != null) {
+                allFormatsScanner.close();
+                allFormatsScanner = null;
+            }
+        }
+        super.handleOnDestroy();
     }
 
     private Bitmap scaleBitmap(Bitmap bitmap, int maxDimension) {
@@ -297,7 +791,9 @@ public class GalleryQrScannerPlugin extends Plugin {
         return Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, true);
     }
 
-    private void returnSuccess(PluginCall call, String data, int w, int h, String debugInfo) {
+    // timings: per-strategy {status: won | missed | failed | cancelled, ms}, plus decode
+    // and cache ({entries, hits, misses, invalidations}; via and storedAt on a hit)
+    private void returnSuccess(ScanListener listener, String data, int w, int h, String debugInfo, JSObject timings) {
         Log.d(TAG, "Scan Success via " + debugInfo + ": " + data);
         JSObject ret = new JSObject();
         ret.put("found", true);
@@ -305,20 +801,18 @@ public class GalleryQrScannerPlugin extends Plugin {
         ret.put("imageWidth", w);
         ret.put("imageHeight", h);
         ret.put("debug", "Found via " + debugInfo);
-        call.resolve(ret);
+        ret.put("timings", timings);
+        listener.onResult(ret);
     }
 
-    private void returnFailure(PluginCall call, int w, int h, String debugInfo) {
+    private void returnFailure(ScanListener listener, int w, int h, String debugInfo, JSObject timings) {
         Log.d(TAG, "Scan Failure: " + debugInfo);
         JSObject ret = new JSObject();
         ret.put("found", false);
         ret.put("imageWidth", w);
         ret.put("imageHeight", h);
         ret.put("debug", debugInfo);
-        call.resolve(ret);
-    }
-
-    interface ScanCallback {
-        void onScanComplete(boolean found, String data);
+        ret.put("timings", timings);
+        listener.onResult(ret);
     }
 }
@@ -7,7 +7,6 @@ import android.net.Network;
 import android.net.NetworkCapabilities;
 import android.net.NetworkRequest;
 import android.net.Uri;
-import android.net.wifi.WifiManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.PowerManager;
@@ -18,17 +17,20 @@ import com.getcapacitor.BridgeActivity;
 
 public class MainActivity extends BridgeActivity {
 
-    private PowerManager.WakeLock cpuWakeLock;
-    private WifiManager.WifiLock wifiLock;
+    private SessionLocks sessionLocks;
     private ConnectivityManager.NetworkCallback networkCallback;
+    // Locks are pinned at low latency while a session is up and the app is in front
+    private boolean foreground = false;
+    private boolean sessionActive = false;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         registerPlugin(GalleryQrScannerPlugin.class);
         registerPlugin(FloatingInputPlugin.class);
+        registerPlugin(PointerInputPlugin.class);
         super.onCreate(savedInstanceState);
 
-        acquireLocks();
+        sessionLocks = SessionLocks.get(this, "app");
         requestBatteryOptimizationExemption();
         registerNetworkCallback();
     }
@@ -42,6 +44,8 @@ public class MainActivity extends BridgeActivity {
     public void onPause() {
         // Call super but immediately resume the WebView's timers
         super.onPause();
+        foreground = false;
+        updateLockPin();
 
         // Re-enable JS timers that super.onPause() just paused
         WebView webView = getBridge().getWebView();
@@ -66,6 +70,8 @@ public class MainActivity extends BridgeActivity {
     @Override
     public void onResume() {
         super.onResume();
+        foreground = true;
+        updateLockPin();
 
         // Ensure timers are definitely running when coming back
         WebView webView = getBridge().getWebView();
@@ -76,46 +82,24 @@ public class MainActivity extends BridgeActivity {
 
     @Override
     public void onDestroy() {
-        releaseLocks();
+        sessionLocks.shutdown();
         unregisterNetworkCallback();
         super.onDestroy();
     }
 
     /**
-     * Acquire CPU wake lock + WiFi lock.
-     * CPU wake lock: keeps the CPU running when screen is off.
-     * WiFi lock: prevents WiFi from being turned off in sleep mode.
+     * Called by FloatingInputPlugin when the WebView's desktop session comes
+     * up or goes away. The CPU and Wi-Fi locks used to be held from onCreate
+     * to onDestroy; now they follow the session (see SessionLocks).
      */
-    private void acquireLocks() {
-        // CPU partial wake lock — keeps CPU alive, screen can be off
-        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
-        if (pm != null && cpuWakeLock == null) {
-            cpuWakeLock = pm.newWakeLock(
-                PowerManager.PARTIAL_WAKE_LOCK,
-                "keymote:connection"
-            );
-            cpuWakeLock.acquire();
-        }
-
-        // WiFi lock — prevents WiFi from going to low-power mode
-        WifiManager wm = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
-        if (wm != null && wifiLock == null) {
-            wifiLock = wm.createWifiLock(
-                WifiManager.WIFI_MODE_FULL_HIGH_PERF,
-                "keymote:wifi"
-            );
-            wifiLock.acquire();
-        }
+    void setSessionActive(boolean active) {
+        sessionActive = active;
+        updateLockPin();
     }
 
-    private void releaseLocks() {
-        if (cpuWakeLock != null && cpuWakeLock.isHeld()) {
-            cpuWakeLock.release();
-            cpuWakeLock = null;
-        }
-        if (wifiLock != null && wifiLock.isHeld()) {
-            wifiLock.release();
-            wifiLock = null;
+    private void updateLockPin() {
+        if (sessionLocks != null) {
+            sessionLocks.setPinned(foreground && sessionActive);
         }
     }
 
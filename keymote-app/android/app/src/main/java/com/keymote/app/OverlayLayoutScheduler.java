@@ -0,0 +1,133 @@
+package com.keymote.app;
+
+import android.os.Bundle;
+import android.view.Choreographer;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Applies overlay window moves at most once per Choreographer frame.
+ *
+ * A drag produces several ACTION_MOVEs per frame on fast touch panels, and
+ * each updateViewLayout is a binder call into the window manager plus a
+ * relayout; only the last position before the frame matters. Callers change
+ * the LayoutParams and call {@link #update}; the frame callback pushes every
+ * window touched since the last frame. Changes that other code waits on
+ * (focus flags, gravity) go through {@link #apply} instead. While tracking (finger down on the
+ * bubble) the callback keeps running every frame so FrameStats sees each
+ * vsync, late ones included. Main thread only.
+ */
+class OverlayLayoutScheduler implements Choreographer.FrameCallback {
+
+    private final WindowManager windowManager;
+    private final FrameStats frames;
+    private final Map<View, WindowManager.LayoutParams> pending = new LinkedHashMap<>();
+    private boolean posted = false;
+    private boolean tracking = false;
+    private long requested;
+    private long applied;
+
+    OverlayLayoutScheduler(WindowManager windowManager) {
+        this.windowManager = windowManager;
+        this.frames = new FrameStats(frameInterval(60f));
+    }
+
+    /** The display's current rate; adaptive panels switch between 60/90/120 Hz. */
+    void setRefreshRate(float refreshRate) {
+        frames.setFrameIntervalNanos(frameInterval(refreshRate));
+    }
+
+    private static long frameInterval(float refreshRate) {
+        return (long) (1_000_000_000L / (refreshRate > 0 ? refreshRate : 60f));
+    }
+
+    /** Lays view out with params on the next frame; later calls before it replace earlier ones. */
+    void update(View view, WindowManager.LayoutParams params) {
+        requested++;
+        pending.put(view, params);
+        post();
+    }
+
+    /**
+     * Lays view out right away, superseding a pending move. For changes the
+     * caller relies on before the next frame, such as focusability before
+     * showing the keyboard.
+     */
+    void apply(View view, WindowManager.LayoutParams params) {
+        pending.remove(view);
+        try {
+            windowManager.updateViewLayout(view, params);
+        } catch (Exception ignored) {
+        }
+    }
+
+    /** Starts or stops per-frame sampling for the jank stats. */
+    void setTracking(boolean tracking) {
+        if (this.tracking == tracking) return;
+        this.tracking = tracking;
+        if (tracking) {
+            post();
+        } else {
+            frames.endStreak();
+        }
+    }
+
+    /** Drops pending updates, e.g. before the windows are removed. */
+    void cancel() {
+        pending.clear();
+        tracking = false;
+        frames.endStreak();
+        if (posted) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            posted = false;
+        }
+    }
+
+    private void post() {
+        if (posted) return;
+        posted = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        posted = false;
+        if (tracking) frames.onFrame(frameTimeNanos);
+        if (!pending.isEmpty()) {
+            for (Map.Entry<View, WindowManager.LayoutParams> e : pending.entrySet()) {
+                View view = e.getKey();
+                if (!view.isAttachedToWindow()) continue;
+                try {
+                    windowManager.updateViewLayout(view, e.getValue());
+                    applied++;
+                } catch (Exception ignored) {
+                }
+            }
+            pending.clear();
+        }
+        if (tracking) post();
+    }
+
+    /** Frame pacing and coalescing report; pass reset to start a new window. */
+    Bundle stats(boolean reset) {
+        LatencyHistogram intervals = frames.getIntervals();
+        Bundle data = new Bundle();
+        data.putLong("frames", frames.getFrames());
+        data.putLong("janky", frames.getJanky());
+        data.putLong("skipped", frames.getSkipped());
+        data.putDouble("p50Ms", intervals.getValueAtPercentile(50) / 1000.0);
+        data.putDouble("p99Ms", intervals.getValueAtPercentile(99) / 1000.0);
+        data.putDouble("maxMs", intervals.getMax() / 1000.0);
+        data.putLong("layoutsRequested", requested);
+        data.putLong("layoutsApplied", applied);
+        if (reset) {
+            frames.reset();
+            requested = 0;
+            applied = 0;
+        }
+        return data;
+    }
+}
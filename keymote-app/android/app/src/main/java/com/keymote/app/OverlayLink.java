@@ -0,0 +1,209 @@
+package com.keymote.app;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * App-process end of the overlay service's shared desktop connection.
+ *
+ * One binding per process, shared by every plugin that sends input through
+ * the service, so all of it goes down the same binder and arrives in the
+ * order it was sent. The binding uses flags 0: it never starts or keeps the
+ * service alive, attaches whenever the service is running, and comes back on
+ * its own if the :overlay process restarts. Stats requests use the same
+ * Messenger, so they cost no bind of their own; so does input whose sender
+ * needs to know it reached the socket. Listeners and replies run on
+ * the main thread; attach(), send() and request() may be called from any
+ * thread.
+ */
+class OverlayLink {
+
+    interface Listener {
+        void onLinkState(boolean connected, boolean appInput);
+    }
+
+    /** Answer to {@link #request} or {@link #send}; null if the service went away first. */
+    interface Reply {
+        void onReply(Message reply);
+    }
+
+    private static OverlayLink instance;
+
+    private final Context context;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Messenger replies = new Messenger(new Handler(Looper.getMainLooper(), this::onReply));
+    private ServiceConnection connection;
+    private volatile Messenger service;
+    private volatile boolean connected = false;
+    private volatile boolean appInput = false;
+    // Outstanding requests by id; the service echoes the id in arg2
+    private final Map<Integer, Reply> pending = new HashMap<>();
+    private int nextRequestId = 0;
+
+    static synchronized OverlayLink get(Context context) {
+        if (instance == null) {
+            instance = new OverlayLink(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private OverlayLink(Context context) {
+        this.context = context;
+    }
+
+    /** Binds to the overlay service if not already bound. */
+    synchronized void attach() {
+        if (connection != null) return;
+        connection = new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                Messenger messenger = new Messenger(binder);
+                Message msg = Message.obtain(null, FloatingInputService.MSG_REGISTER_LINK);
+                msg.replyTo = replies;
+                try {
+                    messenger.send(msg);
+                    service = messenger;
+                } catch (RemoteException ignored) {
+                }
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                // :overlay process died; the binding comes back with it
+                service = null;
+                setState(false, false);
+                failPending();
+            }
+        };
+        context.bindService(new Intent(context, FloatingInputService.class), connection, 0);
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    /** Whether the desktop currently takes the app's input on this connection. */
+    boolean isAppInput() {
+        return service != null && appInput;
+    }
+
+    /** Queues one input message (JSON) on the service's socket; false if it can't take it. */
+    boolean send(String json) {
+        Messenger messenger = service;
+        if (messenger == null || !appInput) return false;
+        try {
+            messenger.send(inputMessage(json));
+            return true;
+        } catch (RemoteException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Like {@link #send(String)}, and the reply (MSG_INPUT_SENT, arg1 = 1 if
+     * written) says whether the service got the message onto its socket.
+     */
+    boolean send(String json, Reply reply) {
+        if (!appInput) return false;
+        return request(inputMessage(json), reply);
+    }
+
+    /**
+     * Sends a request (MSG_GET_LATENCY_STATS, MSG_GET_OVERLAY_STATS) whose
+     * reply carries a Bundle. False at once if the service isn't bound.
+     */
+    boolean request(int what, int arg1, Reply reply) {
+        return request(Message.obtain(null, what, arg1, 0), reply);
+    }
+
+    private static Message inputMessage(String json) {
+        Message msg = Message.obtain(null, FloatingInputService.MSG_SEND_INPUT);
+        Bundle data = new Bundle();
+        data.putString("json", json);
+        msg.setData(data);
+        return msg;
+    }
+
+    private boolean request(Message msg, Reply reply) {
+        Messenger messenger = service;
+        if (messenger == null) return false;
+        int id;
+        synchronized (pending) {
+            id = ++nextRequestId;
+            pending.put(id, reply);
+        }
+        msg.arg2 = id;
+        msg.replyTo = replies;
+        try {
+            messenger.send(msg);
+            return true;
+        } catch (RemoteException e) {
+            synchronized (pending) {
+                pending.remove(id);
+            }
+            return false;
+        }
+    }
+
+    private boolean onReply(Message msg) {
+        switch (msg.what) {
+            case FloatingInputService.MSG_LINK_STATE:
+                setState(msg.arg1 == 1, msg.arg2 == 1);
+                return true;
+            case FloatingInputService.MSG_LATENCY_STATS:
+            case FloatingInputService.MSG_OVERLAY_STATS:
+            case FloatingInputService.MSG_INPUT_SENT:
+                Reply reply;
+                synchronized (pending) {
+                    reply = pending.remove(msg.arg2);
+                }
+                if (reply != null) reply.onReply(msg);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void failPending() {
+        List<Reply> failed;
+        synchronized (pending) {
+            failed = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        for (Reply reply : failed) {
+            reply.onReply(null);
+        }
+    }
+
+    private void setState(boolean connected, boolean appInput) {
+        if (connected == this.connected && appInput == this.appInput) return;
+        this.connected = connected;
+        this.appInput = appInput;
+        for (Listener listener : listeners) {
+            listener.onLinkState(connected, appInput);
+        }
+    }
+}
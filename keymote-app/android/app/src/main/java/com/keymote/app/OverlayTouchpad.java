@@ -0,0 +1,227 @@
+package com.keymote.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Touchpad surface for the overlay panel.
+ *
+ * One finger moves the pointer, a tap clicks, a two-finger tap right-clicks,
+ * two fingers dragged vertically scroll, and a long press starts a drag
+ * (left button held until release). Every historical sample in a
+ * MotionEvent is counted, each scaled by the acceleration gain for its own
+ * speed, and the motion is flushed once per Choreographer frame as a single
+ * relative move. Buttons and scroll notches flush at once, behind the motion
+ * before them. Main thread only.
+ */
+class OverlayTouchpad implements View.OnTouchListener {
+
+    /** Receives the coalesced ops, in order. */
+    interface Sink {
+        void send(PointerAccumulator.Event event);
+    }
+
+    private static final int TAP_TIMEOUT_MS = 200;
+    private static final int LONG_PRESS_MS = 300;
+    private static final float SCROLL_STEP_DP = 24;
+    private static final int WHEEL_DELTA = 120;
+
+    private final Sink sink;
+    private final float density;
+    private final float touchSlop;
+    private float frameMs;
+    private final LatencyHistogram latency;
+    private final PointerAcceleration acceleration = PointerAcceleration.defaults();
+    private final PointerAccumulator accumulator = new PointerAccumulator();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+    private boolean frameScheduled = false;
+
+    // Motion-to-send: uptime of the oldest sample not yet sent, 0 = none
+    private long oldestSampleAt = 0;
+    private long overFrame = 0;
+
+    // Current gesture
+    private View view;
+    private float downX, downY;
+    private float lastX, lastY;
+    private long lastT;
+    private long downTime;
+    private int maxPointers;
+    private boolean moved;
+    private boolean dragging;
+    private float scrollLastY;
+    private float scrollCarryDp;
+
+    private final Runnable longPress = () -> {
+        if (moved || maxPointers != 1) return;
+        dragging = true;
+        accumulator.action("left-down", 0);
+        flush();
+        if (view != null) view.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+    };
+
+    /**
+     * @param density    display density (px per dp)
+     * @param touchSlop  px a finger may wander before a tap becomes a move
+     * @param frameMs    display frame interval, the motion-to-send budget
+     * @param latency    records motion-to-send time in microseconds
+     */
+    OverlayTouchpad(Sink sink, float density, float touchSlop, float frameMs, LatencyHistogram latency) {
+        this.sink = sink;
+        this.density = density;
+        this.touchSlop = touchSlop;
+        this.frameMs = frameMs;
+        this.latency = latency;
+    }
+
+    @Override
+    public boolean onTouch(View v, MotionEvent e) {
+        switch (e.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                view = v;
+                downX = lastX = e.getX();
+                downY = lastY = e.getY();
+                downTime = lastT = e.getEventTime();
+                maxPointers = 1;
+                moved = false;
+                dragging = false;
+                handler.postDelayed(longPress, LONG_PRESS_MS);
+                return true;
+            case MotionEvent.ACTION_POINTER_DOWN:
+                maxPointers = Math.max(maxPointers, e.getPointerCount());
+                handler.removeCallbacks(longPress);
+                scrollLastY = averageY(e);
+                scrollCarryDp = 0;
+                return true;
+            case MotionEvent.ACTION_MOVE:
+                if (e.getPointerCount() >= 2) {
+                    scroll(e);
+                } else if (maxPointers == 1) {
+                    // After a two-finger gesture the last finger lifting doesn't move the pointer
+                    track(e);
+                }
+                return true;
+            case MotionEvent.ACTION_UP:
+                handler.removeCallbacks(longPress);
+                if (dragging) {
+                    dragging = false;
+                    accumulator.action("left-up", 0);
+                } else if (!moved && e.getEventTime() - downTime < TAP_TIMEOUT_MS) {
+                    accumulator.action(maxPointers >= 2 ? "right" : "left", 0);
+                }
+                flush();
+                return true;
+            case MotionEvent.ACTION_CANCEL:
+                reset();
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void track(MotionEvent e) {
+        int history = e.getHistorySize();
+        for (int i = 0; i <= history; i++) {
+            float x = i < history ? e.getHistoricalX(i) : e.getX();
+            float y = i < history ? e.getHistoricalY(i) : e.getY();
+            long t = i < history ? e.getHistoricalEventTime(i) : e.getEventTime();
+            float dx = x - lastX;
+            float dy = y - lastY;
+            long dt = t - lastT;
+            lastX = x;
+            lastY = y;
+            lastT = t;
+            if (!moved) {
+                if (Math.hypot(x - downX, y - downY) <= touchSlop) continue; // Jitter before a tap
+                moved = true;
+                if (!dragging) handler.removeCallbacks(longPress);
+            }
+            double dxDp = dx / density;
+            double dyDp = dy / density;
+            double gain = acceleration.scale(dxDp, dyDp, dt);
+            accumulator.move(dxDp * gain, dyDp * gain);
+            if (oldestSampleAt == 0) oldestSampleAt = t;
+        }
+        if (!frameScheduled && accumulator.hasPending()) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    // Fingers moving down scroll the content down, as on a laptop touchpad
+    private void scroll(MotionEvent e) {
+        float y = averageY(e);
+        scrollCarryDp += (y - scrollLastY) / density;
+        scrollLastY = y;
+        boolean notched = false;
+        while (Math.abs(scrollCarryDp) >= SCROLL_STEP_DP) {
+            int sign = scrollCarryDp > 0 ? 1 : -1;
+            accumulator.action(PointerAccumulator.SCROLL, sign * WHEEL_DELTA);
+            scrollCarryDp -= sign * SCROLL_STEP_DP;
+            notched = true;
+        }
+        if (notched) {
+            moved = true;
+            flush();
+        }
+    }
+
+    private static float averageY(MotionEvent e) {
+        return (e.getY(0) + e.getY(1)) / 2;
+    }
+
+    private void flush() {
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameScheduled = false;
+        }
+        boolean movedPointer = false;
+        for (PointerAccumulator.Event event : accumulator.drain()) {
+            sink.send(event);
+            movedPointer |= PointerAccumulator.MOVE.equals(event.action);
+        }
+        if (movedPointer && oldestSampleAt > 0) {
+            long age = SystemClock.uptimeMillis() - oldestSampleAt;
+            latency.record(age * 1000);
+            if (age > frameMs) overFrame++;
+            oldestSampleAt = 0;
+        }
+    }
+
+    /** The display's frame interval changed (adaptive refresh, display settings). */
+    void setFrameMs(float frameMs) {
+        this.frameMs = frameMs;
+    }
+
+    /** Ends any gesture in progress (releasing a drag) and drops queued motion. */
+    void reset() {
+        handler.removeCallbacks(longPress);
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameScheduled = false;
+        }
+        accumulator.clear();
+        oldestSampleAt = 0;
+        if (dragging) {
+            dragging = false;
+            accumulator.action("left-up", 0);
+            flush();
+        }
+        view = null;
+    }
+
+    /** Flushes that went out more than one frame after their oldest sample. */
+    long getOverFrame() {
+        return overFrame;
+    }
+
+    void resetStats() {
+        overFrame = 0;
+    }
+}
@@ -0,0 +1,190 @@
+package com.keymote.app;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frame-batched touchpad input. The WebView hands over the pointer events it
+ * collected during one animation frame; moves are summed here and sent to the
+ * desktop once per Choreographer frame through the overlay service's shared
+ * connection (see OverlayLink). Clicks and scrolls go out straight away,
+ * after the motion queued before them. Resolves {sent: false} while that
+ * connection can't take app input, so the WebView keeps its P2P path.
+ * Otherwise a batch resolves once its events have been handed to the link;
+ * if the link drops mid-flush, the buttons and scrolls it didn't take come
+ * back as {sent: false, events} for the WebView to resend. Motion is just
+ * dropped: it's stale by then, and a lost button-up would leave the
+ * desktop's button held.
+ */
+@CapacitorPlugin(name = "PointerInput")
+public class PointerInputPlugin extends Plugin {
+
+    // Main thread only: fed by sendBatch, drained by the frame callback
+    private final PointerAccumulator accumulator = new PointerAccumulator();
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> flush();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private boolean frameScheduled = false;
+    // Main thread: sendBatch calls whose events haven't gone out yet
+    private final List<PluginCall> waiting = new ArrayList<>();
+
+    // Touch-to-send latency: age of the oldest event in each flush, from the
+    // WebView's Date.now() stamp to the hand-off to the overlay service
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private long oldestQueuedAt = 0; // Wall-clock ms of the oldest unsent event, 0 = none
+    private long batches = 0;
+    private long windowStart = SystemClock.elapsedRealtime();
+
+    /**
+     * Queues one frame's worth of pointer events:
+     * {events: [{action: 'move', dx, dy} | {action, delta}], t: Date.now()}.
+     * Fractional move deltas are fine; the remainder carries over.
+     */
+    @PluginMethod()
+    public void sendBatch(PluginCall call) {
+        OverlayLink link = OverlayLink.get(getContext());
+        if (!link.isAppInput()) {
+            JSObject result = new JSObject();
+            result.put("sent", false);
+            call.resolve(result);
+            return;
+        }
+        JSONArray events = call.getArray("events", new JSArray());
+        long t = call.getLong("t", System.currentTimeMillis());
+        mainHandler.post(() -> queue(call, events, t));
+    }
+
+    /**
+     * Event and message rates since the last reset, and touch-to-send
+     * latency in ms. eventsIn is what one message per event would have sent;
+     * messagesOut is what actually went to the desktop. Pass {reset: true}
+     * to start a new window.
+     */
+    @PluginMethod()
+    public void getStats(PluginCall call) {
+        boolean reset = call.getBoolean("reset", false);
+        mainHandler.post(() -> call.resolve(stats(reset)));
+    }
+
+    // Main thread
+    private void queue(PluginCall call, JSONArray events, long t) {
+        waiting.add(call);
+        batches++;
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject e = events.optJSONObject(i);
+            if (e == null) continue;
+            String action = e.optString("action", PointerAccumulator.MOVE);
+            if (PointerAccumulator.MOVE.equals(action)) {
+                accumulator.move(e.optDouble("dx", 0), e.optDouble("dy", 0));
+            } else {
+                accumulator.action(action, e.optInt("delta", 0));
+            }
+        }
+        if (oldestQueuedAt == 0) oldestQueuedAt = t;
+        if (accumulator.hasActions()) {
+            // Button state shouldn't wait up to a frame behind the finger
+            flush();
+        } else if (!frameScheduled && accumulator.hasPending()) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        } else if (!frameScheduled) {
+            // Only a sub-pixel fraction, carried into the next batch
+            resolveWaiting(null);
+        }
+    }
+
+    // Main thread
+    private void flush() {
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(frameCallback);
+            frameScheduled = false;
+        }
+        List<PointerAccumulator.Event> out = accumulator.drain();
+        OverlayLink link = OverlayLink.get(getContext());
+        JSONArray unsent = null;
+        for (PointerAccumulator.Event e : out) {
+            boolean move = PointerAccumulator.MOVE.equals(e.action);
+            JSONObject msg = new JSONObject();
+            try {
+                msg.put("action", e.action);
+                if (move) {
+                    msg.put("dx", e.dx);
+                    msg.put("dy", e.dy);
+                } else if (e.delta != 0) {
+                    msg.put("delta", e.delta);
+                }
+                if (unsent == null) {
+                    msg.put("type", "mouse");
+                    if (link.send(msg.toString())) continue;
+                    // Link dropped mid-gesture: what's left goes back to the WebView
+                    unsent = new JSONArray();
+                    msg.remove("type");
+                }
+                if (!move) unsent.put(msg);
+            } catch (Exception ignored) {
+            }
+        }
+        if (unsent != null) {
+            accumulator.clear(); // The carried fraction belongs to the dropped motion
+        }
+        if (!out.isEmpty() && oldestQueuedAt > 0) {
+            latency.record(Math.max(0, System.currentTimeMillis() - oldestQueuedAt) * 1000);
+            oldestQueuedAt = 0;
+        }
+        resolveWaiting(unsent);
+    }
+
+    // Main thread. Everything queued so far went out with the last flush; the
+    // latest call carries back what the link didn't take, if anything.
+    private void resolveWaiting(JSONArray unsent) {
+        for (int i = 0; i < waiting.size(); i++) {
+            JSObject result = new JSObject();
+            boolean last = i == waiting.size() - 1;
+            result.put("sent", !last || unsent == null);
+            if (last && unsent != null) result.put("events", unsent);
+            waiting.get(i).resolve(result);
+        }
+        waiting.clear();
+    }
+
+    // Main thread
+    private JSObject stats(boolean reset) {
+        long now = SystemClock.elapsedRealtime();
+        double seconds = Math.max(1, now - windowStart) / 1000.0;
+        JSObject result = new JSObject();
+        result.put("windowMs", now - windowStart);
+        result.put("batches", batches);
+        result.put("eventsIn", accumulator.getEventsIn());
+        result.put("messagesOut", accumulator.getEventsOut());
+        result.put("eventsPerSec", accumulator.getEventsIn() / seconds);
+        result.put("messagesPerSec", accumulator.getEventsOut() / seconds);
+        JSObject lat = new JSObject();
+        lat.put("count", latency.getCount());
+        lat.put("p50", latency.getValueAtPercentile(50) / 1000.0);
+        lat.put("p90", latency.getValueAtPercentile(90) / 1000.0);
+        lat.put("p99", latency.getValueAtPercentile(99) / 1000.0);
+        lat.put("max", latency.getMax() / 1000.0);
+        result.put("latency", lat);
+        if (reset) {
+            accumulator.resetCounts();
+            latency.reset();
+            batches = 0;
+            windowStart = now;
+        }
+        return result;
+    }
+}
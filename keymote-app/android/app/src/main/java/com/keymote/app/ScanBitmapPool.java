@@ -0,0 +1,89 @@
+package com.keymote.app;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A couple of mutable bitmaps kept between gallery scans and handed to the
+ * decoder as {@code inBitmap}, so a sampled 12-50 MP photo decodes into
+ * memory that's already allocated instead of a fresh ~10 MB each time.
+ *
+ * Bitmaps come back only once nothing reads them any more (see
+ * StrategyRace.whenSettled), and the pool empties itself after a minute
+ * without scans. Any thread.
+ */
+class ScanBitmapPool {
+
+    private static final int MAX_BITMAPS = 2;
+    private static final long IDLE_CLEAR_MS = 60_000;
+
+    private final List<Bitmap> free = new ArrayList<>();
+    private final Set<Bitmap> abandoned = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable idleClear = this::clear;
+
+    /**
+     * The smallest free bitmap that can hold width x height in config, or
+     * null. The decoder reconfigures it to the decoded size.
+     */
+    synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        Bitmap best = null;
+        for (Bitmap b : free) {
+            if (b.getAllocationByteCount() >= needed
+                    && (best == null || b.getAllocationByteCount() < best.getAllocationByteCount())) {
+                best = b;
+            }
+        }
+        if (best != null) free.remove(best);
+        return best;
+    }
+
+    /**
+     * Gives a bitmap back; immutable ones are just dropped. Past the cap the
+     * smallest is recycled instead.
+     */
+    synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || abandoned.remove(bitmap)) return; // Abandoned: left to the GC
+        if (bitmap.isRecycled() || !bitmap.isMutable()) return;
+        if (free.contains(bitmap)) return;
+        free.add(bitmap);
+        if (free.size() > MAX_BITMAPS) {
+            Bitmap smallest = free.get(0);
+            for (Bitmap b : free) {
+                if (b.getAllocationByteCount() < smallest.getAllocationByteCount()) smallest = b;
+            }
+            free.remove(smallest);
+            smallest.recycle();
+        }
+        handler.removeCallbacks(idleClear);
+        handler.postDelayed(idleClear, IDLE_CLEAR_MS);
+    }
+
+    /**
+     * Something may still be reading this bitmap after its owner is done
+     * (an ML Kit task that wouldn't finish); never take it back or recycle it.
+     */
+    synchronized void abandon(Bitmap bitmap) {
+        abandoned.add(bitmap);
+    }
+
+    synchronized void clear() {
+        handler.removeCallbacks(idleClear);
+        for (Bitmap b : free) b.recycle();
+        free.clear();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565) return 2;
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        return 4;
+    }
+}
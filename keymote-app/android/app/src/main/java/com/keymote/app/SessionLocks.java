@@ -0,0 +1,169 @@
+package com.keymote.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * CPU wake lock and Wi-Fi lock, held only while a session is active
+ * (see LockPolicy). One instance per process: the app process pins it while
+ * the WebView is in front, the :overlay process while the input panel is
+ * open, and both report input as it goes out.
+ *
+ * At LOW_LATENCY the Wi-Fi lock uses WIFI_MODE_FULL_LOW_LATENCY on API 29+
+ * (the platform honours it only while the app is in the foreground and the
+ * screen is on) and WIFI_MODE_FULL_HIGH_PERF below that; HELD uses
+ * HIGH_PERF. Main thread, apart from onActivity().
+ */
+class SessionLocks {
+
+    private static final String TAG = "SessionLocks";
+
+    // Prefs, in FloatingInputService.PREFS_NAME. Each process reads it when
+    // its instance is created, so a change reaches the overlay on its next start.
+    static final String PREF_IDLE_MS = "lock_idle_ms";
+    static final long DEFAULT_IDLE_MS = 5 * 60_000;
+    static final long ACTIVE_MS = 3_000;
+
+    private static SessionLocks instance;
+
+    private final String tag;
+    private final PowerManager powerManager;
+    private final WifiManager wifiManager;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable update = this::update;
+    private final LockPolicy policy;
+
+    private PowerManager.WakeLock cpuLock;
+    private WifiManager.WifiLock wifiLock;
+    private int wifiMode = -1;
+    private volatile boolean updatePosted = false;
+
+    static synchronized SessionLocks get(Context context, String tag) {
+        if (instance == null) {
+            instance = new SessionLocks(context.getApplicationContext(), tag);
+        }
+        return instance;
+    }
+
+    private SessionLocks(Context context, String tag) {
+        this.tag = tag;
+        powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        SharedPreferences prefs = context.getSharedPreferences(FloatingInputService.PREFS_NAME, Context.MODE_PRIVATE);
+        policy = new LockPolicy(ACTIVE_MS, prefs.getLong(PREF_IDLE_MS, DEFAULT_IDLE_MS),
+                SystemClock.elapsedRealtime());
+    }
+
+    /** Something the user is looking at needs the link warm (app in front, panel open). */
+    void setPinned(boolean pinned) {
+        synchronized (policy) {
+            policy.setPinned(pinned, SystemClock.elapsedRealtime());
+        }
+        update();
+    }
+
+    /** Input went out. Any thread; per frame is fine. */
+    void onActivity() {
+        boolean changed;
+        synchronized (policy) {
+            changed = policy.onActivity(SystemClock.elapsedRealtime());
+        }
+        if (changed && !updatePosted) {
+            updatePosted = true;
+            handler.post(update);
+        }
+    }
+
+    void setIdleMs(long idleMs) {
+        synchronized (policy) {
+            policy.setIdleMs(idleMs);
+        }
+        update();
+    }
+
+    /** Releases both locks for good (process going away). */
+    void shutdown() {
+        handler.removeCallbacks(update);
+        LockPolicy.Level level;
+        synchronized (policy) {
+            // Through the policy, so its level and hold time stop here too
+            level = policy.release(SystemClock.elapsedRealtime());
+        }
+        apply(level);
+    }
+
+    private void update() {
+        updatePosted = false;
+        handler.removeCallbacks(update);
+        long now = SystemClock.elapsedRealtime();
+        LockPolicy.Level level;
+        long dropAt;
+        synchronized (policy) {
+            level = policy.update(now);
+            dropAt = policy.nextDropAt();
+        }
+        apply(level);
+        if (dropAt >= 0) {
+            handler.postDelayed(update, Math.max(0, dropAt - now));
+        }
+    }
+
+    private void apply(LockPolicy.Level level) {
+        if (level == LockPolicy.Level.RELEASED) {
+            if (cpuLock != null && cpuLock.isHeld()) cpuLock.release();
+            releaseWifi();
+            return;
+        }
+        if (powerManager != null) {
+            if (cpuLock == null) {
+                cpuLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "keymote:" + tag);
+                cpuLock.setReferenceCounted(false);
+            }
+            if (!cpuLock.isHeld()) cpuLock.acquire();
+        }
+        int mode = WifiManager.WIFI_MODE_FULL_HIGH_PERF;
+        if (level == LockPolicy.Level.LOW_LATENCY && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mode = WifiManager.WIFI_MODE_FULL_LOW_LATENCY;
+        }
+        if (wifiManager != null && mode != wifiMode) {
+            // A lock's mode is fixed at creation; swap in a new one
+            WifiManager.WifiLock next = wifiManager.createWifiLock(mode, "keymote:" + tag + ":wifi");
+            next.setReferenceCounted(false);
+            next.acquire();
+            releaseWifi();
+            wifiLock = next;
+            wifiMode = mode;
+            Log.d(TAG, tag + ": " + level + " (wifi mode " + mode + ")");
+        }
+    }
+
+    private void releaseWifi() {
+        if (wifiLock != null && wifiLock.isHeld()) wifiLock.release();
+        wifiLock = null;
+        wifiMode = -1;
+    }
+
+    /** Hold-time report; pass reset to start a new window. */
+    Bundle stats(boolean reset) {
+        long now = SystemClock.elapsedRealtime();
+        Bundle data = new Bundle();
+        synchronized (policy) {
+            data.putString("level", policy.getLevel().name());
+            data.putLong("heldMs", policy.heldMs(now));
+            data.putLong("lowLatencyMs", policy.lowLatencyMs(now));
+            data.putLong("acquisitions", policy.getAcquisitions());
+            data.putLong("idleMs", policy.getIdleMs());
+            if (reset) policy.resetStats(now);
+        }
+        data.putBoolean("lowLatencyMode", wifiMode == WifiManager.WIFI_MODE_FULL_LOW_LATENCY);
+        return data;
+    }
+}
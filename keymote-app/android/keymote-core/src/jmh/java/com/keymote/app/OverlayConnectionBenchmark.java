@@ -0,0 +1,58 @@
+package com.keymote.app;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Connection bookkeeping: reconnect scheduling, the keepalive check that
+ * runs on every inbound message, and dial ordering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayConnectionBenchmark {
+
+    private final ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, new Random(1));
+    private final KeepalivePolicy keepalive = new KeepalivePolicy();
+    private final OverlayEndpointTable endpoints = new OverlayEndpointTable();
+    private final String[] candidates = {"192.168.1.20", "10.0.0.5", "172.16.4.2", "192.168.56.1"};
+    private long now = 1;
+
+    @Setup
+    public void setUp() {
+        keepalive.onConnected(now);
+        endpoints.recordSuccess("10.0.0.5", 12, 1000);
+        endpoints.recordFailure("192.168.56.1", 2000);
+        endpoints.recordSuccess("192.168.1.20", 30, 500);
+    }
+
+    @Benchmark
+    public long scheduleReconnect() {
+        long delay = backoff.nextDelayMs();
+        if (backoff.getAttempts() > 8) {
+            backoff.reset();
+        }
+        return delay;
+    }
+
+    @Benchmark
+    public long keepaliveOnMessage() {
+        now += 20;
+        keepalive.onHeard(now);
+        keepalive.poll(now);
+        return keepalive.nextPollDelay(now);
+    }
+
+    @Benchmark
+    public String[] orderEndpoints() {
+        return endpoints.order(candidates);
+    }
+}
@@ -0,0 +1,62 @@
+package com.keymote.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * What a keystroke costs the UI thread before it leaves the phone: the
+ * outbox journal write and ack, and the hand-off to the writer thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayFrameWriterBenchmark {
+
+    private OverlayFrameWriter writer;
+    private OverlayOutbox outbox;
+    private File journal;
+    private long seq;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        writer = new OverlayFrameWriter(256, OverlayFrameWriter.Backpressure.COALESCE);
+        writer.start(frame -> { }, "bench-writer");
+        journal = File.createTempFile("overlay-outbox", ".journal");
+        outbox = OverlayOutbox.open(journal, 512 * 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.stop();
+        outbox.close();
+        journal.delete();
+    }
+
+    @Benchmark
+    public boolean offerKeystroke() {
+        return writer.offerEdit(0, 0, "k", ++seq);
+    }
+
+    @Benchmark
+    public boolean offerKey() {
+        return writer.offerKey("Backspace", 1, ++seq);
+    }
+
+    @Benchmark
+    public long journalAndAck() {
+        long s = outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "k");
+        outbox.ack(s);
+        return s;
+    }
+}
@@ -0,0 +1,67 @@
+package com.keymote.app;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-keystroke cost of turning EditText changes into desktop edits.
+ *
+ * typeAndBackspace is the steady state (incremental mirror update at the
+ * caret); it should not grow with textLength. fullResync is the fallback
+ * prefix/suffix diff, which does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayTextSyncBenchmark {
+
+    @Param({"100", "10000"})
+    int textLength;
+
+    private final StringBuilder field = new StringBuilder(); // stands in for the EditText
+    private final OverlayTextMirror mirror = new OverlayTextMirror();
+    private final OverlayTextDiff.Edit edit = new OverlayTextDiff.Edit();
+    private String before;
+    private String after;
+
+    @Setup
+    public void setUp() {
+        field.setLength(0);
+        while (field.length() < textLength) {
+            field.append("lorem ipsum dolor sit amet ");
+        }
+        field.setLength(textLength);
+        mirror.set(field, field.length());
+        before = field.toString();
+        // A typo fixed in the middle of the text
+        int mid = textLength / 2;
+        after = before.substring(0, mid) + "x" + before.substring(mid + 1);
+    }
+
+    @Benchmark
+    public OverlayTextDiff.Edit typeAndBackspace() {
+        int end = field.length();
+        field.append('k');
+        mirror.replace(end, 0, field, 1, true, edit);
+        field.setLength(end);
+        return mirror.replace(end, 1, field, 0, true, edit);
+    }
+
+    @Benchmark
+    public OverlayTextDiff.Edit fullResync() {
+        return OverlayTextDiff.diff(before, after, before.length(), true, edit);
+    }
+
+    @Benchmark
+    public int commonPrefix() {
+        return OverlayTextDiff.commonPrefix(before, after);
+    }
+}
@@ -0,0 +1,78 @@
+package com.keymote.app;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding cost per frame: a keystroke, a named key, and a paste chunk with
+ * and without DEFLATE. Keystrokes must not pay for compression; the chunk
+ * shows what it costs where it applies. The chunk (1030 bytes plain, about
+ * 310 compressed on its own) repeats, so after the first encode it is also
+ * matched against the history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayWireCodecBenchmark {
+
+    @Param({"false", "true"})
+    boolean compression;
+
+    private final OverlayWireCodec codec = new OverlayWireCodec();
+    private final OverlayFrameWriter.Frame keystroke = new OverlayFrameWriter.Frame();
+    private final OverlayFrameWriter.Frame key = new OverlayFrameWriter.Frame();
+    private final OverlayFrameWriter.Frame chunk = new OverlayFrameWriter.Frame();
+    private long seq;
+
+    @Setup
+    public void setUp() {
+        codec.setCompression(compression);
+        keystroke.kind = OverlayFrameWriter.KIND_EDIT;
+        keystroke.text = "k";
+        key.kind = OverlayFrameWriter.KIND_KEY;
+        key.key = "Backspace";
+        key.count = 1;
+        chunk.kind = OverlayFrameWriter.KIND_EDIT;
+        StringBuilder paste = new StringBuilder();
+        Random random = new Random(1);
+        String[] words = {"return ", "value", " = ", "frame.seq", ";\n", "if (", ") {\n", "}\n", "overlay", "42"};
+        while (paste.length() < OverlayPasteStream.CHUNK_CHARS) {
+            paste.append(words[random.nextInt(words.length)]);
+        }
+        chunk.text = paste.substring(0, OverlayPasteStream.CHUNK_CHARS);
+    }
+
+    private int encode(OverlayFrameWriter.Frame frame) {
+        frame.seq = ++seq;
+        frame.firstSeq = frame.seq;
+        ByteBuffer buf = codec.encode(frame);
+        int size = buf.remaining();
+        codec.release(buf);
+        return size;
+    }
+
+    @Benchmark
+    public int keystroke() {
+        return encode(keystroke);
+    }
+
+    @Benchmark
+    public int namedKey() {
+        return encode(key);
+    }
+
+    @Benchmark
+    public int pasteChunk() {
+        return encode(chunk);
+    }
+}
@@ -0,0 +1,150 @@
+package com.keymote.app;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Gallery fallback decode over a generated corpus: screenshots and photos
+ * with a small QR code somewhere on a textured page, half of them low
+ * contrast, all of them lit unevenly. Each invocation decodes the next image.
+ *
+ * singlePass is the old fallback (one HybridBinarizer pass over the whole
+ * image); tiled is TiledQrDecoder on the common pool. Besides time per image,
+ * the found/missed counters give the success rate over the same corpus.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TiledQrDecoderBenchmark {
+
+    @Param({"screenshot", "photo"})
+    String corpus;
+
+    private static final int IMAGES = 12;
+
+    private byte[][] images;
+    private int width;
+    private int height;
+    private int next;
+    private TiledQrDecoder decoder;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Hits {
+        public long found;
+        public long missed;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            found = 0;
+            missed = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws WriterException {
+        boolean photo = corpus.equals("photo");
+        width = photo ? 3000 : 1080;
+        height = photo ? 4000 : 2400;
+        int[] sizes = photo ? new int[] {80, 100, 120} : new int[] {58, 70, 90};
+        Random random = new Random(42);
+        images = new byte[IMAGES][];
+        for (int i = 0; i < IMAGES; i++) {
+            images[i] = page(random, sizes[i % sizes.length], i % 2 == 0 ? 200 : 90, "keymote://pair/" + i);
+        }
+        // Configured as GalleryQrScannerPlugin ships it
+        decoder = new TiledQrDecoder(ForkJoinPool.commonPool()).setFormats(List.of(BarcodeFormat.QR_CODE));
+    }
+
+    private byte[] page(Random random, int size, int contrast, String text) throws WriterException {
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int v = 128 + (int) (60 * Math.sin(x / 37.0) * Math.cos(y / 53.0)) + random.nextInt(40) - 20;
+                luma[y * width + x] = (byte) Math.max(0, Math.min(255, v));
+            }
+        }
+        // Lines of "text"
+        for (int i = 0; i < 400; i++) {
+            int left = random.nextInt(width - 60);
+            int top = random.nextInt(height - 12);
+            int length = 10 + random.nextInt(50);
+            for (int y = top; y < top + 8; y++) {
+                for (int x = left; x < left + length; x++) luma[y * width + x] = 30;
+            }
+        }
+        BitMatrix code = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, size, size);
+        int codeX = random.nextInt(width - size);
+        int codeY = random.nextInt(height - size);
+        int dark = 128 - contrast / 2;
+        int light = 128 + contrast / 2;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                luma[(codeY + y) * width + codeX + x] = (byte) (code.get(x, y) ? dark : light);
+            }
+        }
+        // Light falling off towards the left edge
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                luma[i] = (byte) ((luma[i] & 0xff) * (0.35 + 0.65 * x / width));
+            }
+        }
+        return luma;
+    }
+
+    private byte[] nextImage() {
+        byte[] image = images[next];
+        next = (next + 1) % images.length;
+        return image;
+    }
+
+    @Benchmark
+    public Object singlePass(Hits hits) {
+        byte[] luma = nextImage();
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(luma, width, height, 0, 0, width, height, false);
+        try {
+            Result result = new MultiFormatReader().decode(new BinaryBitmap(new HybridBinarizer(source)));
+            hits.found++;
+            return result;
+        } catch (NotFoundException e) {
+            hits.missed++;
+            return null;
+        }
+    }
+
+    @Benchmark
+    public Object tiled(Hits hits) throws InterruptedException {
+        TiledQrDecoder.Match match = decoder.decode(nextImage(), width, height);
+        if (match != null) {
+            hits.found++;
+        } else {
+            hits.missed++;
+        }
+        return match;
+    }
+}
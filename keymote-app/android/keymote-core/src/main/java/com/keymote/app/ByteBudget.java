@@ -0,0 +1,63 @@
+package com.keymote.app;
+
+/**
+ * Caps how many bytes of decoded images are in flight at once. A batch scan
+ * asks for an image's estimated footprint before decoding it and gives it
+ * back when every strategy is done with the pixels, so several photos
+ * decode side by side only while they fit.
+ *
+ * A request bigger than the whole budget is charged the whole budget: it
+ * runs, but alone. Thread-safe; acquire blocks.
+ */
+public class ByteBudget {
+
+    private final long capacity;
+    private long used;
+    private long peak;
+    private long waits;
+
+    public ByteBudget(long capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Blocks until {@code bytes} fit and takes them. Returns the amount
+     * actually charged, which is what {@link #release} must be given.
+     */
+    public synchronized long acquire(long bytes) throws InterruptedException {
+        long charge = Math.max(0, Math.min(bytes, capacity));
+        if (used + charge > capacity) {
+            waits++;
+            do {
+                wait();
+            } while (used + charge > capacity);
+        }
+        used += charge;
+        peak = Math.max(peak, used);
+        return charge;
+    }
+
+    public synchronized void release(long charged) {
+        used = Math.max(0, used - charged);
+        notifyAll();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /** Most bytes held at once. */
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /** Acquires that had to wait for room. */
+    public synchronized long getWaits() {
+        return waits;
+    }
+}
@@ -0,0 +1,79 @@
+package com.keymote.app;
+
+/**
+ * Frame pacing of the overlay windows while they move (bubble drag).
+ *
+ * Fed the vsync time of every frame callback during a streak of motion; the
+ * gap to the previous frame goes into a histogram, and a gap that rounds to
+ * more than one display frame counts as a janky frame, with the extra
+ * frames counted as skipped. Gaps between streaks (the finger lifted) are
+ * not frames and don't count. Synchronized: the main thread records, the
+ * binder thread reads.
+ */
+public class FrameStats {
+
+    private final LatencyHistogram intervals = new LatencyHistogram();
+    private long frameIntervalNanos;
+    private long lastFrameNanos; // 0 = no streak in progress
+    private long frames;
+    private long janky;
+    private long skipped;
+
+    public FrameStats(long frameIntervalNanos) {
+        setFrameIntervalNanos(frameIntervalNanos);
+    }
+
+    /** The display's frame interval; changes with the refresh rate. */
+    public synchronized void setFrameIntervalNanos(long frameIntervalNanos) {
+        if (frameIntervalNanos <= 0) throw new IllegalArgumentException("frame interval must be positive");
+        this.frameIntervalNanos = frameIntervalNanos;
+    }
+
+    /** A frame ran; frameTimeNanos is its vsync time (System.nanoTime base). */
+    public synchronized void onFrame(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            long interval = frameTimeNanos - lastFrameNanos;
+            if (interval <= 0) return;
+            frames++;
+            intervals.record(interval / 1000);
+            long missed = Math.round((double) interval / frameIntervalNanos) - 1;
+            if (missed > 0) {
+                janky++;
+                skipped += missed;
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+    }
+
+    /** Motion stopped; the next frame starts a new streak. */
+    public synchronized void endStreak() {
+        lastFrameNanos = 0;
+    }
+
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /** Frames that came a display frame or more late. */
+    public synchronized long getJanky() {
+        return janky;
+    }
+
+    /** Display frames missed in total across the janky ones. */
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    /** Frame-to-frame time in microseconds. */
+    public LatencyHistogram getIntervals() {
+        return intervals;
+    }
+
+    /** Starts a new window; a streak in progress carries on. */
+    public synchronized void reset() {
+        intervals.reset();
+        frames = 0;
+        janky = 0;
+        skipped = 0;
+    }
+}
@@ -0,0 +1,151 @@
+package com.keymote.app;
+
+/**
+ * Grapheme cluster boundaries: the units a desktop caret steps over with one
+ * arrow key and removes with one Backspace.
+ *
+ * Follows UAX #29's extended clusters, trimmed to what a phone keyboard
+ * produces: CR LF, combining marks and other extenders, emoji modifier and
+ * ZWJ sequences, flag pairs and Hangul jamo. java.text.BreakIterator isn't
+ * used because it only learned emoji sequences in JDK 20, so it would
+ * disagree between the phone and the desktop JVM running the tests.
+ * Pure Java — no Android dependencies.
+ */
+public final class GraphemeClusters {
+
+    private static final int ZWJ = 0x200D;
+
+    private static final int HANGUL_OTHER = 0;
+    private static final int HANGUL_L = 1;
+    private static final int HANGUL_V = 2;
+    private static final int HANGUL_T = 3;
+    private static final int HANGUL_LV = 4;
+    private static final int HANGUL_LVT = 5;
+
+    private GraphemeClusters() {
+    }
+
+    /** Whether a cluster boundary falls before {@code index}; true at both ends. */
+    public static boolean isBoundary(CharSequence s, int index) {
+        if (index <= 0 || index >= s.length()) return true;
+        if (Character.isLowSurrogate(s.charAt(index)) && Character.isHighSurrogate(s.charAt(index - 1))) {
+            return false;
+        }
+        int before = Character.codePointBefore(s, index);
+        int after = Character.codePointAt(s, index);
+        if (before == '\r') return after != '\n';
+        if (before == '\n' || after == '\r' || after == '\n') return true;
+        if (after == ZWJ || isExtend(after)) return false;
+        if (joinsHangul(hangulType(before), hangulType(after))) return false;
+        if (before == ZWJ && isPictographic(after)) {
+            // Pictographic Extend* ZWJ × Pictographic
+            int i = index - 1;
+            while (i > 0) {
+                int cp = Character.codePointBefore(s, i);
+                if (!isExtend(cp)) return !isPictographic(cp);
+                i -= Character.charCount(cp);
+            }
+            return true;
+        }
+        if (isRegionalIndicator(before) && isRegionalIndicator(after)) {
+            // Flags pair regional indicators off from the start of the run
+            int run = 0;
+            for (int i = index; i > 0 && isRegionalIndicator(Character.codePointBefore(s, i)); i -= 2) {
+                run++;
+            }
+            return run % 2 == 0;
+        }
+        return true;
+    }
+
+    /**
+     * Clusters an arrow key crosses going from {@code from} to {@code to};
+     * negative = left. Counts the boundaries in (from, to] going right and
+     * in [to, from) going left, so {@link #offset} walks it back exactly.
+     */
+    public static int distance(CharSequence s, int from, int to) {
+        int n = 0;
+        if (from <= to) {
+            for (int i = from + 1; i <= to; i++) {
+                if (isBoundary(s, i)) n++;
+            }
+            return n;
+        }
+        for (int i = to; i < from; i++) {
+            if (isBoundary(s, i)) n++;
+        }
+        return -n;
+    }
+
+    /** Backspaces that remove s[from, to) with the caret at {@code to}. */
+    public static int count(CharSequence s, int from, int to) {
+        return -distance(s, to, from);
+    }
+
+    /** The index {@code clusters} boundaries away from {@code index}; clamped to the text. */
+    public static int offset(CharSequence s, int index, int clusters) {
+        int len = s.length();
+        for (; clusters > 0 && index < len; clusters--) {
+            index++;
+            while (index < len && !isBoundary(s, index)) index++;
+        }
+        for (; clusters < 0 && index > 0; clusters++) {
+            index--;
+            while (index > 0 && !isBoundary(s, index)) index--;
+        }
+        return index;
+    }
+
+    // Marks, variation selectors, emoji modifiers and tags: never start a cluster
+    private static boolean isExtend(int cp) {
+        switch (Character.getType(cp)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return true;
+            default:
+                break;
+        }
+        return cp == 0x200C
+                || (cp >= 0xFE00 && cp <= 0xFE0F)
+                || (cp >= 0x1F3FB && cp <= 0x1F3FF)
+                || (cp >= 0xE0020 && cp <= 0xE007F)
+                || (cp >= 0xE0100 && cp <= 0xE01EF);
+    }
+
+    // Extended_Pictographic, approximated by the blocks emoji live in
+    private static boolean isPictographic(int cp) {
+        return cp == 0x00A9 || cp == 0x00AE || cp == 0x203C || cp == 0x2049
+                || cp == 0x2122 || cp == 0x2139
+                || (cp >= 0x2194 && cp <= 0x2BFF)
+                || cp == 0x3030 || cp == 0x303D || cp == 0x3297 || cp == 0x3299
+                || (cp >= 0x1F000 && cp <= 0x1FAFF);
+    }
+
+    private static boolean isRegionalIndicator(int cp) {
+        return cp >= 0x1F1E6 && cp <= 0x1F1FF;
+    }
+
+    private static int hangulType(int cp) {
+        if ((cp >= 0x1100 && cp <= 0x115F) || (cp >= 0xA960 && cp <= 0xA97C)) return HANGUL_L;
+        if ((cp >= 0x1160 && cp <= 0x11A7) || (cp >= 0xD7B0 && cp <= 0xD7C6)) return HANGUL_V;
+        if ((cp >= 0x11A8 && cp <= 0x11FF) || (cp >= 0xD7CB && cp <= 0xD7FB)) return HANGUL_T;
+        if (cp >= 0xAC00 && cp <= 0xD7A3) return (cp - 0xAC00) % 28 == 0 ? HANGUL_LV : HANGUL_LVT;
+        return HANGUL_OTHER;
+    }
+
+    private static boolean joinsHangul(int before, int after) {
+        switch (before) {
+            case HANGUL_L:
+                return after == HANGUL_L || after == HANGUL_V || after == HANGUL_LV || after == HANGUL_LVT;
+            case HANGUL_LV:
+            case HANGUL_V:
+                return after == HANGUL_V || after == HANGUL_T;
+            case HANGUL_LVT:
+            case HANGUL_T:
+                return after == HANGUL_T;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.keymote.app;
+
+/**
+ * Decides when the overlay pings the desktop and when it gives up on it.
+ *
+ * Any inbound traffic (messages, acks, pongs) proves the link is alive, so a
+ * ping only goes out after a quiet interval. While the user is likely to
+ * type (panel expanded, frames awaiting acks) the interval and the pong
+ * timeout are short, so a dead link is noticed within a few seconds. While
+ * collapsed and idle, pings are rare so the radio can sleep.
+ *
+ * Times are caller-supplied milliseconds (elapsedRealtime). Synchronized:
+ * socket threads report traffic, the main thread polls.
+ */
+public class KeepalivePolicy {
+
+    public static final long ACTIVE_INTERVAL_MS = 2000;
+    public static final long ACTIVE_TIMEOUT_MS = 3000;
+    public static final long IDLE_INTERVAL_MS = 60000;
+    public static final long IDLE_TIMEOUT_MS = 10000;
+    private static final long MIN_POLL_MS = 50;
+
+    public static final int NONE = 0;
+    public static final int PING = 1;
+    public static final int DEAD = 2;
+
+    private boolean active;
+    private long lastHeardAt;
+    private long pingSentAt; // 0 = no ping outstanding
+
+    // Totals across connections, for tuning
+    private long pings;
+    private long deadPeers;
+    private long countingSince;
+
+    public synchronized void onConnected(long now) {
+        lastHeardAt = now;
+        pingSentAt = 0;
+        if (countingSince == 0) countingSince = now;
+    }
+
+    /** Anything received from the desktop. */
+    public synchronized void onHeard(long now) {
+        lastHeardAt = now;
+        pingSentAt = 0;
+    }
+
+    /** Returns true if the mode changed (the caller should poll again now). */
+    public synchronized boolean setActive(boolean active) {
+        if (this.active == active) return false;
+        this.active = active;
+        return true;
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /** What to do now: {@link #NONE}, {@link #PING} (counted as sent) or {@link #DEAD}. */
+    public synchronized int poll(long now) {
+        if (pingSentAt > 0) {
+            // A ping sent in idle mode still gets the short timeout once typing starts
+            if (now - pingSentAt >= timeout()) {
+                deadPeers++;
+                pingSentAt = 0;
+                return DEAD;
+            }
+            return NONE;
+        }
+        if (now - lastHeardAt >= interval()) {
+            pingSentAt = now;
+            pings++;
+            return PING;
+        }
+        return NONE;
+    }
+
+    /** Delay until the next {@link #poll} has something to decide. */
+    public synchronized long nextPollDelay(long now) {
+        long due = pingSentAt > 0 ? pingSentAt + timeout() : lastHeardAt + interval();
+        return Math.max(MIN_POLL_MS, due - now);
+    }
+
+    /** How long the link had been silent; read right after {@link #DEAD}. */
+    public synchronized long silentFor(long now) {
+        return now - lastHeardAt;
+    }
+
+    public synchronized long getPings() {
+        return pings;
+    }
+
+    public synchronized long getDeadPeers() {
+        return deadPeers;
+    }
+
+    /** Pings (each one a potential radio wakeup) per hour since the first connection. */
+    public synchronized double wakeupsPerHour(long now) {
+        long elapsed = now - countingSince;
+        if (countingSince == 0 || elapsed <= 0) return 0;
+        return pings * 3_600_000.0 / elapsed;
+    }
+
+    private long interval() {
+        return active ? ACTIVE_INTERVAL_MS : IDLE_INTERVAL_MS;
+    }
+
+    private long timeout() {
+        return active ? ACTIVE_TIMEOUT_MS : IDLE_TIMEOUT_MS;
+    }
+}
@@ -0,0 +1,85 @@
+package com.keymote.app;
+
+/**
+ * Fixed-footprint latency histogram in the spirit of HdrHistogram.
+ *
+ * Values are microseconds. The first 128 buckets are exact; above that each
+ * power of two is split into 64 linear sub-buckets, so any recorded value is
+ * reported within ~1.6% (percentiles round up to the bucket's upper bound).
+ * Values beyond ~71 minutes are clamped. Recording allocates nothing.
+ * Synchronized: socket threads record, the binder/main thread reads.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;                  // 64 sub-buckets per octave
+    private static final int LINEAR = 2 << SUB_BITS;        // values below this are exact
+    private static final long MAX_VALUE = (1L << 32) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public synchronized void record(long micros) {
+        if (micros < 0) micros = 0;
+        if (micros > MAX_VALUE) micros = MAX_VALUE;
+        counts[index(micros)]++;
+        total++;
+        sum += micros;
+        if (micros < min) min = micros;
+        if (micros > max) max = micros;
+    }
+
+    public synchronized long getCount() {
+        return total;
+    }
+
+    public synchronized long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    public synchronized double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    /** Smallest bucket bound covering {@code percentile}% of the values (0 if empty). */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS; // value >> shift is in [64, 128)
+        return LINEAR + (shift - 1) * (1 << SUB_BITS) + (int) ((value >> shift) - (1 << SUB_BITS));
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR) return index;
+        int shift = (index - LINEAR) / (1 << SUB_BITS) + 1;
+        long sub = (index - LINEAR) % (1 << SUB_BITS) + (1 << SUB_BITS);
+        return ((sub + 1) << shift) - 1;
+    }
+}
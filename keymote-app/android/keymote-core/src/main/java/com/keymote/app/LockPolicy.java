@@ -0,0 +1,135 @@
+package com.keymote.app;
+
+/**
+ * Decides how hard to keep the radio and CPU awake, from recent input.
+ *
+ * While something is pinned (the input panel is open, the app is in front)
+ * or input went out within {@code activeMs}, the level is
+ * {@link Level#LOW_LATENCY}. After that the locks stay {@link Level#HELD}
+ * until {@code idleMs} have passed without input, then are
+ * {@link Level#RELEASED}. Time spent at each level is accounted as the
+ * level changes, so hold time can be reported next to input latency.
+ * An idle period shorter than the active window is raised to it.
+ * Callers pass elapsedRealtime milliseconds and synchronize.
+ */
+public class LockPolicy {
+
+    public enum Level { RELEASED, HELD, LOW_LATENCY }
+
+    private final long activeMs;
+    private long idleMs;
+
+    private boolean pinned = false;
+    private long lastActivity = -1; // -1 = none yet
+    private Level level = Level.RELEASED;
+    private long levelSince;
+    private long heldMs;
+    private long lowLatencyMs;
+    private long acquisitions;
+
+    public LockPolicy(long activeMs, long idleMs, long now) {
+        this.activeMs = activeMs;
+        this.idleMs = Math.max(activeMs, idleMs);
+        this.levelSince = now;
+    }
+
+    public void setIdleMs(long idleMs) {
+        this.idleMs = Math.max(activeMs, idleMs);
+    }
+
+    public long getIdleMs() {
+        return idleMs;
+    }
+
+    /** Pins the locks at LOW_LATENCY, or unpins them; the idle period starts from now. */
+    public void setPinned(boolean pinned, long now) {
+        if (this.pinned && !pinned) lastActivity = now;
+        this.pinned = pinned;
+    }
+
+    /**
+     * Input went out. Cheap enough to call per frame; returns true only when
+     * the level needs re-evaluating (it was below LOW_LATENCY).
+     */
+    public boolean onActivity(long now) {
+        lastActivity = now;
+        return level != Level.LOW_LATENCY;
+    }
+
+    /** Level wanted right now, without changing state. */
+    public Level target(long now) {
+        if (pinned) return Level.LOW_LATENCY;
+        if (lastActivity < 0) return Level.RELEASED;
+        long quiet = now - lastActivity;
+        if (quiet < activeMs) return Level.LOW_LATENCY;
+        if (quiet < idleMs) return Level.HELD;
+        return Level.RELEASED;
+    }
+
+    /** Moves to the target level, accounting the time spent at the old one. */
+    public Level update(long now) {
+        Level next = target(now);
+        if (next != level) {
+            account(now);
+            if (level == Level.RELEASED) acquisitions++;
+            level = next;
+        }
+        return level;
+    }
+
+    /**
+     * Drops to RELEASED now, whatever the pin and recent input say, and
+     * forgets both, so the level stays released until new input or a pin.
+     */
+    public Level release(long now) {
+        pinned = false;
+        lastActivity = -1;
+        return update(now);
+    }
+
+    /** When the level would next drop with no further input, or -1 if never. */
+    public long nextDropAt() {
+        if (pinned || lastActivity < 0) return -1;
+        switch (level) {
+            case LOW_LATENCY:
+                return lastActivity + activeMs;
+            case HELD:
+                return lastActivity + idleMs;
+            default:
+                return -1;
+        }
+    }
+
+    private void account(long now) {
+        long spent = now - levelSince;
+        if (level != Level.RELEASED) heldMs += spent;
+        if (level == Level.LOW_LATENCY) lowLatencyMs += spent;
+        levelSince = now;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /** Time with the locks held at any level, including the current stretch. */
+    public long heldMs(long now) {
+        return heldMs + (level != Level.RELEASED ? now - levelSince : 0);
+    }
+
+    public long lowLatencyMs(long now) {
+        return lowLatencyMs + (level == Level.LOW_LATENCY ? now - levelSince : 0);
+    }
+
+    /** Times the locks went from released to held. */
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    /** Starts a new accounting window; the current level carries on. */
+    public void resetStats(long now) {
+        heldMs = 0;
+        lowLatencyMs = 0;
+        acquisitions = 0;
+        levelSince = now;
+    }
+}
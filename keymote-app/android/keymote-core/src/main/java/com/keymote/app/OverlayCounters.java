@@ -0,0 +1,107 @@
+package com.keymote.app;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals for the overlay connection, cheap enough to bump per frame.
+ *
+ * The writer thread counts what it sends, socket and main threads count
+ * connection events, and a stats request reads whatever is there; no
+ * snapshot is consistent across counters, nor needs to be. Connected time
+ * uses caller-supplied elapsedRealtime milliseconds.
+ */
+public class OverlayCounters {
+
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong reconnectAttempts = new AtomicLong();
+    // WebView app input relayed over the shared link, or refused while it was down
+    private final AtomicLong appInputForwarded = new AtomicLong();
+    private final AtomicLong appInputDropped = new AtomicLong();
+    // Writer counters carried over from connections already closed
+    private final AtomicLong closedFramesDropped = new AtomicLong();
+    private final AtomicLong closedFramesCoalesced = new AtomicLong();
+
+    private long connectedSince; // 0 = not connected
+    private long connectedTotalMs;
+
+    public void onFrameSent(int bytes) {
+        framesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    /** A connection opened; {@code afterLoss} if an earlier one had dropped. */
+    public synchronized void onConnected(long now, boolean afterLoss) {
+        connects.incrementAndGet();
+        if (afterLoss) reconnects.incrementAndGet();
+        if (connectedSince == 0) connectedSince = now;
+    }
+
+    public synchronized void onDisconnected(long now) {
+        if (connectedSince == 0) return;
+        connectedTotalMs += now - connectedSince;
+        connectedSince = 0;
+    }
+
+    public void onReconnectScheduled() {
+        reconnectAttempts.incrementAndGet();
+    }
+
+    public void onAppInputForwarded() {
+        appInputForwarded.incrementAndGet();
+    }
+
+    public void onAppInputDropped() {
+        appInputDropped.incrementAndGet();
+    }
+
+    /** Folds in a stopped writer's totals. */
+    public void onWriterStopped(OverlayFrameWriter writer) {
+        closedFramesDropped.addAndGet(writer.getFramesDropped());
+        closedFramesCoalesced.addAndGet(writer.getFramesCoalesced());
+    }
+
+    /** Time spent connected, including the current connection. */
+    public synchronized long connectedMs(long now) {
+        return connectedTotalMs + (connectedSince > 0 ? now - connectedSince : 0);
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    public long getReconnectAttempts() {
+        return reconnectAttempts.get();
+    }
+
+    public long getAppInputForwarded() {
+        return appInputForwarded.get();
+    }
+
+    public long getAppInputDropped() {
+        return appInputDropped.get();
+    }
+
+    /** Dropped frames over every connection; pass the live writer, or null. */
+    public long framesDropped(OverlayFrameWriter current) {
+        return closedFramesDropped.get() + (current != null ? current.getFramesDropped() : 0);
+    }
+
+    public long framesCoalesced(OverlayFrameWriter current) {
+        return closedFramesCoalesced.get() + (current != null ? current.getFramesCoalesced() : 0);
+    }
+}
@@ -0,0 +1,160 @@
+package com.keymote.app;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-address connection history for the desktop relay, persisted across
+ * :overlay process restarts so the last address that worked is dialed first.
+ *
+ * Stored as one line per endpoint: ip,successes,failures,lastRttMs,lastSuccessAt,lastFailureAt
+ * (times are wall-clock millis). Pure Java — the service owns persistence.
+ * Not thread-safe; the service only touches it on the main thread.
+ */
+public class OverlayEndpointTable {
+
+    /** Entries with no success or failure for this long are forgotten. */
+    static final long STALE_MS = 14L * 24 * 60 * 60 * 1000;
+    static final int MAX_ENTRIES = 16;
+
+    public static final class Endpoint {
+        public final String ip;
+        public int successes;
+        public int failures;
+        public long lastRttMs = -1;
+        public long lastSuccessAt;
+        public long lastFailureAt;
+
+        Endpoint(String ip) {
+            this.ip = ip;
+        }
+
+        /** Last attempt succeeded. */
+        boolean isGood() {
+            return lastSuccessAt > 0 && lastSuccessAt >= lastFailureAt;
+        }
+
+        long lastSeenAt() {
+            return Math.max(lastSuccessAt, lastFailureAt);
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+
+    public Endpoint get(String ip) {
+        return endpoints.get(ip);
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    /** Every known endpoint, oldest entry first. */
+    public Collection<Endpoint> all() {
+        return Collections.unmodifiableCollection(endpoints.values());
+    }
+
+    public void recordSuccess(String ip, long rttMs, long now) {
+        Endpoint e = entry(ip);
+        e.successes++;
+        e.lastRttMs = rttMs;
+        e.lastSuccessAt = now;
+    }
+
+    public void recordFailure(String ip, long now) {
+        Endpoint e = entry(ip);
+        e.failures++;
+        e.lastFailureAt = now;
+    }
+
+    /**
+     * Orders candidate addresses for dialing: addresses whose last attempt
+     * succeeded (most recent first), then addresses never tried, then
+     * addresses whose last attempt failed (oldest failure first). Ties keep
+     * the caller's order.
+     */
+    public String[] order(String[] candidates) {
+        List<String> ips = new ArrayList<>(candidates.length);
+        for (String candidate : candidates) {
+            String ip = candidate.trim();
+            if (!ip.isEmpty() && !ips.contains(ip)) ips.add(ip);
+        }
+        List<String> sorted = new ArrayList<>(ips);
+        Collections.sort(sorted, (a, b) -> {
+            Endpoint ea = endpoints.get(a);
+            Endpoint eb = endpoints.get(b);
+            int ra = rank(ea);
+            int rb = rank(eb);
+            if (ra != rb) return Integer.compare(ra, rb);
+            if (ra == 0) return Long.compare(eb.lastSuccessAt, ea.lastSuccessAt);
+            if (ra == 2) return Long.compare(ea.lastFailureAt, eb.lastFailureAt);
+            return Integer.compare(ips.indexOf(a), ips.indexOf(b));
+        });
+        return sorted.toArray(new String[0]);
+    }
+
+    /** Drops stale entries, then the least recently seen ones beyond MAX_ENTRIES. */
+    public void prune(long now) {
+        endpoints.values().removeIf(e -> now - e.lastSeenAt() > STALE_MS);
+        while (endpoints.size() > MAX_ENTRIES) {
+            Endpoint oldest = null;
+            for (Endpoint e : endpoints.values()) {
+                if (oldest == null || e.lastSeenAt() < oldest.lastSeenAt()) oldest = e;
+            }
+            endpoints.remove(oldest.ip);
+        }
+    }
+
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint e : endpoints.values()) {
+            sb.append(e.ip).append(',')
+                    .append(e.successes).append(',')
+                    .append(e.failures).append(',')
+                    .append(e.lastRttMs).append(',')
+                    .append(e.lastSuccessAt).append(',')
+                    .append(e.lastFailureAt).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Parses {@link #serialize()} output, skipping malformed lines. */
+    public static OverlayEndpointTable parse(String data) {
+        OverlayEndpointTable table = new OverlayEndpointTable();
+        if (data == null) return table;
+        for (String line : data.split("\n")) {
+            String[] f = line.split(",");
+            if (f.length != 6 || f[0].isEmpty()) continue;
+            try {
+                Endpoint e = new Endpoint(f[0]);
+                e.successes = Integer.parseInt(f[1]);
+                e.failures = Integer.parseInt(f[2]);
+                e.lastRttMs = Long.parseLong(f[3]);
+                e.lastSuccessAt = Long.parseLong(f[4]);
+                e.lastFailureAt = Long.parseLong(f[5]);
+                table.endpoints.put(e.ip, e);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return table;
+    }
+
+    private Endpoint entry(String ip) {
+        Endpoint e = endpoints.get(ip);
+        if (e == null) {
+            e = new Endpoint(ip);
+            endpoints.put(ip, e);
+        }
+        return e;
+    }
+
+    // 0 = last attempt succeeded, 1 = unknown, 2 = last attempt failed
+    private static int rank(Endpoint e) {
+        if (e == null || e.lastSeenAt() == 0) return 1;
+        return e.isGood() ? 0 : 2;
+    }
+}
@@ -0,0 +1,403 @@
+package com.keymote.app;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single outbound writer for one overlay WebSocket connection.
+ *
+ * Producers (the TextWatcher on the UI thread) only describe frames; building
+ * the payload and handing it to the socket happens on a dedicated writer
+ * thread. Frames live in a fixed ring of preallocated slots, so steady-state
+ * typing does not allocate queue nodes.
+ *
+ * When the ring is full the {@link Backpressure} policy decides what happens.
+ * Only BLOCK ever waits; the other policies answer at once, so a producer on
+ * the UI thread never stalls on a slow socket.
+ */
+public class OverlayFrameWriter {
+
+    /** What a producer does when the ring has no free slot. */
+    public enum Backpressure {
+        /** Wait (bounded) for the writer to free a slot. Not for the UI thread. */
+        BLOCK,
+        /**
+         * Merge into the pending tail frame when possible, otherwise evict the
+         * oldest idempotent frame, otherwise drop the new one.
+         */
+        COALESCE,
+        /** Evict the oldest idempotent frame, otherwise drop the new one. */
+        DROP_OLDEST
+    }
+
+    /** Frame kinds understood by {@link Sink} implementations. */
+    public static final int KIND_EDIT = 1; // move caret, delete N grapheme clusters, then insert text
+    public static final int KIND_KEY = 2;  // named key, pressed `count` times
+    public static final int KIND_CONTROL = 3; // JSON control message in `text`, never journaled
+
+    /** One queued frame. Slots are reused; sinks must not keep a reference. */
+    public static final class Frame {
+        public int kind;
+        public int move;        // KIND_EDIT: caret movement in grapheme clusters (negative = left)
+        public int count;       // KIND_EDIT: grapheme clusters to delete; KIND_KEY: repeat
+        public String text;     // KIND_EDIT: text to insert
+        public String key;      // KIND_KEY: key name
+        public boolean idempotent; // stale once newer input exists; may be evicted when full
+        public long seq;        // outbox sequence of the last op in this frame; 0 = unsequenced
+        public long firstSeq;   // first op folded into this frame (== seq unless coalesced)
+        public Delivery delivery; // KIND_CONTROL: told whether the frame reached the socket
+
+        void copyFrom(Frame other) {
+            kind = other.kind;
+            seq = other.seq;
+            firstSeq = other.firstSeq;
+            move = other.move;
+            count = other.count;
+            text = other.text;
+            key = other.key;
+            idempotent = other.idempotent;
+            delivery = other.delivery;
+        }
+
+        void clear() {
+            kind = 0;
+            move = 0;
+            count = 0;
+            text = null;
+            key = null;
+            idempotent = false;
+            seq = 0;
+            firstSeq = 0;
+            delivery = null;
+        }
+
+        /** Reports the frame's {@link Delivery}, at most once. */
+        public void deliver(boolean written) {
+            Delivery d = delivery;
+            delivery = null;
+            if (d != null) d.onDelivery(written);
+        }
+    }
+
+    /**
+     * Told once whether a queued control frame was written to the socket.
+     * Runs on the writer thread, or on the thread that evicted or discarded
+     * the frame; must not block or offer frames.
+     */
+    public interface Delivery {
+        void onDelivery(boolean written);
+    }
+
+    /**
+     * Encodes and transmits a frame. Only ever called on the writer thread;
+     * implementations handle their own send errors. A frame the sink fails
+     * to send is reported with {@code frame.deliver(false)}; returning
+     * normally otherwise counts as written.
+     */
+    public interface Sink {
+        void write(Frame frame);
+    }
+
+    private static final long MAX_BLOCK_MS = 1000;
+    // Keeps paste chunks one per frame, so the desktop acks (and frees the window) chunk by chunk
+    private static final int MAX_COALESCED_CHARS = OverlayPasteStream.CHUNK_CHARS;
+
+    private final Frame[] ring;
+    private final Backpressure policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private int head; // next slot to take
+    private int size;
+    private boolean running;
+    private Thread thread;
+
+    // Counters (guarded by lock)
+    private int highWater;
+    private long framesQueued;
+    private long framesCoalesced;
+    private long framesDropped;
+
+    public OverlayFrameWriter(int capacity, Backpressure policy) {
+        ring = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Frame();
+        }
+        this.policy = policy;
+    }
+
+    public void start(Sink sink, String name) {
+        lock.lock();
+        try {
+            if (running) return;
+            running = true;
+        } finally {
+            lock.unlock();
+        }
+        thread = new Thread(() -> drain(sink), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops the writer thread and discards anything still queued. */
+    public void stop() {
+        lock.lock();
+        try {
+            running = false;
+            while (size > 0) {
+                ring[head].deliver(false);
+                ring[head].clear();
+                head = (head + 1) % ring.length;
+                size--;
+            }
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean offerEdit(int move, int deleteCount, String text, long seq) {
+        lock.lock();
+        try {
+            // Only an edit at the caret the tail leaves behind can fold into it
+            if (policy == Backpressure.COALESCE && size == ring.length && move == 0) {
+                Frame tail = ring[(head + size - 1) % ring.length];
+                if (tail.kind == KIND_EDIT && follows(tail, seq)
+                        && (tail.text == null ? 0 : tail.text.length()) + text.length() <= MAX_COALESCED_CHARS) {
+                    mergeEdit(tail, deleteCount, text);
+                    tail.seq = seq;
+                    framesCoalesced++;
+                    return true;
+                }
+            }
+            Frame slot = claimSlot();
+            if (slot == null) return false;
+            slot.kind = KIND_EDIT;
+            slot.move = move;
+            slot.count = deleteCount;
+            slot.text = text;
+            slot.seq = seq;
+            slot.firstSeq = seq;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean offerKey(String key, int repeat, long seq) {
+        lock.lock();
+        try {
+            if (policy == Backpressure.COALESCE && size == ring.length) {
+                Frame tail = ring[(head + size - 1) % ring.length];
+                if (tail.kind == KIND_KEY && key.equals(tail.key) && follows(tail, seq)) {
+                    tail.count += repeat;
+                    tail.seq = seq;
+                    framesCoalesced++;
+                    return true;
+                }
+            }
+            Frame slot = claimSlot();
+            if (slot == null) return false;
+            slot.kind = KIND_KEY;
+            slot.key = key;
+            slot.count = repeat;
+            slot.seq = seq;
+            slot.firstSeq = seq;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Queues a control message; never coalesced or evicted. */
+    public boolean offerControl(String json) {
+        return offerControl(json, false);
+    }
+
+    /**
+     * Queues a control message. An idempotent one (a pointer move, say) may
+     * be evicted to make room for newer frames when the ring is full.
+     */
+    public boolean offerControl(String json, boolean idempotent) {
+        return offerControl(json, idempotent, null);
+    }
+
+    /**
+     * Queues a control message whose fate the caller needs: {@code delivery}
+     * hears whether it was written once it leaves the ring. Not called when
+     * the offer itself returns false.
+     */
+    public boolean offerControl(String json, boolean idempotent, Delivery delivery) {
+        lock.lock();
+        try {
+            Frame slot = claimSlot();
+            if (slot == null) return false;
+            slot.kind = KIND_CONTROL;
+            slot.text = json;
+            slot.idempotent = idempotent;
+            slot.delivery = delivery;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Frames waiting for the writer thread. */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getHighWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesCoalesced() {
+        lock.lock();
+        try {
+            return framesCoalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesDropped() {
+        lock.lock();
+        try {
+            return framesDropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFramesQueued() {
+        lock.lock();
+        try {
+            return framesQueued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Folds (delete d2, insert t2) into a pending (move m1, delete d1, insert t1):
+    // the new deletes eat into t1 first, then into the desktop text.
+    // Deletes are counted in grapheme clusters.
+    private static void mergeEdit(Frame tail, int deleteCount, String text) {
+        String pending = tail.text == null ? "" : tail.text;
+        int pendingClusters = GraphemeClusters.count(pending, 0, pending.length());
+        if (deleteCount <= pendingClusters) {
+            int keep = GraphemeClusters.offset(pending, pending.length(), -deleteCount);
+            tail.text = pending.substring(0, keep) + text;
+        } else {
+            tail.count += deleteCount - pendingClusters;
+            tail.text = text;
+        }
+    }
+
+    // A sequenced op may only fold into the frame holding the op right before it,
+    // so every frame still covers one contiguous range of the outbox
+    private static boolean follows(Frame tail, long seq) {
+        return seq == 0 ? tail.seq == 0 : tail.seq != 0 && seq == tail.seq + 1;
+    }
+
+    // Must hold lock. Returns a free slot at the tail, or null if the frame was dropped.
+    private Frame claimSlot() {
+        if (!running) {
+            framesDropped++;
+            return null;
+        }
+        if (size == ring.length && policy != Backpressure.BLOCK) {
+            evictOldestIdempotent();
+            if (size == ring.length) {
+                framesDropped++;
+                return null;
+            }
+        }
+        long waitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_BLOCK_MS);
+        while (size == ring.length && running) {
+            if (waitNanos <= 0) {
+                framesDropped++;
+                return null;
+            }
+            try {
+                waitNanos = notFull.awaitNanos(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                framesDropped++;
+                return null;
+            }
+        }
+        if (!running) {
+            framesDropped++;
+            return null;
+        }
+        Frame slot = ring[(head + size) % ring.length];
+        slot.clear();
+        size++;
+        framesQueued++;
+        if (size > highWater) highWater = size;
+        notEmpty.signal();
+        return slot;
+    }
+
+    // Must hold lock. Removes the oldest idempotent frame, shifting later ones down.
+    private void evictOldestIdempotent() {
+        for (int i = 0; i < size; i++) {
+            int idx = (head + i) % ring.length;
+            if (!ring[idx].idempotent) continue;
+            Frame evicted = ring[idx];
+            for (int j = i; j < size - 1; j++) {
+                ring[(head + j) % ring.length] = ring[(head + j + 1) % ring.length];
+            }
+            evicted.deliver(false);
+            evicted.clear();
+            ring[(head + size - 1) % ring.length] = evicted;
+            size--;
+            framesDropped++;
+            return;
+        }
+    }
+
+    private void drain(Sink sink) {
+        Frame current = new Frame();
+        while (true) {
+            lock.lock();
+            try {
+                while (size == 0 && running) {
+                    notEmpty.await();
+                }
+                if (!running) return;
+                Frame slot = ring[head];
+                current.copyFrom(slot);
+                slot.clear();
+                head = (head + 1) % ring.length;
+                size--;
+                notFull.signal();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            sink.write(current);
+            current.deliver(true); // unless the sink already reported a failure
+            current.clear();
+        }
+    }
+}
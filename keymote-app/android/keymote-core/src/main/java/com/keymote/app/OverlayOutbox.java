@@ -0,0 +1,316 @@
+package com.keymote.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.zip.CRC32;
+
+/**
+ * Durable outbox for overlay frames: an append-only, memory-mapped journal of
+ * sequence-numbered edit and key ops that survives disconnects and restarts
+ * of the :overlay process.
+ *
+ * Every op typed into the overlay is appended here first. The desktop acks
+ * the highest sequence it has applied; acked ops are trimmed, everything else
+ * is replayed in order after a reconnect. Sequences are contiguous, so the
+ * desktop can drop replayed duplicates and spot gaps.
+ *
+ * File layout (big-endian):
+ *   header  int magic, int format, long sessionId, long ackedSeq, long nextSeq (informational),
+ *           int region, int reserved
+ *   then two equal regions; records live in the one the header names
+ *   record  int bodyLen, int crc32(body), body
+ *   body    long seq, byte kind, int move, int count, int textLen, utf8 text
+ * A zero bodyLen ends the journal. The length is written last, so a record
+ * torn by a process kill fails its length or CRC check and is ignored.
+ * Compaction copies the unacked records into the other region and only then
+ * flips the header's region field, so a kill part way through the copy
+ * leaves the old region, and every op in it, as it was.
+ *
+ * Writes go to the page cache through the mapping, so an append costs no
+ * syscall and survives the process being killed. Methods are synchronized:
+ * the UI thread appends, the socket threads ack.
+ */
+public class OverlayOutbox implements Closeable {
+
+    /** Receives journaled ops during {@link #replay}. */
+    public interface Visitor {
+        void visit(long seq, int kind, int move, int count, String text);
+    }
+
+    private static final int MAGIC = 0x4B4D4F42; // "KMOB"
+    private static final int FORMAT = 2;
+    private static final int OFF_SESSION = 8;
+    private static final int OFF_ACKED = 16;
+    private static final int OFF_NEXT = 24;
+    static final int OFF_REGION = 32;
+    static final int HEADER_SIZE = 40;
+    private static final int RECORD_OVERHEAD = 8 + 8 + 1 + 4 + 4 + 4;
+
+    private final MappedByteBuffer map;
+    private final int regionSize;
+    private final CRC32 crc = new CRC32();
+    private final byte[] crcScratch = new byte[4096];
+
+    private long sessionId;
+    private long ackedSeq;
+    private long nextSeq;
+    private int region;      // 0 or 1
+    private int regionStart; // first byte of the current region
+    private int regionEnd;
+    private int readPos;  // first record not yet acked
+    private int writePos; // where the next record goes
+
+    private OverlayOutbox(MappedByteBuffer map) {
+        this.map = map;
+        this.regionSize = (map.capacity() - HEADER_SIZE) / 2;
+    }
+
+    /**
+     * Maps (creating if needed) a journal of {@code capacity} bytes, half of
+     * which holds records at a time, and recovers its unacked records. A file
+     * with a foreign header is reset.
+     */
+    public static OverlayOutbox open(File file, int capacity) throws IOException {
+        MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != capacity) {
+                raf.setLength(capacity);
+            }
+            // The mapping stays valid after the channel is closed
+            map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+        OverlayOutbox outbox = new OverlayOutbox(map);
+        if (map.getInt(0) == MAGIC && map.getInt(4) == FORMAT) {
+            outbox.recover();
+        } else {
+            outbox.reset();
+        }
+        return outbox;
+    }
+
+    /** Random id for this journal; lets the desktop keep per-phone replay state. */
+    public synchronized long sessionId() {
+        return sessionId;
+    }
+
+    public synchronized long ackedSeq() {
+        return ackedSeq;
+    }
+
+    public synchronized long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    /** Ops journaled but not yet acked. */
+    public synchronized long pendingCount() {
+        return nextSeq - 1 - ackedSeq;
+    }
+
+    /**
+     * Appends one op and returns its sequence number, or -1 if it does not fit
+     * even after compacting (the caller then sends it unsequenced).
+     */
+    public synchronized long append(int kind, int move, int count, String text) {
+        if (text == null) text = "";
+        int textBytes = OverlayWireCodec.utf8Length(text);
+        int recordSize = RECORD_OVERHEAD + textBytes;
+        if (writePos + recordSize + 4 > regionEnd) {
+            compact();
+            if (writePos + recordSize + 4 > regionEnd) {
+                return -1;
+            }
+        }
+        long seq = nextSeq;
+        int bodyStart = writePos + 8;
+        ByteBuffer w = map.duplicate();
+        w.position(bodyStart);
+        w.putLong(seq);
+        w.put((byte) kind);
+        w.putInt(move);
+        w.putInt(count);
+        w.putInt(textBytes);
+        OverlayWireCodec.putUtf8(w, text);
+        int bodyLen = w.position() - bodyStart;
+        w.putInt(0); // terminator, overwritten by the next append
+
+        map.putInt(writePos + 4, checksum(bodyStart, bodyLen));
+        map.putInt(writePos, bodyLen); // commit
+        writePos += 8 + bodyLen;
+        nextSeq = seq + 1;
+        map.putLong(OFF_NEXT, nextSeq);
+        return seq;
+    }
+
+    /** Marks every op up to and including {@code seq} as applied by the desktop. */
+    public synchronized void ack(long seq) {
+        if (seq >= nextSeq) seq = nextSeq - 1;
+        if (seq <= ackedSeq) return;
+        ackedSeq = seq;
+        map.putLong(OFF_ACKED, ackedSeq);
+        while (readPos < writePos) {
+            int len = map.getInt(readPos);
+            if (map.getLong(readPos + 8) > ackedSeq) break;
+            readPos += 8 + len;
+        }
+        if (readPos >= writePos) {
+            // Everything acked: rewind instead of growing
+            readPos = writePos = regionStart;
+            map.putInt(regionStart, 0);
+        }
+    }
+
+    /**
+     * Visits up to {@code max} unacked ops with seq >= {@code fromSeq}, in
+     * order. Returns the seq to continue from; past {@link #lastSeq()} once
+     * everything has been visited.
+     */
+    public synchronized long replay(long fromSeq, int max, Visitor visitor) {
+        ByteBuffer r = map.duplicate();
+        int pos = readPos;
+        long next = Math.max(fromSeq, ackedSeq + 1);
+        while (pos < writePos && max > 0) {
+            int len = map.getInt(pos);
+            r.position(pos + 8);
+            long seq = r.getLong();
+            if (seq >= next) {
+                int kind = r.get();
+                int move = r.getInt();
+                int count = r.getInt();
+                String text = OverlayWireCodec.getUtf8(r, r.getInt());
+                visitor.visit(seq, kind, move, count, text);
+                next = seq + 1;
+                max--;
+            }
+            pos += 8 + len;
+        }
+        return pos >= writePos ? nextSeq : next;
+    }
+
+    /**
+     * Turns the unacked ops from {@code fromSeq} to {@code toSeq} into empty
+     * edits. They keep their seqs, so the desktop sees no gap, but a replay
+     * no longer types them. Returns how many were voided.
+     */
+    public synchronized int voidOps(long fromSeq, long toSeq) {
+        int voided = 0;
+        int pos = readPos;
+        while (pos < writePos) {
+            int len = map.getInt(pos);
+            int body = pos + 8;
+            long seq = map.getLong(body);
+            if (seq > toSeq) break;
+            if (seq >= fromSeq && seq > ackedSeq) {
+                // Same length, so the records after it stay where they are
+                map.put(body + 8, (byte) OverlayFrameWriter.KIND_EDIT);
+                map.putInt(body + 9, 0);  // move
+                map.putInt(body + 13, 0); // count
+                map.putInt(body + 17, 0); // text length
+                for (int i = body + 21; i < body + len; i++) {
+                    map.put(i, (byte) 0);
+                }
+                map.putInt(pos + 4, checksum(body, len));
+                voided++;
+            }
+            pos += 8 + len;
+        }
+        return voided;
+    }
+
+    /** Flushes the mapping to disk; the OS does this lazily otherwise. */
+    @Override
+    public synchronized void close() {
+        map.force();
+    }
+
+    private void reset() {
+        sessionId = new SecureRandom().nextLong() & Long.MAX_VALUE;
+        ackedSeq = 0;
+        nextSeq = 1;
+        map.putInt(0, MAGIC);
+        map.putInt(4, FORMAT);
+        map.putLong(OFF_SESSION, sessionId);
+        map.putLong(OFF_ACKED, ackedSeq);
+        map.putLong(OFF_NEXT, nextSeq);
+        useRegion(0);
+        map.putInt(OFF_REGION, region);
+        map.putInt(regionStart, 0);
+        readPos = writePos = regionStart;
+    }
+
+    private void useRegion(int region) {
+        this.region = region;
+        regionStart = HEADER_SIZE + region * regionSize;
+        regionEnd = regionStart + regionSize;
+    }
+
+    // Rebuilds positions from the journal, stopping at the first torn or stale record
+    private void recover() {
+        int saved = map.getInt(OFF_REGION);
+        if (saved != 0 && saved != 1) {
+            reset();
+            return;
+        }
+        useRegion(saved);
+        sessionId = map.getLong(OFF_SESSION);
+        ackedSeq = map.getLong(OFF_ACKED);
+        readPos = -1;
+        int pos = regionStart;
+        long prevSeq = 0;
+        while (pos + 8 <= regionEnd) {
+            int len = map.getInt(pos);
+            if (len < RECORD_OVERHEAD - 8 || pos + 8 + len + 4 > regionEnd) break;
+            if (map.getInt(pos + 4) != checksum(pos + 8, len)) break;
+            long seq = map.getLong(pos + 8);
+            if (prevSeq > 0 && seq != prevSeq + 1) break;
+            if (readPos < 0 && seq > ackedSeq) readPos = pos;
+            prevSeq = seq;
+            pos += 8 + len;
+        }
+        writePos = pos;
+        map.putInt(writePos, 0);
+        if (readPos < 0) readPos = writePos;
+        // The records are the truth: a torn append never got its seq
+        nextSeq = Math.max(prevSeq, ackedSeq) + 1;
+        map.putLong(OFF_NEXT, nextSeq);
+    }
+
+    // Moves the unacked records to the front of the other region. The old
+    // region is only read, so until the header flip lands recovery still
+    // finds every record there.
+    private void compact() {
+        if (readPos == regionStart) return;
+        int live = writePos - readPos;
+        ByteBuffer src = map.duplicate();
+        src.limit(writePos);
+        src.position(readPos);
+        int target = 1 - region;
+        ByteBuffer dst = map.duplicate();
+        dst.position(HEADER_SIZE + target * regionSize);
+        dst.put(src);
+        dst.putInt(0); // terminator
+        map.putInt(OFF_REGION, target); // commit
+        useRegion(target);
+        readPos = regionStart;
+        writePos = regionStart + live;
+    }
+
+    // Bulk reads through a scratch array: CRC32.update(ByteBuffer) needs API 26
+    private int checksum(int from, int len) {
+        crc.reset();
+        ByteBuffer r = map.duplicate();
+        r.position(from);
+        while (len > 0) {
+            int n = Math.min(len, crcScratch.length);
+            r.get(crcScratch, 0, n);
+            crc.update(crcScratch, 0, n);
+            len -= n;
+        }
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,117 @@
+package com.keymote.app;
+
+/**
+ * Streams a large insert to the desktop in chunks, a window at a time.
+ *
+ * The first chunk carries the edit's caret move and delete; the rest are
+ * plain inserts. A chunk is released only while fewer than WINDOW released
+ * chunks are unacknowledged. Desktops ack once a frame has been typed, so
+ * the window follows the injector's real pace: one chunk typing, one
+ * queued behind it. Later keystrokes are not stuck behind a huge frame,
+ * progress is known per chunk, and cancelling only loses what is in flight.
+ *
+ * Chunks never split a surrogate pair. Seq 0 (an op that could not be
+ * journaled) counts as acknowledged. Main thread only.
+ */
+public class OverlayPasteStream {
+
+    public static final int CHUNK_CHARS = 1024;
+    public static final int WINDOW = 2;
+
+    private final int move;
+    private final int delete;
+    private final String text;
+    private final int chunkChars;
+
+    private int offset; // chars released so far
+    private int released; // chunks released so far
+    // Seq and start offset of the last WINDOW released chunks, indexed by chunk % WINDOW
+    private final long[] seqs = new long[WINDOW];
+    private final int[] starts = new int[WINDOW];
+
+    public OverlayPasteStream(int move, int delete, String text) {
+        this(move, delete, text, CHUNK_CHARS);
+    }
+
+    OverlayPasteStream(int move, int delete, String text, int chunkChars) {
+        this.move = move;
+        this.delete = delete;
+        this.text = text;
+        this.chunkChars = chunkChars;
+    }
+
+    /** Whether an insert is long enough to stream. */
+    public static boolean shouldStream(String text) {
+        return text.length() > CHUNK_CHARS;
+    }
+
+    public boolean hasNext() {
+        return offset < text.length();
+    }
+
+    /** True if a chunk is left and the window has room for it. */
+    public boolean canRelease(long ackedSeq) {
+        return hasNext() && seqs[released % WINDOW] <= ackedSeq;
+    }
+
+    /** Caret move for the next chunk; only the first one moves. */
+    public int nextMove() {
+        return offset == 0 ? move : 0;
+    }
+
+    /** Chars to delete before the next chunk; only the first one deletes. */
+    public int nextDelete() {
+        return offset == 0 ? delete : 0;
+    }
+
+    /** Takes the next chunk; report its seq with {@link #onReleased}. */
+    public String nextChunk() {
+        int end = Math.min(offset + chunkChars, text.length());
+        if (end < text.length() && end - 1 > offset && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        starts[released % WINDOW] = offset;
+        String chunk = text.substring(offset, end);
+        offset = end;
+        return chunk;
+    }
+
+    public void onReleased(long seq) {
+        seqs[released % WINDOW] = seq;
+        released++;
+    }
+
+    /** Seq of the oldest released chunk not yet acknowledged, or 0 if none. */
+    public long firstUnackedSeq(long ackedSeq) {
+        for (int i = Math.max(0, released - WINDOW); i < released; i++) {
+            if (seqs[i % WINDOW] > ackedSeq) {
+                return seqs[i % WINDOW];
+            }
+        }
+        return 0;
+    }
+
+    /** Chars the desktop has acknowledged. */
+    public int ackedChars(long ackedSeq) {
+        // The oldest unacknowledged chunk in the window starts where the typed text ends
+        for (int i = Math.max(0, released - WINDOW); i < released; i++) {
+            if (seqs[i % WINDOW] > ackedSeq) {
+                return starts[i % WINDOW];
+            }
+        }
+        return offset;
+    }
+
+    /** Everything released and acknowledged. */
+    public boolean isFinished(long ackedSeq) {
+        return !hasNext() && ackedChars(ackedSeq) == text.length();
+    }
+
+    public int getTotalChars() {
+        return text.length();
+    }
+
+    public int getReleasedChunks() {
+        return released;
+    }
+}
@@ -0,0 +1,108 @@
+package com.keymote.app;
+
+/**
+ * Diff engine for the overlay's real-time sync.
+ *
+ * Finds the common prefix and suffix of the old and new text and turns the
+ * changed middle into a single edit relative to the desktop caret:
+ * move the caret (arrow keys), backspace over the removed run, type the
+ * inserted run. Counts are in grapheme clusters (see {@link GraphemeClusters}),
+ * which is what one arrow or Backspace steps over on the desktop, and the
+ * changed run is widened to whole clusters on both sides, so an accent or
+ * emoji modifier is never typed onto, or deleted from, half a cluster.
+ * Pure Java — no Android dependencies.
+ */
+public final class OverlayTextDiff {
+
+    /** One caret-relative edit. Reused across calls by the caller. */
+    public static final class Edit {
+        /** Caret movement in grapheme clusters before deleting; negative = left. */
+        public int move;
+        /** Grapheme clusters to backspace over after moving. */
+        public int delete;
+        /** Text to type after deleting. */
+        public String insert = "";
+        /** Desktop caret after the edit, as a UTF-16 index into the new text. */
+        public int caretAfter;
+
+        public boolean isEmpty() {
+            return move == 0 && delete == 0 && insert.isEmpty();
+        }
+    }
+
+    private OverlayTextDiff() {
+    }
+
+    /**
+     * Computes the edit turning {@code oldText} into {@code newText}.
+     *
+     * @param caret      desktop caret as a UTF-16 index into {@code oldText}
+     * @param allowMove  false for desktops that cannot move the caret; the edit
+     *                   then always happens at the end of the text
+     */
+    public static Edit diff(CharSequence oldText, CharSequence newText, int caret, boolean allowMove, Edit out) {
+        int oldLen = oldText.length();
+        int newLen = newText.length();
+
+        int prefix = commonPrefix(oldText, newText);
+        if (prefix == oldLen && prefix == newLen) {
+            // Unchanged (span/selection-only callbacks): leave the caret alone
+            out.move = 0;
+            out.delete = 0;
+            out.insert = "";
+            out.caretAfter = allowMove ? caret : oldLen;
+            return out;
+        }
+        int suffix = allowMove ? commonSuffix(oldText, newText, prefix) : 0;
+        if (!allowMove) {
+            caret = oldLen;
+        }
+        // Whole clusters only: "e" + U+0301 replaces the "e", it isn't typed onto it
+        while (prefix > 0 && !(GraphemeClusters.isBoundary(oldText, prefix)
+                && GraphemeClusters.isBoundary(newText, prefix))) {
+            prefix--;
+        }
+        while (suffix > 0 && !(GraphemeClusters.isBoundary(oldText, oldLen - suffix)
+                && GraphemeClusters.isBoundary(newText, newLen - suffix))) {
+            suffix--;
+        }
+
+        int editEnd = oldLen - suffix;
+        out.move = GraphemeClusters.distance(oldText, caret, editEnd);
+        out.delete = GraphemeClusters.count(oldText, prefix, editEnd);
+        out.insert = newText.subSequence(prefix, newLen - suffix).toString();
+        out.caretAfter = prefix + out.insert.length();
+        return out;
+    }
+
+    /** Common prefix length in UTF-16 units, never ending inside a surrogate pair. */
+    static int commonPrefix(CharSequence a, CharSequence b) {
+        int len = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < len && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Common suffix length in UTF-16 units, not overlapping {@code prefix} and
+     * never starting inside a surrogate pair.
+     */
+    static int commonSuffix(CharSequence a, CharSequence b, int prefix) {
+        int aLen = a.length();
+        int bLen = b.length();
+        int max = Math.min(aLen, bLen) - prefix;
+        int i = 0;
+        while (i < max && a.charAt(aLen - 1 - i) == b.charAt(bLen - 1 - i)) {
+            i++;
+        }
+        if (i > 0 && Character.isLowSurrogate(a.charAt(aLen - i))) {
+            i--;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,198 @@
+package com.keymote.app;
+
+/**
+ * Mirror of the text the desktop has received from the overlay, kept as a
+ * gap buffer whose gap sits at the desktop caret.
+ *
+ * Each TextWatcher change (start / before / count) is applied in place and
+ * turned into a caret-relative {@link OverlayTextDiff.Edit}. The work done is
+ * proportional to the changed run plus the caret distance, never to the
+ * length of the whole text, and no full-text String is built per keystroke.
+ */
+public final class OverlayTextMirror implements CharSequence {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Single ASCII chars are the common keystroke; hand out shared Strings for them
+    private static final String[] ASCII = new String[128];
+
+    static {
+        for (int c = 0; c < ASCII.length; c++) {
+            ASCII[c] = String.valueOf((char) c);
+        }
+    }
+
+    private char[] buf = new char[INITIAL_CAPACITY];
+    private int gapStart = 0;
+    private int gapEnd = INITIAL_CAPACITY;
+
+    @Override
+    public int length() {
+        return buf.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+        return index < gapStart ? buf[index] : buf[index + (gapEnd - gapStart)];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(charAt(i));
+        }
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
+    }
+
+    /** Desktop caret as a UTF-16 index. */
+    public int caret() {
+        return gapStart;
+    }
+
+    public void clear() {
+        gapStart = 0;
+        gapEnd = buf.length;
+    }
+
+    /** Replaces the whole mirror, e.g. after a full resync. */
+    public void set(CharSequence text, int caret) {
+        clear();
+        insert(text, 0, text.length());
+        moveGap(caret);
+    }
+
+    /**
+     * Applies a TextWatcher change: {@code before} chars at {@code start} were
+     * replaced by {@code count} chars of {@code text} (the new full text).
+     *
+     * @param allowMove false for desktops that cannot move the caret; the edit
+     *                  then retypes everything after the change
+     */
+    public OverlayTextDiff.Edit replace(int start, int before, CharSequence text, int count, boolean allowMove,
+            OverlayTextDiff.Edit out) {
+        int len = length();
+
+        // Widen the window so it never cuts a surrogate pair in half
+        if (start > 0 && start < len && Character.isLowSurrogate(charAt(start))
+                && Character.isHighSurrogate(charAt(start - 1))) {
+            start--;
+            before++;
+            count++;
+        }
+        int end = start + before;
+        if (end > 0 && end < len && Character.isLowSurrogate(charAt(end))
+                && Character.isHighSurrogate(charAt(end - 1))) {
+            before++;
+            count++;
+        }
+
+        // Trim what the IME re-committed unchanged (e.g. "helo" -> "hello")
+        int p = 0;
+        while (p < before && p < count && charAt(start + p) == text.charAt(start + p)) {
+            p++;
+        }
+        if (p > 0 && Character.isHighSurrogate(text.charAt(start + p - 1))) {
+            p--;
+        }
+        int q = 0;
+        while (q < before - p && q < count - p
+                && charAt(start + before - 1 - q) == text.charAt(start + count - 1 - q)) {
+            q++;
+        }
+        if (q > 0 && Character.isLowSurrogate(charAt(start + before - q))) {
+            q--;
+        }
+
+        int delStart = start + p;
+        int delEnd = start + before - q;
+        int insStart = start + p;
+        int insEnd = start + count - q;
+
+        if (delStart == delEnd && insStart == insEnd) {
+            out.move = 0;
+            out.delete = 0;
+            out.insert = "";
+            out.caretAfter = gapStart;
+            return out;
+        }
+
+        // Whole grapheme clusters on both sides (the text outside the run is
+        // the same before and after, so both move together)
+        while (delStart > 0 && !(GraphemeClusters.isBoundary(this, delStart)
+                && GraphemeClusters.isBoundary(text, insStart))) {
+            delStart--;
+            insStart--;
+        }
+        while (delEnd < len && !(GraphemeClusters.isBoundary(this, delEnd)
+                && GraphemeClusters.isBoundary(text, insEnd))) {
+            delEnd++;
+            insEnd++;
+        }
+
+        if (!allowMove && delEnd != len) {
+            // Edit must happen at the end: delete the tail, retype it
+            delEnd = len;
+            insEnd = text.length();
+        }
+
+        out.move = moveGap(delEnd);
+        out.delete = GraphemeClusters.count(this, delStart, delEnd);
+        gapStart = delStart;
+        out.insert = substring(text, insStart, insEnd);
+        insert(out.insert, 0, out.insert.length());
+        out.caretAfter = gapStart;
+        return out;
+    }
+
+    // Avoids Editable.subSequence, which copies spans into a new SpannableStringBuilder
+    private static String substring(CharSequence text, int start, int end) {
+        if (end - start == 1 && text.charAt(start) < ASCII.length) {
+            return ASCII[text.charAt(start)];
+        }
+        if (text instanceof String) {
+            return ((String) text).substring(start, end);
+        }
+        return new StringBuilder(end - start).append(text, start, end).toString();
+    }
+
+    // Moves the gap (desktop caret) to index; returns the signed distance in clusters
+    private int moveGap(int index) {
+        if (index == gapStart) return 0;
+        int moved = GraphemeClusters.distance(this, gapStart, index);
+        int gapLen = gapEnd - gapStart;
+        if (index < gapStart) {
+            System.arraycopy(buf, index, buf, index + gapLen, gapStart - index);
+        } else {
+            System.arraycopy(buf, gapEnd, buf, gapStart, index - gapStart);
+        }
+        gapStart = index;
+        gapEnd = index + gapLen;
+        return moved;
+    }
+
+    private void insert(CharSequence text, int from, int to) {
+        int n = to - from;
+        if (n > gapEnd - gapStart) {
+            grow(n);
+        }
+        for (int i = from; i < to; i++) {
+            buf[gapStart++] = text.charAt(i);
+        }
+    }
+
+    private void grow(int needed) {
+        int tail = buf.length - gapEnd;
+        int newCapacity = Math.max(buf.length * 2, length() + needed + INITIAL_CAPACITY);
+        char[] next = new char[newCapacity];
+        System.arraycopy(buf, 0, next, 0, gapStart);
+        System.arraycopy(buf, gapEnd, next, newCapacity - tail, tail);
+        gapEnd = newCapacity - tail;
+        buf = next;
+    }
+}
@@ -0,0 +1,439 @@
+package com.keymote.app;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact binary framing for overlay → desktop frames (sent as WebSocket
+ * binary messages). Mirrors overlay-protocol.js on the desktop.
+ *
+ * Layout: [version][opcode][fields...] where lengths and counts are unsigned
+ * LEB128 varints and strings are UTF-8. Version 2 frames carry the outbox
+ * range right after the opcode: varint seq, varint span (seq - firstSeq).
+ *
+ *   OP_TEXT  varint byteLen, utf8
+ *   OP_EDIT  varint delete, varint byteLen, utf8
+ *   OP_REPLACE  zigzag varint move, varint delete, varint byteLen, utf8
+ *   OP_KEY   byte keyCode (index+1 into KEY_NAMES, or 0 + varint len + utf8 name), varint repeat
+ *
+ * Compression: with {@link #setCompression} on, a text field of at least
+ * COMPRESS_THRESHOLD UTF-8 bytes is sent as raw DEFLATE and the opcode gets
+ * FLAG_DEFLATE; the field becomes varint rawLen, varint compLen, bytes. The
+ * preset dictionary is the last 4 KB of text carried by binary frames on
+ * this connection (compressed or not), which both ends track, so a paste
+ * that repeats recent text, or the next chunk of a long paste, shrinks
+ * further. Keystrokes stay below the threshold and pay nothing.
+ *
+ * Desktops that never announce binary support in their hello keep receiving
+ * the JSON frames. One codec instance belongs to one writer thread; the
+ * buffer pool is not synchronized. Decoding keeps its own history, so one
+ * instance must not decode frames it encoded.
+ */
+public class OverlayWireCodec {
+
+    public static final int VERSION = 1;
+    public static final int VERSION_SEQ = 2; // frames carry outbox sequence numbers
+
+    public static final int OP_TEXT = 0x01;
+    public static final int OP_EDIT = 0x02;
+    public static final int OP_KEY = 0x03;
+    public static final int OP_REPLACE = 0x04; // caret move + delete + insert
+    public static final int FLAG_DEFLATE = 0x80; // opcode bit: text field is compressed
+
+    static final int COMPRESS_THRESHOLD = 512; // UTF-8 bytes
+    static final int HISTORY_SIZE = 4 * 1024; // preset dictionary; larger ones cost more to load than they save
+
+    // Interned key codes — order must match KEY_NAMES in overlay-protocol.js
+    static final String[] KEY_NAMES = {
+            "Backspace", "Enter", "Tab", "Escape", "Delete", "Space",
+            "ArrowLeft", "ArrowRight", "ArrowUp", "ArrowDown",
+            "Home", "End", "PageUp", "PageDown"
+    };
+
+    private static final int POOLED_BUFFER_SIZE = 1024;
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>(MAX_POOLED_BUFFERS);
+
+    private boolean compression;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] raw = new byte[0];        // UTF-8 of the text being compressed
+    private byte[] compressed = new byte[0];
+    private final History encodeHistory = new History();
+    private final History decodeHistory = new History();
+
+    // Compression counters
+    private long framesCompressed;
+    private long bytesBeforeCompression;
+    private long bytesAfterCompression;
+
+    /** Turned on once the desktop's hello announces deflate support. */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Encodes a frame into a pooled buffer, flipped and ready to send. Hand it
+     * back with {@link #release} once the socket has taken its bytes.
+     * Returns null for frame kinds that have no binary form.
+     */
+    public ByteBuffer encode(OverlayFrameWriter.Frame frame) {
+        switch (frame.kind) {
+            case OverlayFrameWriter.KIND_EDIT: {
+                String text = frame.text == null ? "" : frame.text;
+                int textBytes = utf8Length(text);
+                int compLen = compression && textBytes >= COMPRESS_THRESHOLD ? deflate(text, textBytes) : -1;
+                int flag = compLen >= 0 ? FLAG_DEFLATE : 0;
+                ByteBuffer buf = acquire(2 + 15 + 5 + 5 + 5 + 5 + (compLen >= 0 ? compLen : textBytes));
+                if (frame.move != 0) {
+                    putHeader(buf, OP_REPLACE | flag, frame);
+                    putVarint(buf, (frame.move << 1) ^ (frame.move >> 31));
+                    putVarint(buf, frame.count);
+                } else if (frame.count == 0) {
+                    putHeader(buf, OP_TEXT | flag, frame);
+                } else {
+                    putHeader(buf, OP_EDIT | flag, frame);
+                    putVarint(buf, frame.count);
+                }
+                putVarint(buf, textBytes);
+                if (compLen >= 0) {
+                    putVarint(buf, compLen);
+                    buf.put(compressed, 0, compLen);
+                    encodeHistory.append(raw, 0, textBytes);
+                } else {
+                    int start = buf.position();
+                    putUtf8(buf, text);
+                    encodeHistory.append(buf.array(), buf.arrayOffset() + start, textBytes);
+                }
+                buf.flip();
+                return buf;
+            }
+            case OverlayFrameWriter.KIND_KEY: {
+                int code = keyCode(frame.key);
+                int nameBytes = code == 0 ? utf8Length(frame.key) : 0;
+                ByteBuffer buf = acquire(2 + 15 + 1 + 5 + nameBytes + 5);
+                putHeader(buf, OP_KEY, frame);
+                buf.put((byte) code);
+                if (code == 0) {
+                    putVarint(buf, nameBytes);
+                    putUtf8(buf, frame.key);
+                }
+                putVarint(buf, Math.max(1, frame.count));
+                buf.flip();
+                return buf;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes one binary frame into {@code out}. Returns false for frames from
+     * an unknown protocol version or with an unknown opcode.
+     */
+    public boolean decode(ByteBuffer buf, OverlayFrameWriter.Frame out) {
+        out.clear();
+        if (buf.remaining() < 2)
+            return false;
+        int version = buf.get() & 0xFF;
+        if (version != VERSION && version != VERSION_SEQ)
+            return false;
+        int op = buf.get() & 0xFF;
+        boolean deflated = (op & FLAG_DEFLATE) != 0;
+        op &= ~FLAG_DEFLATE;
+        if (version == VERSION_SEQ) {
+            out.seq = getVarLong(buf);
+            out.firstSeq = out.seq - getVarint(buf);
+        }
+        switch (op) {
+            case OP_TEXT:
+                out.kind = OverlayFrameWriter.KIND_EDIT;
+                out.text = getText(buf, deflated);
+                return out.text != null;
+            case OP_EDIT:
+                out.kind = OverlayFrameWriter.KIND_EDIT;
+                out.count = getVarint(buf);
+                out.text = getText(buf, deflated);
+                return out.text != null;
+            case OP_REPLACE: {
+                out.kind = OverlayFrameWriter.KIND_EDIT;
+                int zigzag = getVarint(buf);
+                out.move = (zigzag >>> 1) ^ -(zigzag & 1);
+                out.count = getVarint(buf);
+                out.text = getText(buf, deflated);
+                return out.text != null;
+            }
+            case OP_KEY: {
+                out.kind = OverlayFrameWriter.KIND_KEY;
+                int code = buf.get() & 0xFF;
+                if (code == 0) {
+                    out.key = getUtf8(buf, getVarint(buf));
+                } else if (code <= KEY_NAMES.length) {
+                    out.key = KEY_NAMES[code - 1];
+                } else {
+                    return false;
+                }
+                out.count = getVarint(buf);
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    public long getFramesCompressed() {
+        return framesCompressed;
+    }
+
+    public long getBytesBeforeCompression() {
+        return bytesBeforeCompression;
+    }
+
+    public long getBytesAfterCompression() {
+        return bytesAfterCompression;
+    }
+
+    // Compresses text into `compressed` against the shared history; returns the
+    // compressed length, or -1 when DEFLATE would not save anything
+    private int deflate(String text, int textBytes) {
+        if (raw.length < textBytes) {
+            raw = new byte[Math.max(textBytes, raw.length * 2)];
+        }
+        putUtf8(ByteBuffer.wrap(raw), text);
+        if (deflater == null) {
+            // Fastest level: a phone core, and the link is a LAN
+            deflater = new Deflater(Deflater.BEST_SPEED, true);
+        }
+        deflater.reset();
+        encodeHistory.setDictionary(deflater);
+        deflater.setInput(raw, 0, textBytes);
+        deflater.finish();
+        if (compressed.length < textBytes) {
+            compressed = new byte[Math.max(textBytes, compressed.length * 2)];
+        }
+        int compLen = 0;
+        while (!deflater.finished() && compLen < textBytes) {
+            compLen += deflater.deflate(compressed, compLen, compressed.length - compLen);
+        }
+        if (!deflater.finished() || compLen >= textBytes) {
+            return -1;
+        }
+        framesCompressed++;
+        bytesBeforeCompression += textBytes;
+        bytesAfterCompression += compLen;
+        return compLen;
+    }
+
+    // Reads a text field; null if a compressed field is corrupt
+    private String getText(ByteBuffer buf, boolean deflated) {
+        int len = getVarint(buf);
+        if (!deflated) {
+            int start = buf.position();
+            String text = getUtf8(buf, len);
+            if (buf.hasArray()) {
+                decodeHistory.append(buf.array(), buf.arrayOffset() + start, len);
+            } else {
+                decodeHistory.append(text.getBytes(StandardCharsets.UTF_8), 0, len);
+            }
+            return text;
+        }
+        int compLen = getVarint(buf);
+        byte[] in = new byte[compLen];
+        buf.get(in);
+        byte[] out = new byte[len];
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.reset();
+        // Raw streams never ask for their dictionary; it has to be set up front
+        decodeHistory.setDictionary(inflater);
+        inflater.setInput(in);
+        try {
+            int n = 0;
+            while (n < len && !inflater.finished()) {
+                int got = inflater.inflate(out, n, len - n);
+                if (got == 0 && (inflater.needsInput() || inflater.needsDictionary())) return null;
+                n += got;
+            }
+            if (n != len) return null;
+        } catch (DataFormatException e) {
+            return null;
+        }
+        decodeHistory.append(out, 0, len);
+        return new String(out, StandardCharsets.UTF_8);
+    }
+
+    /** Last HISTORY_SIZE bytes of text carried on the connection; the DEFLATE dictionary. */
+    static final class History {
+        private final byte[] bytes = new byte[HISTORY_SIZE * 2];
+        private int length;
+
+        void append(byte[] src, int off, int len) {
+            if (len >= HISTORY_SIZE) {
+                System.arraycopy(src, off + len - HISTORY_SIZE, bytes, 0, HISTORY_SIZE);
+                length = HISTORY_SIZE;
+                return;
+            }
+            if (length + len > bytes.length) {
+                // Slide the window down; amortized over HISTORY_SIZE bytes of appends
+                int keep = HISTORY_SIZE - len;
+                System.arraycopy(bytes, length - keep, bytes, 0, keep);
+                length = keep;
+            }
+            System.arraycopy(src, off, bytes, length, len);
+            length += len;
+        }
+
+        void setDictionary(Deflater deflater) {
+            int len = Math.min(length, HISTORY_SIZE);
+            if (len > 0) deflater.setDictionary(bytes, length - len, len);
+        }
+
+        void setDictionary(Inflater inflater) {
+            int len = Math.min(length, HISTORY_SIZE);
+            if (len > 0) inflater.setDictionary(bytes, length - len, len);
+        }
+    }
+
+    // Sequenced frames go out as version 2; unsequenced ones stay readable by version 1 desktops
+    private static void putHeader(ByteBuffer buf, int op, OverlayFrameWriter.Frame frame) {
+        if (frame.seq > 0) {
+            buf.put((byte) VERSION_SEQ);
+            buf.put((byte) op);
+            putVarLong(buf, frame.seq);
+            putVarint(buf, (int) (frame.seq - frame.firstSeq));
+        } else {
+            buf.put((byte) VERSION);
+            buf.put((byte) op);
+        }
+    }
+
+    public void release(ByteBuffer buf) {
+        if (buf != null && buf.capacity() == POOLED_BUFFER_SIZE && pool.size() < MAX_POOLED_BUFFERS) {
+            pool.push(buf);
+        }
+    }
+
+    private ByteBuffer acquire(int maxSize) {
+        if (maxSize > POOLED_BUFFER_SIZE) {
+            return ByteBuffer.allocate(maxSize);
+        }
+        ByteBuffer buf = pool.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocate(POOLED_BUFFER_SIZE);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    static int keyCode(String key) {
+        for (int i = 0; i < KEY_NAMES.length; i++) {
+            if (KEY_NAMES[i].equals(key))
+                return i + 1;
+        }
+        return 0;
+    }
+
+    static void putVarint(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buf) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = buf.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+    }
+
+    static int getVarint(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = buf.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+        }
+    }
+
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // Hand-rolled so encoding a keystroke allocates nothing; unpaired
+    // surrogates are sent as U+FFFD
+    static void putUtf8(ByteBuffer buf, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf.put((byte) c);
+            } else if (c < 0x800) {
+                buf.put((byte) (0xC0 | (c >> 6)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf.put((byte) (0xF0 | (cp >> 18)));
+                buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (Character.isSurrogate(c)) c = '\uFFFD';
+                buf.put((byte) (0xE0 | (c >> 12)));
+                buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buf.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static String getUtf8(ByteBuffer buf, int len) {
+        String s;
+        if (buf.hasArray()) {
+            s = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+        } else {
+            byte[] bytes = new byte[len];
+            buf.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+}
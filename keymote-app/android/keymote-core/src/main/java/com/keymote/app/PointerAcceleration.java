@@ -0,0 +1,47 @@
+package com.keymote.app;
+
+/**
+ * Pointer-acceleration curve for the overlay touchpad.
+ *
+ * Slow finger motion maps close to 1:1 so the cursor can be placed
+ * precisely; fast swipes are amplified so a phone-sized pad can cross a
+ * desktop screen. Gain ramps linearly from {@code minGain} at
+ * {@code lowSpeed} to {@code maxGain} at {@code highSpeed} and is flat
+ * outside that range. Speeds are in dp per millisecond.
+ */
+public class PointerAcceleration {
+
+    private final double minGain;
+    private final double maxGain;
+    private final double lowSpeed;
+    private final double highSpeed;
+
+    public PointerAcceleration(double minGain, double maxGain, double lowSpeed, double highSpeed) {
+        if (highSpeed <= lowSpeed) throw new IllegalArgumentException("highSpeed must exceed lowSpeed");
+        this.minGain = minGain;
+        this.maxGain = maxGain;
+        this.lowSpeed = lowSpeed;
+        this.highSpeed = highSpeed;
+    }
+
+    /** Tuned on a 6" phone against a 1080p desktop. */
+    public static PointerAcceleration defaults() {
+        return new PointerAcceleration(1.0, 4.0, 0.1, 2.0);
+    }
+
+    public double gain(double speed) {
+        if (speed <= lowSpeed) return minGain;
+        if (speed >= highSpeed) return maxGain;
+        return minGain + (maxGain - minGain) * (speed - lowSpeed) / (highSpeed - lowSpeed);
+    }
+
+    /**
+     * Scales one sample's motion ({@code dx}, {@code dy} in dp over
+     * {@code dtMs}) by the gain for its speed. A zero interval (samples
+     * with the same timestamp) uses the base gain.
+     */
+    public double scale(double dx, double dy, long dtMs) {
+        if (dtMs <= 0) return minGain;
+        return gain(Math.hypot(dx, dy) / dtMs);
+    }
+}
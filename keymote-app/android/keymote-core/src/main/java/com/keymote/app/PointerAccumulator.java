@@ -0,0 +1,107 @@
+package com.keymote.app;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces touchpad input into at most one relative move per display frame.
+ *
+ * Moves are summed as doubles and drained as whole pixels; the fraction left
+ * over carries into the next frame, so slow drags aren't rounded away. Any
+ * other action (button, click, scroll) closes the motion queued before it,
+ * so the desktop sees moves and clicks in the order they happened.
+ * Consecutive scrolls merge. Not thread-safe; the plugin feeds and drains it
+ * on the main thread.
+ */
+public class PointerAccumulator {
+
+    public static final String MOVE = "move";
+    public static final String SCROLL = "scroll";
+
+    /** One message for the desktop's mouse injector. */
+    public static final class Event {
+        public final String action;
+        public final int dx;
+        public final int dy;
+        public int delta;
+
+        Event(String action, int dx, int dy, int delta) {
+            this.action = action;
+            this.dx = dx;
+            this.dy = dy;
+            this.delta = delta;
+        }
+    }
+
+    private final List<Event> ready = new ArrayList<>();
+    private double pendingX;
+    private double pendingY;
+    private long eventsIn;
+    private long eventsOut;
+
+    public void move(double dx, double dy) {
+        eventsIn++;
+        pendingX += dx;
+        pendingY += dy;
+    }
+
+    public void action(String action, int delta) {
+        eventsIn++;
+        closeMove();
+        Event last = ready.isEmpty() ? null : ready.get(ready.size() - 1);
+        if (SCROLL.equals(action) && last != null && SCROLL.equals(last.action)) {
+            last.delta += delta;
+            return;
+        }
+        ready.add(new Event(action, 0, 0, delta));
+    }
+
+    /** True once a non-move action is queued; those shouldn't wait for vsync. */
+    public boolean hasActions() {
+        return !ready.isEmpty();
+    }
+
+    /** Whether the next drain would produce anything. */
+    public boolean hasPending() {
+        return !ready.isEmpty() || Math.abs(pendingX) >= 1 || Math.abs(pendingY) >= 1;
+    }
+
+    /** Everything queued, in order; sub-pixel motion stays behind. */
+    public List<Event> drain() {
+        closeMove();
+        List<Event> out = new ArrayList<>(ready);
+        ready.clear();
+        eventsOut += out.size();
+        return out;
+    }
+
+    /** Drops queued input, including the carried fraction. */
+    public void clear() {
+        ready.clear();
+        pendingX = 0;
+        pendingY = 0;
+    }
+
+    private void closeMove() {
+        int x = (int) pendingX;
+        int y = (int) pendingY;
+        if (x == 0 && y == 0) return;
+        pendingX -= x;
+        pendingY -= y;
+        ready.add(new Event(MOVE, x, y, 0));
+    }
+
+    /** Input events taken in: what a message-per-event path would have sent. */
+    public long getEventsIn() {
+        return eventsIn;
+    }
+
+    public long getEventsOut() {
+        return eventsOut;
+    }
+
+    public void resetCounts() {
+        eventsIn = 0;
+        eventsOut = 0;
+    }
+}
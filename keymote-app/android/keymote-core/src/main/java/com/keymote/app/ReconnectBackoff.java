@@ -0,0 +1,40 @@
+package com.keymote.app;
+
+import java.util.Random;
+
+/**
+ * Capped exponential backoff with jitter for overlay reconnects.
+ *
+ * The ceiling doubles per attempt from {@code baseMs} up to {@code capMs};
+ * each delay is drawn uniformly between {@code baseMs} and that ceiling, so
+ * phones that lost the desktop at the same moment don't redial in lockstep.
+ */
+public class ReconnectBackoff {
+
+    private final long baseMs;
+    private final long capMs;
+    private final Random random;
+    private int attempts;
+
+    public ReconnectBackoff(long baseMs, long capMs, Random random) {
+        this.baseMs = baseMs;
+        this.capMs = capMs;
+        this.random = random;
+    }
+
+    /** Delay before the next attempt; counts the attempt. */
+    public long nextDelayMs() {
+        long ceiling = baseMs << Math.min(attempts, 20);
+        if (ceiling > capMs || ceiling <= 0) ceiling = capMs;
+        attempts++;
+        return baseMs + (long) (random.nextDouble() * (ceiling - baseMs));
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void reset() {
+        attempts = 0;
+    }
+}
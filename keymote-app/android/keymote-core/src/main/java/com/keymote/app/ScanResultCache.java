@@ -0,0 +1,164 @@
+package com.keymote.app;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded QR payloads from gallery scans, so re-picking the same saved
+ * screenshot answers at once instead of decoding it again.
+ *
+ * Keyed by the image's identity (its content URI), each entry remembers the
+ * fingerprint it was decoded from: size and last-modified from the provider,
+ * or a content hash where the provider reports neither. A lookup with a
+ * different fingerprint means the file changed; the entry is dropped.
+ * Least recently used entries go first past the capacity.
+ *
+ * Stored as one tab-separated line per entry, least recently used first:
+ * identity, fingerprint, width, height, via, storedAt, data (tabs, newlines
+ * and backslashes escaped). Pure Java — the plugin owns persistence.
+ * Thread-safe.
+ */
+public class ScanResultCache {
+
+    static final int DEFAULT_CAPACITY = 32;
+
+    public static final class Entry {
+        public final String fingerprint;
+        public final String data;
+        public final int width;
+        public final int height;
+        /** Strategy that decoded it. */
+        public final String via;
+        public final long storedAt;
+
+        public Entry(String fingerprint, String data, int width, int height, String via, long storedAt) {
+            this.fingerprint = fingerprint;
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.via = via;
+            this.storedAt = storedAt;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long invalidations;
+
+    public ScanResultCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        // Access order: get() moves an entry to the young end
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ScanResultCache.this.capacity;
+            }
+        };
+    }
+
+    /** The entry for identity if it was stored under the same fingerprint, else null. */
+    public synchronized Entry get(String identity, String fingerprint) {
+        Entry entry = entries.get(identity);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (!entry.fingerprint.equals(fingerprint)) {
+            entries.remove(identity);
+            invalidations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry;
+    }
+
+    public synchronized void put(String identity, Entry entry) {
+        entries.put(identity, entry);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Lookups that found an entry for a file that has since changed. */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append(escape(e.getKey())).append('\t')
+                    .append(escape(entry.fingerprint)).append('\t')
+                    .append(entry.width).append('\t')
+                    .append(entry.height).append('\t')
+                    .append(escape(entry.via)).append('\t')
+                    .append(entry.storedAt).append('\t')
+                    .append(escape(entry.data)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Parses {@link #serialize()} output, skipping malformed lines. */
+    public static ScanResultCache parse(String data, int capacity) {
+        ScanResultCache cache = new ScanResultCache(capacity);
+        if (data == null) return cache;
+        for (String line : data.split("\n")) {
+            String[] f = line.split("\t", -1);
+            if (f.length != 7 || f[0].isEmpty()) continue;
+            try {
+                cache.entries.put(unescape(f[0]), new Entry(unescape(f[1]), unescape(f[6]),
+                        Integer.parseInt(f[2]), Integer.parseInt(f[3]), unescape(f[4]), Long.parseLong(f[5])));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return cache;
+    }
+
+    private static String escape(String s) {
+        if (s == null) return "";
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,197 @@
+package com.keymote.app;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs alternative strategies for the same answer concurrently and keeps the
+ * first one that finds it.
+ *
+ * A strategy returns null for "not found". The first non-null result wins:
+ * the listener hears it at once, on the winner's thread, and every other
+ * strategy is cancelled (interrupted if running, dropped if still queued).
+ * If all of them come back empty the listener hears that once the last one
+ * finishes. The outcome lists each strategy's status and time as of the
+ * decision, in the order they were added. A {@link #whenSettled} hook runs
+ * once no strategy is running or queued any more, which is when inputs
+ * shared between them can be reused.
+ */
+public class StrategyRace<T> {
+
+    public interface Strategy<T> {
+        /** The answer, or null if this strategy didn't find one. */
+        T attempt() throws Exception;
+    }
+
+    public interface Listener<T> {
+        void onDone(Outcome<T> outcome);
+    }
+
+    public enum Status { WON, MISSED, FAILED, CANCELLED }
+
+    /** One strategy's part in the race, as of the decision. */
+    public static final class Attempt {
+        public final String name;
+        public final Status status;
+        public final long elapsedMs;
+        public final String error;
+
+        Attempt(String name, Status status, long elapsedMs, String error) {
+            this.name = name;
+            this.status = status;
+            this.elapsedMs = elapsedMs;
+            this.error = error;
+        }
+    }
+
+    public static final class Outcome<T> {
+        /** Winning strategy's name, or null if none found an answer. */
+        public final String winner;
+        public final T value;
+        public final long elapsedMs;
+        public final List<Attempt> attempts;
+
+        Outcome(String winner, T value, long elapsedMs, List<Attempt> attempts) {
+            this.winner = winner;
+            this.value = value;
+            this.elapsedMs = elapsedMs;
+            this.attempts = Collections.unmodifiableList(attempts);
+        }
+    }
+
+    private static final class Entry<T> {
+        final String name;
+        final Strategy<T> strategy;
+        // Taken by whoever gets there first: the worker about to run it, or a
+        // winner dropping it while still queued. Each entry settles once.
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+        volatile Future<?> future;
+        volatile long startNanos; // 0 = not started
+        volatile long endNanos;   // 0 = not finished
+        volatile Status status;   // null until finished
+        volatile String error;
+
+        Entry(String name, Strategy<T> strategy) {
+            this.name = name;
+            this.strategy = strategy;
+        }
+    }
+
+    private final List<Entry<T>> entries = new ArrayList<>();
+    private final AtomicBoolean decided = new AtomicBoolean(false);
+    private AtomicInteger unsettled;
+    private Listener<T> listener;
+    private Runnable onSettled;
+    private long startNanos;
+
+    public StrategyRace<T> add(String name, Strategy<T> strategy) {
+        if (unsettled != null) throw new IllegalStateException("Race already started");
+        entries.add(new Entry<>(name, strategy));
+        return this;
+    }
+
+    /** Runs after the outcome, once every strategy has finished or been dropped. */
+    public StrategyRace<T> whenSettled(Runnable onSettled) {
+        if (unsettled != null) throw new IllegalStateException("Race already started");
+        this.onSettled = onSettled;
+        return this;
+    }
+
+    /**
+     * Submits every strategy to {@code executor}. With fewer threads than
+     * strategies the later ones queue, and are dropped if an earlier one wins.
+     */
+    public void start(ExecutorService executor, Listener<T> listener) {
+        if (unsettled != null) throw new IllegalStateException("Race already started");
+        this.listener = listener;
+        unsettled = new AtomicInteger(entries.size());
+        startNanos = System.nanoTime();
+        if (entries.isEmpty()) {
+            decided.set(true);
+            listener.onDone(new Outcome<>(null, null, 0, new ArrayList<>()));
+            if (onSettled != null) onSettled.run();
+            return;
+        }
+        for (Entry<T> entry : entries) {
+            try {
+                entry.future = executor.submit(() -> run(entry));
+            } catch (RejectedExecutionException e) {
+                if (!entry.claimed.compareAndSet(false, true)) continue;
+                entry.error = "rejected";
+                finish(entry, Status.FAILED, null);
+            }
+        }
+    }
+
+    private void run(Entry<T> entry) {
+        if (!entry.claimed.compareAndSet(false, true)) return; // Dropped while queued
+        if (decided.get()) {
+            settle();
+            return;
+        }
+        entry.startNanos = System.nanoTime();
+        T value = null;
+        Status status;
+        try {
+            value = entry.strategy.attempt();
+            status = value != null ? Status.WON : Status.MISSED;
+        } catch (InterruptedException e) {
+            status = Status.CANCELLED;
+        } catch (Exception e) {
+            entry.error = e.getMessage();
+            status = Status.FAILED;
+        }
+        finish(entry, status, value);
+    }
+
+    private void finish(Entry<T> entry, Status status, T value) {
+        entry.endNanos = System.nanoTime();
+        if (status == Status.WON && decided.compareAndSet(false, true)) {
+            entry.status = Status.WON;
+            for (Entry<T> other : entries) {
+                if (other == entry) continue;
+                Future<?> future = other.future;
+                if (other.claimed.compareAndSet(false, true)) {
+                    // Still queued (or not even submitted): it will never run
+                    if (future != null) future.cancel(false);
+                    settle();
+                } else if (future != null) {
+                    future.cancel(true);
+                }
+            }
+            listener.onDone(outcome(entry.name, value));
+            settle();
+            return;
+        }
+        // A late hit after someone else won counts as a miss
+        entry.status = status == Status.WON ? Status.MISSED : status;
+        settle();
+    }
+
+    private void settle() {
+        if (unsettled.decrementAndGet() != 0) return;
+        if (decided.compareAndSet(false, true)) {
+            listener.onDone(outcome(null, null));
+        }
+        if (onSettled != null) onSettled.run();
+    }
+
+    private Outcome<T> outcome(String winner, T value) {
+        long now = System.nanoTime();
+        List<Attempt> attempts = new ArrayList<>(entries.size());
+        for (Entry<T> e : entries) {
+            Status status = e.status != null ? e.status : Status.CANCELLED;
+            long start = e.startNanos;
+            long end = e.endNanos != 0 ? e.endNanos : now;
+            long elapsedMs = start != 0 ? (end - start) / 1_000_000 : 0;
+            attempts.add(new Attempt(e.name, status, elapsedMs, e.error));
+        }
+        return new Outcome<>(winner, value, (now - startNanos) / 1_000_000, attempts);
+    }
+}
@@ -0,0 +1,275 @@
+package com.keymote.app;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * ZXing fallback for images a single full-frame pass misses: a small code in
+ * a large screenshot, or a big photo that's slow to binarize whole.
+ *
+ * Works on one luminance buffer (8 bits per pixel, row-major), built once by
+ * the caller. The passes are the whole image, a half-size copy when the image
+ * is large, and overlapping tiles at full resolution, each with both the
+ * Hybrid and the GlobalHistogram binarizer. Tiles are crops of the same
+ * buffer, so they cost nothing to set up. The passes run in parallel on a
+ * fork-join pool and stop at the first decode; passes already inside ZXing
+ * finish on their own, since ZXing can't be interrupted.
+ */
+public class TiledQrDecoder {
+
+    /** A decode and the pass that found it. */
+    public static final class Match {
+        public final String text;
+        public final BarcodeFormat format;
+        public final String pass;
+        /** Passes that ran to completion or were running, out of {@link #passes}. */
+        public final int attempted;
+        public final int passes;
+
+        Match(String text, BarcodeFormat format, String pass, int attempted, int passes) {
+            this.text = text;
+            this.format = format;
+            this.pass = pass;
+            this.attempted = attempted;
+            this.passes = passes;
+        }
+    }
+
+    // Images with a short side above this also get a half-size pass
+    private static final int HALF_SIZE_ABOVE = 1200;
+    // Tiles overlap by half, so a code up to half a tile sits whole in one of them
+    private static final int MIN_TILE = 480;
+    private static final int MAX_TILES_PER_SIDE = 4;
+
+    private final ForkJoinPool pool;
+    private final Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+
+    public TiledQrDecoder(ForkJoinPool pool) {
+        this.pool = pool;
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+    }
+
+    /** Restricts the formats tried; null for all of them. */
+    public TiledQrDecoder setFormats(List<BarcodeFormat> formats) {
+        if (formats == null) {
+            hints.remove(DecodeHintType.POSSIBLE_FORMATS);
+        } else {
+            hints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+        }
+        return this;
+    }
+
+    /**
+     * Runs every pass over {@code luma} and returns the first decode, or null.
+     * Interrupting the calling thread stops passes that haven't started.
+     */
+    public Match decode(byte[] luma, int width, int height) throws InterruptedException {
+        if (luma.length < width * height) throw new IllegalArgumentException("luma buffer too small");
+        List<Pass> passes = passes(luma, width, height);
+        Search search = new Search(passes);
+        ForkJoinTask<Void> task = pool.submit(new Split(search, 0, passes.size()));
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            search.stop = true;
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        Hit hit = search.hit.get();
+        if (hit == null) return null;
+        return new Match(hit.result.getText(), hit.result.getBarcodeFormat(), hit.pass.name,
+                search.attempted.get(), passes.size());
+    }
+
+    /**
+     * Converts {@code count} ARGB pixels to luminance at {@code lumaOffset},
+     * with the same weights as ZXing's RGBLuminanceSource. Lets a caller fill
+     * the buffer a few rows at a time instead of holding every pixel as an int.
+     */
+    public static void argbToLuma(int[] argb, int count, byte[] luma, int lumaOffset) {
+        for (int i = 0; i < count; i++) {
+            int pixel = argb[i];
+            int r = (pixel >> 16) & 0xff;
+            int g2 = (pixel >> 7) & 0x1fe;
+            int b = pixel & 0xff;
+            luma[lumaOffset + i] = (byte) ((r + g2 + b) >> 2);
+        }
+    }
+
+    /** Whole image first, then half size, then tiles; each with both binarizers. */
+    static List<Pass> passes(byte[] luma, int width, int height) {
+        List<Pass> passes = new ArrayList<>();
+        addBoth(passes, "full", luma, width, height, 0, 0, width, height);
+
+        if (Math.min(width, height) > HALF_SIZE_ABOVE) {
+            int hw = width / 2;
+            int hh = height / 2;
+            byte[] half = halfSize(luma, width, hw, hh);
+            addBoth(passes, "half", half, hw, hh, 0, 0, hw, hh);
+        }
+
+        int tile = Math.max(MIN_TILE, Math.max(width, height) / MAX_TILES_PER_SIDE);
+        if (tile < width || tile < height) {
+            int tw = Math.min(tile, width);
+            int th = Math.min(tile, height);
+            for (int top : offsets(height, th)) {
+                for (int left : offsets(width, tw)) {
+                    addBoth(passes, "tile " + left + "," + top, luma, width, height, left, top, tw, th);
+                }
+            }
+        }
+        return passes;
+    }
+
+    // Start offsets stepping half a tile, the last one flush with the edge
+    private static int[] offsets(int size, int tile) {
+        if (tile >= size) return new int[] {0};
+        int step = tile / 2;
+        int count = (size - tile + step - 1) / step + 1;
+        int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) offsets[i] = Math.min(i * step, size - tile);
+        return offsets;
+    }
+
+    // 2x2 box average
+    private static byte[] halfSize(byte[] luma, int width, int hw, int hh) {
+        byte[] half = new byte[hw * hh];
+        for (int y = 0; y < hh; y++) {
+            int row0 = 2 * y * width;
+            int row1 = row0 + width;
+            int out = y * hw;
+            for (int x = 0; x < hw; x++) {
+                int i = 2 * x;
+                int sum = (luma[row0 + i] & 0xff) + (luma[row0 + i + 1] & 0xff)
+                        + (luma[row1 + i] & 0xff) + (luma[row1 + i + 1] & 0xff);
+                half[out + x] = (byte) (sum >> 2);
+            }
+        }
+        return half;
+    }
+
+    private static void addBoth(List<Pass> passes, String name, byte[] data, int dataWidth, int dataHeight,
+                                int left, int top, int width, int height) {
+        passes.add(new Pass(name + " hybrid", data, dataWidth, dataHeight, left, top, width, height, false));
+        passes.add(new Pass(name + " histogram", data, dataWidth, dataHeight, left, top, width, height, true));
+    }
+
+    /** One binarizer over one region of a luminance buffer. */
+    static final class Pass {
+        final String name;
+        final byte[] data;
+        final int dataWidth;
+        final int dataHeight;
+        final int left;
+        final int top;
+        final int width;
+        final int height;
+        final boolean globalHistogram;
+
+        Pass(String name, byte[] data, int dataWidth, int dataHeight, int left, int top,
+             int width, int height, boolean globalHistogram) {
+            this.name = name;
+            this.data = data;
+            this.dataWidth = dataWidth;
+            this.dataHeight = dataHeight;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.globalHistogram = globalHistogram;
+        }
+
+        Result run(Map<DecodeHintType, Object> hints) {
+            // The Y plane of a planar YUV image is exactly a luminance buffer
+            LuminanceSource source = new PlanarYUVLuminanceSource(
+                    data, dataWidth, dataHeight, left, top, width, height, false);
+            Binarizer binarizer = globalHistogram ? new GlobalHistogramBinarizer(source) : new HybridBinarizer(source);
+            try {
+                return new MultiFormatReader().decode(new BinaryBitmap(binarizer), hints);
+            } catch (ReaderException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Hit {
+        final Pass pass;
+        final Result result;
+
+        Hit(Pass pass, Result result) {
+            this.pass = pass;
+            this.result = result;
+        }
+    }
+
+    private final class Search {
+        final List<Pass> passes;
+        final AtomicReference<Hit> hit = new AtomicReference<>();
+        final AtomicInteger attempted = new AtomicInteger();
+        volatile boolean stop;
+
+        Search(List<Pass> passes) {
+            this.passes = passes;
+        }
+
+        boolean done() {
+            return stop || hit.get() != null;
+        }
+
+        void run(int index) {
+            if (done()) return;
+            attempted.incrementAndGet();
+            Pass pass = passes.get(index);
+            Result result = pass.run(hints);
+            if (result != null) hit.compareAndSet(null, new Hit(pass, result));
+        }
+    }
+
+    // Halves the pass range until single passes, which then run on the pool's workers
+    private final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Search search;
+        private final int from;
+        private final int to;
+
+        Split(Search search, int from, int to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (search.done()) return;
+            if (to - from == 1) {
+                search.run(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Split(search, from, mid), new Split(search, mid, to));
+        }
+    }
+}
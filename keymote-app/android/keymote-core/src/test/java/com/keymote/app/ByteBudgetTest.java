@@ -0,0 +1,76 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the in-flight image memory budget.
+ */
+public class ByteBudgetTest {
+
+    @Test
+    public void requestsThatFit_doNotWait() throws Exception {
+        ByteBudget budget = new ByteBudget(100);
+        assertEquals(40, budget.acquire(40));
+        assertEquals(60, budget.acquire(60));
+        assertEquals(100, budget.getUsed());
+        budget.release(40);
+        assertEquals(60, budget.getUsed());
+        assertEquals(100, budget.getPeak());
+        assertEquals(0, budget.getWaits());
+    }
+
+    @Test
+    public void overBudget_waitsForRelease() throws Exception {
+        ByteBudget budget = new ByteBudget(100);
+        long first = budget.acquire(70);
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                budget.acquire(50);
+                acquired.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        second.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        budget.release(first);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(50, budget.getUsed());
+        assertEquals(1, budget.getWaits());
+    }
+
+    @Test
+    public void oversizeRequest_runsAlone() throws Exception {
+        ByteBudget budget = new ByteBudget(100);
+        assertEquals(100, budget.acquire(500));
+        assertEquals(100, budget.getUsed());
+        budget.release(100);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void interruptedWait_takesNothing() throws Exception {
+        ByteBudget budget = new ByteBudget(100);
+        budget.acquire(100);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                budget.acquire(10);
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        waiter.interrupt();
+        waiter.join(5000);
+        assertTrue(error.get() instanceof InterruptedException);
+        assertEquals(100, budget.getUsed());
+    }
+}
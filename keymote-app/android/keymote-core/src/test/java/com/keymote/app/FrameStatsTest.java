@@ -0,0 +1,59 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for overlay frame pacing stats.
+ */
+public class FrameStatsTest {
+
+    private static final long FRAME = 16_666_667; // 60 Hz
+
+    @Test
+    public void steadyFrames_areNotJanky() {
+        FrameStats stats = new FrameStats(FRAME);
+        for (int i = 1; i <= 61; i++) stats.onFrame(i * FRAME);
+        assertEquals(60, stats.getFrames());
+        assertEquals(0, stats.getJanky());
+        assertEquals(16_666, stats.getIntervals().getMax(), 300);
+    }
+
+    @Test
+    public void lateFrames_countSkippedFrames() {
+        FrameStats stats = new FrameStats(FRAME);
+        stats.onFrame(FRAME);
+        stats.onFrame(2 * FRAME);
+        stats.onFrame(5 * FRAME);              // 3 frames: 2 missed
+        stats.onFrame(6 * FRAME + FRAME / 3);  // 1.33 frames: still on time
+        stats.onFrame(7 * FRAME + FRAME * 2 / 3); // 1.33 again
+        assertEquals(4, stats.getFrames());
+        assertEquals(1, stats.getJanky());
+        assertEquals(2, stats.getSkipped());
+    }
+
+    @Test
+    public void gapBetweenStreaks_isNotAFrame() {
+        FrameStats stats = new FrameStats(FRAME);
+        stats.onFrame(FRAME);
+        stats.onFrame(2 * FRAME);
+        stats.endStreak();
+        stats.onFrame(500 * FRAME);
+        stats.onFrame(501 * FRAME);
+        assertEquals(2, stats.getFrames());
+        assertEquals(0, stats.getJanky());
+    }
+
+    @Test
+    public void reset_keepsStreak() {
+        FrameStats stats = new FrameStats(FRAME);
+        stats.onFrame(FRAME);
+        stats.onFrame(4 * FRAME);
+        stats.reset();
+        assertEquals(0, stats.getJanky());
+        stats.onFrame(5 * FRAME);
+        assertEquals(1, stats.getFrames());
+        assertEquals(1, stats.getIntervals().getCount());
+    }
+}
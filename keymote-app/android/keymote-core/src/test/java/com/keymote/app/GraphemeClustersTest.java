@@ -0,0 +1,71 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for grapheme cluster boundaries.
+ */
+public class GraphemeClustersTest {
+
+    private static int clusters(String s) {
+        return GraphemeClusters.count(s, 0, s.length());
+    }
+
+    @Test
+    public void plainTextAndSurrogatePairs_oneClusterPerCodePoint() {
+        assertEquals(3, clusters("abc"));
+        assertEquals(2, clusters("😀😁"));
+        assertFalse(GraphemeClusters.isBoundary("😀", 1));
+    }
+
+    @Test
+    public void combiningMarks_joinTheirBase() {
+        assertEquals(2, clusters("e\u0301x"));
+        assertFalse(GraphemeClusters.isBoundary("e\u0301", 1));
+        assertEquals(1, clusters("a\u0308\u0301"));
+    }
+
+    @Test
+    public void emojiSequences_areOneCluster() {
+        assertEquals(1, clusters("👍🏽"));
+        assertEquals(1, clusters("❤\uFE0F"));
+        assertEquals(1, clusters("👨\u200D👩\u200D👧"));
+        assertEquals(1, clusters("👩🏽\u200D💻"));
+        // ZWJ between letters doesn't glue them
+        assertEquals(2, clusters("a\u200Db"));
+    }
+
+    @Test
+    public void regionalIndicators_pairIntoFlags() {
+        assertEquals(1, clusters("🇫🇷"));
+        assertEquals(2, clusters("🇫🇷🇩🇪"));
+        assertEquals(2, clusters("🇫🇷🇩"));
+        assertTrue(GraphemeClusters.isBoundary("🇫🇷🇩🇪", 4));
+        assertFalse(GraphemeClusters.isBoundary("🇫🇷🇩🇪", 6));
+    }
+
+    @Test
+    public void crlfAndHangulJamo() {
+        assertEquals(2, clusters("a\r\n"));
+        assertEquals(3, clusters("\n\u0301\r"));
+        // L V T jamo make one syllable
+        assertEquals(1, clusters("\u1100\u1161\u11A8"));
+        assertEquals(2, clusters("\uAC00\u1100"));
+    }
+
+    @Test
+    public void offsetWalksBackDistance() {
+        String s = "a👍🏽e\u0301🇫🇷b";
+        for (int from = 0; from <= s.length(); from++) {
+            if (!GraphemeClusters.isBoundary(s, from)) continue;
+            for (int to = 0; to <= s.length(); to++) {
+                if (!GraphemeClusters.isBoundary(s, to)) continue;
+                assertEquals(to, GraphemeClusters.offset(s, from, GraphemeClusters.distance(s, from, to)));
+            }
+        }
+        assertEquals(s.length(), GraphemeClusters.offset(s, 0, 100));
+        assertEquals(0, GraphemeClusters.offset(s, s.length(), -100));
+    }
+}
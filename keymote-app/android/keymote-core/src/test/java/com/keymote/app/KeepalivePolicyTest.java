@@ -0,0 +1,71 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay's adaptive keepalive.
+ */
+public class KeepalivePolicyTest {
+
+    @Test
+    public void idleLinkIsProbedRarely() {
+        KeepalivePolicy policy = new KeepalivePolicy();
+        policy.onConnected(0);
+        assertEquals(KeepalivePolicy.NONE, policy.poll(KeepalivePolicy.IDLE_INTERVAL_MS - 1));
+        assertEquals(KeepalivePolicy.PING, policy.poll(KeepalivePolicy.IDLE_INTERVAL_MS));
+        policy.onHeard(KeepalivePolicy.IDLE_INTERVAL_MS + 40);
+        assertEquals(1, policy.getPings());
+        assertEquals(KeepalivePolicy.IDLE_INTERVAL_MS, policy.nextPollDelay(40 + KeepalivePolicy.IDLE_INTERVAL_MS));
+    }
+
+    @Test
+    public void trafficPostponesPings() {
+        KeepalivePolicy policy = new KeepalivePolicy();
+        policy.setActive(true);
+        policy.onConnected(0);
+        for (long t = 500; t < 20000; t += 500) {
+            policy.onHeard(t);
+            assertEquals(KeepalivePolicy.NONE, policy.poll(t + 100));
+        }
+        assertEquals(0, policy.getPings());
+    }
+
+    @Test
+    public void activeModeDetectsDeadPeerQuickly() {
+        KeepalivePolicy policy = new KeepalivePolicy();
+        policy.onConnected(0);
+        policy.setActive(true);
+        long t = KeepalivePolicy.ACTIVE_INTERVAL_MS;
+        assertEquals(KeepalivePolicy.PING, policy.poll(t));
+        assertEquals(KeepalivePolicy.NONE, policy.poll(t + KeepalivePolicy.ACTIVE_TIMEOUT_MS - 1));
+        assertEquals(KeepalivePolicy.DEAD, policy.poll(t + KeepalivePolicy.ACTIVE_TIMEOUT_MS));
+        assertEquals(KeepalivePolicy.ACTIVE_INTERVAL_MS + KeepalivePolicy.ACTIVE_TIMEOUT_MS,
+                policy.silentFor(t + KeepalivePolicy.ACTIVE_TIMEOUT_MS));
+        assertEquals(1, policy.getDeadPeers());
+    }
+
+    @Test
+    public void becomingActiveAfterIdleProbesImmediately() {
+        KeepalivePolicy policy = new KeepalivePolicy();
+        policy.onConnected(0);
+        assertEquals(KeepalivePolicy.NONE, policy.poll(30000));
+        assertTrue(policy.setActive(true));
+        assertFalse(policy.setActive(true));
+        assertEquals(KeepalivePolicy.PING, policy.poll(30000));
+    }
+
+    @Test
+    public void wakeupsPerHourCountsPings() {
+        KeepalivePolicy policy = new KeepalivePolicy();
+        policy.onConnected(1);
+        long t = 1;
+        for (int i = 0; i < 10; i++) {
+            t += KeepalivePolicy.IDLE_INTERVAL_MS;
+            assertEquals(KeepalivePolicy.PING, policy.poll(t));
+            policy.onHeard(t);
+        }
+        assertEquals(60.0, policy.wakeupsPerHour(t), 0.01);
+    }
+}
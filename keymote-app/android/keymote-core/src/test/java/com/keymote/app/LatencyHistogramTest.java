@@ -0,0 +1,66 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram_reportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(99));
+        assertEquals(0, h.getMax());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100; v++) {
+            h.record(v);
+        }
+        assertEquals(50, h.getValueAtPercentile(50));
+        assertEquals(99, h.getValueAtPercentile(99));
+        assertEquals(100, h.getValueAtPercentile(100));
+        assertEquals(50.5, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void largeValuesStayWithinBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        java.util.Random random = new java.util.Random(7);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + random.nextInt(5_000_000);
+            h.record(values[i]);
+        }
+        java.util.Arrays.sort(values);
+        long exactP99 = values[(int) Math.ceil(0.99 * values.length) - 1];
+        long p99 = h.getValueAtPercentile(99);
+        assertTrue(p99 >= exactP99);
+        assertTrue(p99 <= exactP99 * 1.02);
+        assertEquals(values[values.length - 1], h.getMax());
+    }
+
+    @Test
+    public void bucketBoundsAreContiguous() {
+        for (int i = 1; i < LatencyHistogram.index(1L << 32) - 1; i++) {
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i - 1) + 1));
+            assertEquals(i, LatencyHistogram.index(LatencyHistogram.upperBound(i)));
+        }
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(12345);
+        h.reset();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getMin());
+    }
+}
@@ -0,0 +1,93 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the activity-aware lock policy.
+ */
+public class LockPolicyTest {
+
+    @Test
+    public void noActivity_staysReleased() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        assertEquals(LockPolicy.Level.RELEASED, policy.update(10_000));
+        assertEquals(-1, policy.nextDropAt());
+        assertEquals(0, policy.heldMs(10_000));
+    }
+
+    @Test
+    public void activity_stepsDownThroughLevels() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        assertTrue(policy.onActivity(1_000));
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.update(1_000));
+        assertEquals(3_000, policy.nextDropAt());
+        assertFalse(policy.onActivity(1_500));
+        assertEquals(LockPolicy.Level.HELD, policy.update(3_600));
+        assertEquals(61_500, policy.nextDropAt());
+        assertEquals(LockPolicy.Level.RELEASED, policy.update(61_500));
+        assertEquals(60_500, policy.heldMs(100_000));
+        assertEquals(2_600, policy.lowLatencyMs(100_000));
+        assertEquals(1, policy.getAcquisitions());
+    }
+
+    @Test
+    public void pinned_holdsLowLatencyUntilUnpinned() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        policy.setPinned(true, 0);
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.update(0));
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.update(500_000));
+        assertEquals(-1, policy.nextDropAt());
+        policy.setPinned(false, 500_000);
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.update(501_000));
+        assertEquals(LockPolicy.Level.HELD, policy.update(502_000));
+        assertEquals(LockPolicy.Level.RELEASED, policy.update(560_000));
+        assertEquals(560_000, policy.heldMs(600_000));
+    }
+
+    @Test
+    public void release_stopsHoldTimeUntilNewActivity() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        policy.setPinned(true, 0);
+        policy.update(0);
+        assertEquals(LockPolicy.Level.RELEASED, policy.release(5_000));
+        assertEquals(LockPolicy.Level.RELEASED, policy.getLevel());
+        assertEquals(-1, policy.nextDropAt());
+        assertEquals(5_000, policy.heldMs(50_000));
+        assertEquals(5_000, policy.lowLatencyMs(50_000));
+        // A later update doesn't pick the old pin back up
+        assertEquals(LockPolicy.Level.RELEASED, policy.update(50_000));
+        policy.onActivity(60_000);
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.update(60_000));
+        assertEquals(2, policy.getAcquisitions());
+    }
+
+    @Test
+    public void idlePeriod_isConfigurable() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        policy.setIdleMs(10_000);
+        policy.onActivity(0);
+        policy.update(0);
+        assertEquals(LockPolicy.Level.RELEASED, policy.update(10_000));
+        policy.setIdleMs(500); // Never shorter than the active window
+        assertEquals(2_000, policy.getIdleMs());
+    }
+
+    @Test
+    public void storedIdleBelowActive_isClamped() {
+        LockPolicy policy = new LockPolicy(3_000, 0, 0);
+        assertEquals(3_000, policy.getIdleMs());
+    }
+
+    @Test
+    public void resetStats_keepsCurrentLevel() {
+        LockPolicy policy = new LockPolicy(2_000, 60_000, 0);
+        policy.onActivity(0);
+        policy.update(0);
+        policy.resetStats(1_000);
+        assertEquals(LockPolicy.Level.LOW_LATENCY, policy.getLevel());
+        assertEquals(500, policy.heldMs(1_500));
+        assertEquals(0, policy.getAcquisitions());
+    }
+}
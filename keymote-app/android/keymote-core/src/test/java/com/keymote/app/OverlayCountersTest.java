@@ -0,0 +1,54 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay health counters.
+ */
+public class OverlayCountersTest {
+
+    @Test
+    public void connectedTime_spansConnections() {
+        OverlayCounters counters = new OverlayCounters();
+        counters.onConnected(1000, false);
+        assertEquals(500, counters.connectedMs(1500));
+        counters.onDisconnected(3000);
+        assertEquals(2000, counters.connectedMs(9000));
+        counters.onConnected(10000, true);
+        assertEquals(2500, counters.connectedMs(10500));
+        assertEquals(2, counters.getConnects());
+        assertEquals(1, counters.getReconnects());
+    }
+
+    @Test
+    public void repeatedDisconnect_isIgnored() {
+        OverlayCounters counters = new OverlayCounters();
+        counters.onConnected(1, false);
+        counters.onDisconnected(101);
+        counters.onDisconnected(5000);
+        assertEquals(100, counters.connectedMs(6000));
+    }
+
+    @Test
+    public void framesAndBytes_accumulate() {
+        OverlayCounters counters = new OverlayCounters();
+        counters.onFrameSent(6);
+        counters.onFrameSent(40);
+        assertEquals(2, counters.getFramesSent());
+        assertEquals(46, counters.getBytesSent());
+    }
+
+    @Test
+    public void stoppedWriterTotals_carryOver() {
+        OverlayCounters counters = new OverlayCounters();
+        OverlayFrameWriter writer = new OverlayFrameWriter(4, OverlayFrameWriter.Backpressure.COALESCE);
+        writer.offerEdit(0, 0, "a", 0); // never started: dropped
+        counters.onWriterStopped(writer);
+        assertEquals(1, counters.framesDropped(null));
+        OverlayFrameWriter live = new OverlayFrameWriter(4, OverlayFrameWriter.Backpressure.COALESCE);
+        live.offerEdit(0, 0, "b", 0);
+        assertEquals(2, counters.framesDropped(live));
+    }
+}
@@ -0,0 +1,67 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay's persisted endpoint ranking.
+ */
+public class OverlayEndpointTableTest {
+
+    private static final String[] IPS = {"10.8.0.2", "172.17.0.1", "192.168.1.20"};
+
+    @Test
+    public void unknownEndpoints_keepCallerOrder() {
+        assertArrayEquals(IPS, new OverlayEndpointTable().order(IPS));
+    }
+
+    @Test
+    public void lastGoodEndpoint_isDialedFirst() {
+        OverlayEndpointTable table = new OverlayEndpointTable();
+        table.recordFailure("10.8.0.2", 1000);
+        table.recordSuccess("192.168.1.20", 12, 1000);
+        assertArrayEquals(new String[] {"192.168.1.20", "172.17.0.1", "10.8.0.2"}, table.order(IPS));
+    }
+
+    @Test
+    public void failureAfterSuccess_demotesEndpoint() {
+        OverlayEndpointTable table = new OverlayEndpointTable();
+        table.recordSuccess("192.168.1.20", 12, 1000);
+        table.recordSuccess("10.8.0.2", 30, 2000);
+        table.recordFailure("10.8.0.2", 3000);
+        String[] order = table.order(IPS);
+        assertEquals("192.168.1.20", order[0]);
+        assertEquals("10.8.0.2", order[2]);
+    }
+
+    @Test
+    public void survivesSerializationRoundTrip() {
+        OverlayEndpointTable table = new OverlayEndpointTable();
+        table.recordSuccess("192.168.1.20", 12, 1000);
+        table.recordFailure("192.168.1.20", 500);
+        OverlayEndpointTable restored = OverlayEndpointTable.parse(table.serialize());
+        OverlayEndpointTable.Endpoint e = restored.get("192.168.1.20");
+        assertEquals(1, e.successes);
+        assertEquals(1, e.failures);
+        assertEquals(12, e.lastRttMs);
+        assertEquals(1000, e.lastSuccessAt);
+        assertArrayEquals(table.order(IPS), restored.order(IPS));
+    }
+
+    @Test
+    public void staleEntries_ageOut() {
+        OverlayEndpointTable table = new OverlayEndpointTable();
+        table.recordSuccess("10.8.0.2", 12, 1000);
+        table.recordSuccess("192.168.1.20", 12, OverlayEndpointTable.STALE_MS);
+        table.prune(OverlayEndpointTable.STALE_MS + 2000);
+        assertNull(table.get("10.8.0.2"));
+        assertNotNull(table.get("192.168.1.20"));
+    }
+
+    @Test
+    public void malformedData_isIgnored() {
+        OverlayEndpointTable table = OverlayEndpointTable.parse("garbage\n1.2.3.4,x,0,0,0,0\n");
+        assertEquals(0, table.size());
+    }
+}
@@ -0,0 +1,235 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay writer's ring and backpressure policies.
+ * The sink holds the first frame until released, so the ring can be filled
+ * while the writer thread is busy.
+ */
+public class OverlayFrameWriterTest {
+
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> written = new ArrayList<>();
+    private OverlayFrameWriter writer;
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (writer != null) writer.stop();
+    }
+
+    // Starts a writer whose thread is stuck on frame "first", with the ring empty
+    private OverlayFrameWriter stalled(int capacity, OverlayFrameWriter.Backpressure policy) throws Exception {
+        writer = new OverlayFrameWriter(capacity, policy);
+        writer.start(frame -> {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (written) {
+                written.add(describe(frame));
+                written.notifyAll();
+            }
+        }, "test-writer");
+        writer.offerControl("first");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        return writer;
+    }
+
+    private static String describe(OverlayFrameWriter.Frame frame) {
+        switch (frame.kind) {
+            case OverlayFrameWriter.KIND_EDIT:
+                return "edit " + frame.move + " " + frame.count + " " + frame.text + " #" + frame.firstSeq + "-" + frame.seq;
+            case OverlayFrameWriter.KIND_KEY:
+                return "key " + frame.key + " x" + frame.count;
+            default:
+                return frame.text;
+        }
+    }
+
+    // Lets the writer go and waits for `count` frames in all
+    private List<String> drain(int count) throws InterruptedException {
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (written) {
+            while (written.size() < count && System.currentTimeMillis() < deadline) {
+                written.wait(100);
+            }
+            return new ArrayList<>(written);
+        }
+    }
+
+    @Test
+    public void block_waitsForFreeSlot() throws Exception {
+        stalled(2, OverlayFrameWriter.Backpressure.BLOCK);
+        assertTrue(writer.offerControl("a"));
+        assertTrue(writer.offerControl("b"));
+        AtomicBoolean offered = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            offered.set(writer.offerControl("c"));
+            done.countDown();
+        });
+        producer.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(offered.get());
+        assertEquals(List.of("first", "a", "b", "c"), drain(4));
+        assertEquals(0, writer.getFramesDropped());
+    }
+
+    @Test
+    public void coalesce_mergesOnlyWhenFull() throws Exception {
+        stalled(2, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerEdit(0, 0, "b", 1));
+        assertTrue(writer.offerEdit(0, 0, "c", 2));
+        assertEquals(0, writer.getFramesCoalesced());
+        assertTrue(writer.offerEdit(0, 0, "d", 3));
+        assertFalse(writer.offerKey("Enter", 1, 0));
+        assertEquals(1, writer.getFramesCoalesced());
+        assertEquals(2, writer.getQueueDepth());
+        // The key could not merge into an edit and nothing was idempotent
+        assertEquals(1, writer.getFramesDropped());
+        assertEquals(List.of("first", "edit 0 0 b #1-1", "edit 0 0 cd #2-3"), drain(3));
+    }
+
+    @Test
+    public void coalesce_fullRingAnswersAtOnce() throws Exception {
+        stalled(1, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerEdit(0, 0, "a", 1));
+        long start = System.nanoTime();
+        assertFalse(writer.offerEdit(-2, 0, "b", 2)); // moves the caret: can't fold
+        assertFalse(writer.offerEdit(0, 0, "c", 5));  // not the next seq: can't fold
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 500);
+        assertEquals(2, writer.getFramesDropped());
+    }
+
+    @Test
+    public void coalesce_repeatsKeys() throws Exception {
+        stalled(1, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerKey("Backspace", 1, 0));
+        assertTrue(writer.offerKey("Backspace", 2, 0));
+        assertFalse(writer.offerKey("Enter", 1, 0));
+        assertEquals(List.of("first", "key Backspace x3"), drain(2));
+    }
+
+    @Test
+    public void coalesce_evictsIdempotentWhenNothingMerges() throws Exception {
+        stalled(2, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerControl("move", true));
+        assertTrue(writer.offerEdit(0, 0, "a", 1));
+        assertTrue(writer.offerControl("click"));
+        assertEquals(1, writer.getFramesDropped());
+        assertEquals(List.of("first", "edit 0 0 a #1-1", "click"), drain(3));
+    }
+
+    @Test
+    public void dropOldest_evictsOldestIdempotentAndKeepsOrder() throws Exception {
+        stalled(3, OverlayFrameWriter.Backpressure.DROP_OLDEST);
+        assertTrue(writer.offerControl("down"));
+        assertTrue(writer.offerControl("move1", true));
+        assertTrue(writer.offerControl("move2", true));
+        assertTrue(writer.offerControl("move3", true));
+        assertTrue(writer.offerEdit(0, 0, "x", 0));
+        assertEquals(2, writer.getFramesDropped());
+        assertEquals(0, writer.getFramesCoalesced());
+        assertEquals(List.of("first", "down", "move3", "edit 0 0 x #0-0"), drain(4));
+    }
+
+    @Test
+    public void dropOldest_dropsNewFrameWhenNothingIsIdempotent() throws Exception {
+        stalled(2, OverlayFrameWriter.Backpressure.DROP_OLDEST);
+        assertTrue(writer.offerEdit(0, 0, "a", 1));
+        assertTrue(writer.offerEdit(0, 0, "b", 2));
+        assertFalse(writer.offerEdit(0, 0, "c", 3));
+        assertEquals(List.of("first", "edit 0 0 a #1-1", "edit 0 0 b #2-2"), drain(3));
+    }
+
+    @Test
+    public void mergeEdit_deleteEatsPendingTextFirst() throws Exception {
+        stalled(1, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerEdit(-1, 1, "ab👍🏽", 1));
+        // Two clusters: the emoji (two surrogate pairs) and the "b"
+        assertTrue(writer.offerEdit(0, 2, "c", 2));
+        assertEquals(List.of("first", "edit -1 1 ac #1-2"), drain(2));
+    }
+
+    @Test
+    public void mergeEdit_deleteOverrunsPendingText() throws Exception {
+        stalled(1, OverlayFrameWriter.Backpressure.COALESCE);
+        assertTrue(writer.offerEdit(0, 1, "ab", 1));
+        // Deletes "ab" and two more clusters already on the desktop
+        assertTrue(writer.offerEdit(0, 4, "x", 2));
+        assertEquals(List.of("first", "edit 0 3 x #1-2"), drain(2));
+    }
+
+    @Test
+    public void delivery_reportsWrittenAndDiscardedControls() throws Exception {
+        stalled(2, OverlayFrameWriter.Backpressure.COALESCE);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch told = new CountDownLatch(3);
+        OverlayFrameWriter.Delivery move = written -> { delivered.add("move " + written); told.countDown(); };
+        OverlayFrameWriter.Delivery key = written -> { delivered.add("key " + written); told.countDown(); };
+        OverlayFrameWriter.Delivery click = written -> { delivered.add("click " + written); told.countDown(); };
+        assertTrue(writer.offerControl("move", true, move));
+        assertTrue(writer.offerControl("key", false, key));
+        // Full: evicts the move to make room
+        assertTrue(writer.offerControl("click", false, click));
+        assertEquals(List.of("move false"), delivered);
+        // Nothing idempotent left: the offer fails and its delivery is never told
+        assertFalse(writer.offerControl("late", false, written -> delivered.add("late " + written)));
+        release.countDown();
+        assertTrue(told.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("move false", "key true", "click true"), delivered);
+    }
+
+    @Test
+    public void delivery_sinkFailureAndStopReportNotWritten() throws Exception {
+        writer = new OverlayFrameWriter(4, OverlayFrameWriter.Backpressure.COALESCE);
+        CountDownLatch failed = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        writer.start(frame -> {
+            if ("fail".equals(frame.text)) {
+                frame.deliver(false);
+                failed.countDown();
+                return;
+            }
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // stopping
+            }
+        }, "test-writer");
+        assertTrue(writer.offerControl("fail", false, written -> delivered.add("fail " + written)));
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.offerControl("first"));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        assertTrue(writer.offerControl("queued", false, written -> delivered.add("queued " + written)));
+        writer.stop();
+        assertEquals(List.of("fail false", "queued false"), delivered);
+    }
+
+    @Test
+    public void stoppedWriter_dropsOffers() {
+        OverlayFrameWriter idle = new OverlayFrameWriter(2, OverlayFrameWriter.Backpressure.BLOCK);
+        assertFalse(idle.offerControl("a"));
+        assertEquals(1, idle.getFramesDropped());
+        assertEquals(0, idle.getQueueDepth());
+    }
+}
@@ -0,0 +1,205 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Local unit tests for the overlay's durable outbox journal.
+ */
+public class OverlayOutboxTest {
+
+    private static final int CAPACITY = 4096;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<String> replayAll(OverlayOutbox outbox, long fromSeq) {
+        List<String> ops = new ArrayList<>();
+        long next = fromSeq;
+        while (next <= outbox.lastSeq()) {
+            next = outbox.replay(next, 2, (seq, kind, move, count, text) ->
+                    ops.add(seq + ":" + kind + ":" + move + ":" + count + ":" + text));
+        }
+        return ops;
+    }
+
+    @Test
+    public void appendsAreSequencedAndReplayedInOrder() throws IOException {
+        OverlayOutbox outbox = OverlayOutbox.open(tmp.newFile(), CAPACITY);
+        assertEquals(1, outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "he"));
+        assertEquals(2, outbox.append(OverlayFrameWriter.KIND_EDIT, -1, 1, "😀"));
+        assertEquals(3, outbox.append(OverlayFrameWriter.KIND_KEY, 0, 2, "Enter"));
+        assertEquals(3, outbox.pendingCount());
+
+        List<String> ops = replayAll(outbox, 0);
+        assertEquals(3, ops.size());
+        assertEquals("1:1:0:0:he", ops.get(0));
+        assertEquals("2:1:-1:1:😀", ops.get(1));
+        assertEquals("3:2:0:2:Enter", ops.get(2));
+    }
+
+    @Test
+    public void ackedOpsAreNotReplayed() throws IOException {
+        OverlayOutbox outbox = OverlayOutbox.open(tmp.newFile(), CAPACITY);
+        for (int i = 0; i < 5; i++) {
+            outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "x" + i);
+        }
+        outbox.ack(3);
+        List<String> ops = replayAll(outbox, 1);
+        assertEquals(2, ops.size());
+        assertTrue(ops.get(0).startsWith("4:"));
+
+        outbox.ack(5);
+        assertEquals(0, outbox.pendingCount());
+        assertEquals(6, outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "y"));
+    }
+
+    @Test
+    public void unackedOpsSurviveReopen() throws IOException {
+        File file = tmp.newFile();
+        OverlayOutbox outbox = OverlayOutbox.open(file, CAPACITY);
+        long session = outbox.sessionId();
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "a");
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "b");
+        outbox.ack(1);
+        outbox.close();
+
+        OverlayOutbox reopened = OverlayOutbox.open(file, CAPACITY);
+        assertEquals(session, reopened.sessionId());
+        assertEquals(1, reopened.ackedSeq());
+        assertEquals(2, reopened.lastSeq());
+        assertEquals(1, replayAll(reopened, 0).size());
+    }
+
+    @Test
+    public void voidedOpsReplayAsEmptyEditsAndSurviveReopen() throws IOException {
+        File file = tmp.newFile();
+        OverlayOutbox outbox = OverlayOutbox.open(file, CAPACITY);
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "a");
+        outbox.append(OverlayFrameWriter.KIND_EDIT, -2, 1, "chunk one");
+        outbox.append(OverlayFrameWriter.KIND_KEY, 0, 1, "Enter");
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "z");
+        outbox.ack(1);
+        assertEquals(2, outbox.voidOps(1, 3)); // seq 1 is acked already
+        assertEquals(List.of("2:1:0:0:", "3:1:0:0:", "4:1:0:0:z"), replayAll(outbox, 0));
+        outbox.close();
+
+        OverlayOutbox reopened = OverlayOutbox.open(file, CAPACITY);
+        assertEquals(4, reopened.lastSeq());
+        assertEquals(List.of("2:1:0:0:", "3:1:0:0:", "4:1:0:0:z"), replayAll(reopened, 0));
+    }
+
+    @Test
+    public void tornRecordIsDiscardedOnReopen() throws IOException {
+        File file = tmp.newFile();
+        OverlayOutbox outbox = OverlayOutbox.open(file, CAPACITY);
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "kept");
+        outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "torn");
+        outbox.close();
+
+        // Corrupt the last byte of the second record's text
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            int firstLen = 8 + 21 + 4;
+            long lastByte = OverlayOutbox.HEADER_SIZE + firstLen + 8 + 21 + 3;
+            raf.seek(lastByte);
+            raf.write('X');
+        }
+
+        OverlayOutbox reopened = OverlayOutbox.open(file, CAPACITY);
+        assertEquals(1, reopened.lastSeq());
+        List<String> ops = replayAll(reopened, 0);
+        assertEquals(1, ops.size());
+        assertEquals("1:1:0:0:kept", ops.get(0));
+        assertEquals(2, reopened.append(OverlayFrameWriter.KIND_EDIT, 0, 0, "again"));
+    }
+
+    @Test
+    public void fullJournalCompactsAckedPrefix() throws IOException {
+        OverlayOutbox outbox = OverlayOutbox.open(tmp.newFile(), CAPACITY);
+        String text = "0123456789012345678901234567890123456789";
+        long seq = 0;
+        // Keep one op unacked so the journal never simply rewinds
+        for (int i = 0; i < 500; i++) {
+            seq = outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, text);
+            assertTrue("append " + i + " failed", seq > 0);
+            outbox.ack(seq - 1);
+        }
+        assertEquals(1, outbox.pendingCount());
+        assertEquals(1, replayAll(outbox, 0).size());
+    }
+
+    @Test
+    public void killDuringCompactionKeepsEveryUnackedOp() throws IOException {
+        File file = tmp.newFile();
+        OverlayOutbox outbox = OverlayOutbox.open(file, CAPACITY);
+        String text = "0123456789012345678901234567890123456789";
+        // Append with three ops left unacked until an append compacts
+        byte[] before;
+        long seq;
+        int appends = 0;
+        do {
+            assertTrue("never compacted", ++appends < 1000);
+            before = Files.readAllBytes(file.toPath());
+            seq = outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, text);
+            assertTrue(seq > 0);
+            outbox.ack(seq - 3);
+        } while (region(Files.readAllBytes(file.toPath())) == region(before));
+        byte[] after = Files.readAllBytes(file.toPath());
+        List<String> expected = replayAll(OverlayOutbox.open(write(before), CAPACITY), 0);
+        assertEquals(3, expected.size());
+
+        // Every prefix of the compaction's writes (in address order, as the
+        // bulk copy goes), short of the header flip
+        List<Integer> written = new ArrayList<>();
+        for (int i = OverlayOutbox.HEADER_SIZE; i < after.length; i++) {
+            if (before[i] != after[i]) written.add(i);
+        }
+        assertFalse(written.isEmpty());
+        for (int k = 0; k <= written.size(); k++) {
+            byte[] killed = before.clone();
+            for (int i = 0; i < k; i++) {
+                killed[written.get(i)] = after[written.get(i)];
+            }
+            OverlayOutbox reopened = OverlayOutbox.open(write(killed), CAPACITY);
+            assertEquals("killed after " + k + " bytes", expected, replayAll(reopened, 0));
+            assertEquals(seq - 1, reopened.lastSeq());
+        }
+
+        // With the flip, the moved records and the new op are all there
+        OverlayOutbox compacted = OverlayOutbox.open(write(after), CAPACITY);
+        List<String> all = new ArrayList<>(expected);
+        all.add(seq + ":1:0:0:" + text);
+        all.remove(0); // acked by the last ack
+        assertEquals(all, replayAll(compacted, 0));
+    }
+
+    private static int region(byte[] journal) {
+        return ByteBuffer.wrap(journal).getInt(OverlayOutbox.OFF_REGION);
+    }
+
+    private File write(byte[] journal) throws IOException {
+        File file = tmp.newFile();
+        Files.write(file.toPath(), journal);
+        return file;
+    }
+
+    @Test
+    public void oversizedOpIsRejected() throws IOException {
+        OverlayOutbox outbox = OverlayOutbox.open(tmp.newFile(), CAPACITY);
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < CAPACITY; i++) big.append('a');
+        assertEquals(-1, outbox.append(OverlayFrameWriter.KIND_EDIT, 0, 0, big.toString()));
+        assertEquals(0, outbox.lastSeq());
+    }
+}
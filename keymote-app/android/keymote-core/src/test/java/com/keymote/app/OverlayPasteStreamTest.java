@@ -0,0 +1,102 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for chunked paste streaming.
+ */
+public class OverlayPasteStreamTest {
+
+    @Test
+    public void shortInserts_areNotStreamed() {
+        assertFalse(OverlayPasteStream.shouldStream("hello"));
+        assertTrue(OverlayPasteStream.shouldStream(new String(new char[OverlayPasteStream.CHUNK_CHARS + 1])));
+    }
+
+    @Test
+    public void onlyFirstChunk_movesAndDeletes() {
+        OverlayPasteStream stream = new OverlayPasteStream(-3, 2, "abcdefgh", 3);
+        assertEquals(-3, stream.nextMove());
+        assertEquals(2, stream.nextDelete());
+        assertEquals("abc", stream.nextChunk());
+        stream.onReleased(1);
+        assertEquals(0, stream.nextMove());
+        assertEquals(0, stream.nextDelete());
+        assertEquals("def", stream.nextChunk());
+    }
+
+    @Test
+    public void windowLimitsChunksInFlight() {
+        OverlayPasteStream stream = new OverlayPasteStream(0, 0, "abcdefghij", 2);
+        long seq = 10;
+        int released = 0;
+        while (stream.canRelease(9)) {
+            stream.nextChunk();
+            stream.onReleased(seq++);
+            released++;
+        }
+        assertEquals(OverlayPasteStream.WINDOW, released);
+        assertEquals(0, stream.ackedChars(9));
+
+        // First chunk acked: one more slot
+        assertEquals(2, stream.ackedChars(10));
+        assertTrue(stream.canRelease(10));
+        stream.nextChunk();
+        stream.onReleased(seq++);
+        assertFalse(stream.canRelease(10));
+    }
+
+    @Test
+    public void finishesOnceEveryChunkIsAcked() {
+        OverlayPasteStream stream = new OverlayPasteStream(0, 0, "abcdefg", 3);
+        StringBuilder sent = new StringBuilder();
+        long seq = 0;
+        while (!stream.isFinished(seq)) {
+            assertTrue(stream.canRelease(seq));
+            sent.append(stream.nextChunk());
+            stream.onReleased(++seq);
+        }
+        assertEquals("abcdefg", sent.toString());
+        assertEquals(7, stream.ackedChars(seq));
+        assertEquals(3, stream.getReleasedChunks());
+    }
+
+    @Test
+    public void firstUnackedSeq_isOldestChunkInFlight() {
+        OverlayPasteStream stream = new OverlayPasteStream(0, 0, "abcdef", 2);
+        assertEquals(0, stream.firstUnackedSeq(0));
+        stream.nextChunk();
+        stream.onReleased(7);
+        stream.nextChunk();
+        stream.onReleased(8);
+        assertEquals(7, stream.firstUnackedSeq(6));
+        assertEquals(8, stream.firstUnackedSeq(7));
+        assertEquals(0, stream.firstUnackedSeq(8));
+    }
+
+    @Test
+    public void unjournaledChunks_countAsAcked() {
+        OverlayPasteStream stream = new OverlayPasteStream(0, 0, "abcdef", 2);
+        while (stream.canRelease(0)) {
+            stream.nextChunk();
+            stream.onReleased(0);
+        }
+        assertTrue(stream.isFinished(0));
+    }
+
+    @Test
+    public void chunksNeverSplitSurrogatePairs() {
+        String text = "a😀b😀";
+        OverlayPasteStream stream = new OverlayPasteStream(0, 0, text, 2);
+        StringBuilder joined = new StringBuilder();
+        while (stream.hasNext()) {
+            String chunk = stream.nextChunk();
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            joined.append(chunk);
+            stream.onReleased(0);
+        }
+        assertEquals(text, joined.toString());
+    }
+}
@@ -0,0 +1,165 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay diff engine.
+ */
+public class OverlayTextDiffTest {
+
+    private static OverlayTextDiff.Edit diff(String oldText, String newText, int caret) {
+        return OverlayTextDiff.diff(oldText, newText, caret, true, new OverlayTextDiff.Edit());
+    }
+
+    // Replays an edit against a model of the desktop text, like the injector would:
+    // one arrow or Backspace per grapheme cluster
+    private static String apply(String text, int caret, OverlayTextDiff.Edit edit) {
+        int pos = GraphemeClusters.offset(text, caret, edit.move);
+        int start = GraphemeClusters.offset(text, pos, -edit.delete);
+        return text.substring(0, start) + edit.insert + text.substring(pos);
+    }
+
+    @Test
+    public void appendAtEnd_isPlainInsert() {
+        OverlayTextDiff.Edit edit = diff("hello", "hello world", 5);
+        assertEquals(0, edit.move);
+        assertEquals(0, edit.delete);
+        assertEquals(" world", edit.insert);
+        assertEquals(11, edit.caretAfter);
+    }
+
+    @Test
+    public void backspaceAtEnd_deletesOne() {
+        OverlayTextDiff.Edit edit = diff("hello", "hell", 5);
+        assertEquals(0, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("", edit.insert);
+    }
+
+    @Test
+    public void typoNearStart_movesCaretInsteadOfRetypingTail() {
+        String oldText = "Teh quick brown fox jumps over the lazy dog";
+        String newText = "The quick brown fox jumps over the lazy dog";
+        OverlayTextDiff.Edit edit = diff(oldText, newText, oldText.length());
+        assertEquals(-(oldText.length() - 3), edit.move);
+        assertEquals(2, edit.delete);
+        assertEquals("he", edit.insert);
+        assertEquals(3, edit.caretAfter);
+        assertEquals(newText, apply(oldText, oldText.length(), edit));
+    }
+
+    @Test
+    public void followUpEditMovesFromTrackedCaret() {
+        String first = "Teh quick fox";
+        String second = "The quick fox";
+        OverlayTextDiff.Edit edit = diff(first, second, first.length());
+        int caret = edit.caretAfter;
+
+        String third = "The quick fox!";
+        edit = diff(second, third, caret);
+        assertEquals(second.length() - caret, edit.move);
+        assertEquals(0, edit.delete);
+        assertEquals("!", edit.insert);
+        assertEquals(third, apply(second, caret, edit));
+    }
+
+    @Test
+    public void emojiDeletionCountsClusters() {
+        String oldText = "hi 😀😀";
+        String newText = "hi 😀";
+        OverlayTextDiff.Edit edit = diff(oldText, newText, oldText.length());
+        assertEquals(0, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("", edit.insert);
+    }
+
+    @Test
+    public void emojiSwapNeverSplitsSurrogatePair() {
+        // U+1F600 and U+1F601 share the high surrogate
+        String oldText = "a😀b";
+        String newText = "a😁b";
+        OverlayTextDiff.Edit edit = diff(oldText, newText, oldText.length());
+        assertEquals(-1, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("😁", edit.insert);
+        assertEquals(newText, apply(oldText, oldText.length(), edit));
+    }
+
+    @Test
+    public void midTextEditNextToSkinToneEmoji_movesByClusters() {
+        // 👍🏽 is two code points but one arrow press
+        String oldText = "a👍🏽b";
+        String newText = "ax👍🏽b";
+        OverlayTextDiff.Edit edit = diff(oldText, newText, oldText.length());
+        assertEquals(-2, edit.move);
+        assertEquals(0, edit.delete);
+        assertEquals("x", edit.insert);
+        assertEquals(newText, apply(oldText, oldText.length(), edit));
+    }
+
+    @Test
+    public void removingSkinTone_replacesTheWholeEmoji() {
+        OverlayTextDiff.Edit edit = diff("a👍🏽b", "a👍b", 6);
+        assertEquals(-1, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("👍", edit.insert);
+        assertEquals("a👍b", apply("a👍🏽b", 6, edit));
+    }
+
+    @Test
+    public void combiningAccent_replacesItsBaseLetter() {
+        // Typing U+0301 after "e" can't be sent on its own: Backspace and arrows take "é" whole
+        OverlayTextDiff.Edit edit = diff("cafe", "cafe\u0301", 4);
+        assertEquals(0, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("e\u0301", edit.insert);
+
+        String oldText = "cafe\u0301 au lait";
+        String newText = "cafe au lait";
+        edit = diff(oldText, newText, oldText.length());
+        assertEquals(-8, edit.move);
+        assertEquals(1, edit.delete);
+        assertEquals("e", edit.insert);
+        assertEquals(newText, apply(oldText, oldText.length(), edit));
+    }
+
+    @Test
+    public void unchangedText_keepsCaret() {
+        OverlayTextDiff.Edit edit = diff("abc", "abc", 1);
+        assertTrue(edit.isEmpty());
+        assertEquals(1, edit.caretAfter);
+    }
+
+    @Test
+    public void withoutCursorSupport_editsAtEndOnly() {
+        OverlayTextDiff.Edit edit = OverlayTextDiff.diff("Teh fox", "The fox", 3, false, new OverlayTextDiff.Edit());
+        assertEquals(0, edit.move);
+        assertEquals(6, edit.delete);
+        assertEquals("he fox", edit.insert);
+    }
+
+    @Test
+    public void randomEditsRoundTrip() {
+        java.util.Random random = new java.util.Random(42);
+        String alphabet = "ab 😀\u0301🏽";
+        String text = "";
+        int caret = 0;
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder next = new StringBuilder(text);
+            int at = text.isEmpty() ? 0 : text.offsetByCodePoints(0, random.nextInt(text.codePointCount(0, text.length()) + 1));
+            if (random.nextBoolean() && at < text.length()) {
+                next.delete(at, text.offsetByCodePoints(at, 1));
+            } else {
+                int cp = alphabet.codePointAt(alphabet.offsetByCodePoints(0, random.nextInt(6)));
+                next.insert(at, Character.toChars(cp));
+            }
+            String newText = next.toString();
+            OverlayTextDiff.Edit edit = diff(text, newText, caret);
+            assertEquals(newText, apply(text, caret, edit));
+            text = newText;
+            caret = edit.caretAfter;
+        }
+    }
+}
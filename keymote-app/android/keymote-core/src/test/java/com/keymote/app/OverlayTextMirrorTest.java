@@ -0,0 +1,200 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay's gap-buffer text mirror. Edits are
+ * applied to a simple model of the desktop (a string and a caret, moved and
+ * deleted in grapheme clusters) and both must end up matching the EditText.
+ */
+public class OverlayTextMirrorTest {
+
+    private static final String[] PIECES = {"a", "b", "e", " ", "é", "😀", "😁", "🈀", "👍🏽",
+            "\u0301", "🏽", "\u200D", "🇫", "🇷", "\r", "\n"};
+
+    // What the desktop injector does with an edit
+    private static final class Desktop {
+        final StringBuilder text = new StringBuilder();
+        int caret;
+
+        void apply(OverlayTextDiff.Edit edit) {
+            caret = GraphemeClusters.offset(text, caret, edit.move);
+            int from = GraphemeClusters.offset(text, caret, -edit.delete);
+            text.delete(from, caret);
+            text.insert(from, edit.insert);
+            caret = from + edit.insert.length();
+        }
+    }
+
+    private final OverlayTextMirror mirror = new OverlayTextMirror();
+    private final Desktop desktop = new Desktop();
+    private final OverlayTextDiff.Edit edit = new OverlayTextDiff.Edit();
+
+    // Replaces old[start, start + before) with `insert`, reported as a TextWatcher would
+    private OverlayTextDiff.Edit change(int start, int before, String insert, boolean allowMove) {
+        String old = mirror.toString();
+        String now = old.substring(0, start) + insert + old.substring(start + before);
+        return report(now, start, before, insert.length(), allowMove);
+    }
+
+    private OverlayTextDiff.Edit report(String now, int start, int before, int count, boolean allowMove) {
+        mirror.replace(start, before, now, count, allowMove, edit);
+        desktop.apply(edit);
+        assertEquals(now, mirror.toString());
+        assertEquals(now, desktop.text.toString());
+        assertEquals(desktop.caret, edit.caretAfter);
+        assertEquals(desktop.caret, mirror.caret());
+        if (!allowMove) assertEquals(0, edit.move);
+        return edit;
+    }
+
+    @Test
+    public void typingAtTheEnd_sendsOnlyTheNewChars() {
+        change(0, 0, "hel", true);
+        OverlayTextDiff.Edit e = change(3, 0, "lo", true);
+        assertEquals(0, e.move);
+        assertEquals(0, e.delete);
+        assertEquals("lo", e.insert);
+    }
+
+    @Test
+    public void imeRecommit_isTrimmedToTheChange() {
+        change(0, 0, "helo world", true);
+        // The IME replaces the whole word "helo" with "hello"
+        OverlayTextDiff.Edit e = change(0, 4, "hello", true);
+        assertEquals(-7, e.move);
+        assertEquals(0, e.delete);
+        assertEquals("l", e.insert);
+        // Committing the same word again changes nothing
+        e = change(0, 5, "hello", true);
+        assertTrue(e.isEmpty());
+    }
+
+    @Test
+    public void emojiDelete_countsOneCluster() {
+        change(0, 0, "a👍🏽", true);
+        OverlayTextDiff.Edit e = change(1, 4, "", true);
+        assertEquals(1, e.delete);
+        assertEquals("a", mirror.toString());
+    }
+
+    @Test
+    public void changeInsideSurrogatePair_widensToTheWholeEmoji() {
+        change(0, 0, "a😀b", true);
+        // 😀 -> 😁 share the high surrogate; the watcher reports just the low one
+        String now = "a😁b";
+        OverlayTextDiff.Edit e = report(now, 2, 1, 1, true);
+        assertEquals(-1, e.move);
+        assertEquals(1, e.delete);
+        assertEquals("😁", e.insert);
+    }
+
+    @Test
+    public void recommitEndingInEmoji_keepsThePairWhole() {
+        change(0, 0, "x😀", true);
+        OverlayTextDiff.Edit e = change(0, 3, "x😁", true);
+        assertEquals(1, e.delete);
+        assertEquals("😁", e.insert);
+    }
+
+    @Test
+    public void emojiSharingOnlyTheLowSurrogate_isReplacedWhole() {
+        change(0, 0, "a😀b", true);
+        // U+1F600 and U+1F200 differ only in the high surrogate
+        OverlayTextDiff.Edit e = change(1, 2, "🈀", true);
+        assertEquals(-1, e.move);
+        assertEquals(1, e.delete);
+        assertEquals("🈀", e.insert);
+    }
+
+    @Test
+    public void editBesideSkinToneEmoji_movesByClusters() {
+        change(0, 0, "a👍🏽b", true);
+        OverlayTextDiff.Edit e = change(1, 0, "x", true);
+        assertEquals(-2, e.move);
+        assertEquals(0, e.delete);
+        assertEquals("x", e.insert);
+        // Dropping the modifier alone retypes the bare thumb
+        e = change(4, 2, "", true);
+        assertEquals(1, e.move);
+        assertEquals(1, e.delete);
+        assertEquals("👍", e.insert);
+    }
+
+    @Test
+    public void combiningAccent_editsWholeCluster() {
+        change(0, 0, "cafe b", true);
+        OverlayTextDiff.Edit e = change(4, 0, "\u0301", true);
+        assertEquals(-2, e.move);
+        assertEquals(1, e.delete);
+        assertEquals("e\u0301", e.insert);
+        e = change(4, 1, "", true);
+        assertEquals(0, e.move);
+        assertEquals(1, e.delete);
+        assertEquals("e", e.insert);
+    }
+
+    @Test
+    public void withoutMove_retypesTheTail() {
+        change(0, 0, "abcdef", false);
+        OverlayTextDiff.Edit e = change(1, 1, "X", false);
+        assertEquals(0, e.move);
+        assertEquals(5, e.delete);
+        assertEquals("Xcdef", e.insert);
+    }
+
+    @Test
+    public void set_placesTheCaret() {
+        mirror.set("hello", 2);
+        desktop.text.append("hello");
+        desktop.caret = 2;
+        assertEquals(2, mirror.caret());
+        change(5, 0, "!", true);
+        assertEquals(3, edit.move);
+    }
+
+    @Test
+    public void randomEdits_matchReference() {
+        randomEdits(new Random(20240611L), true, 20_000);
+    }
+
+    @Test
+    public void randomEditsWithoutMove_matchReference() {
+        randomEdits(new Random(7L), false, 5_000);
+    }
+
+    // Random replaces at code point boundaries, sometimes widened the way an
+    // IME re-commits a whole word around the real change
+    private void randomEdits(Random random, boolean allowMove, int steps) {
+        for (int step = 0; step < steps; step++) {
+            String old = mirror.toString();
+            int points = old.codePointCount(0, old.length());
+            int a = random.nextInt(points + 1);
+            int b = Math.min(points, a + (random.nextInt(4) == 0 ? random.nextInt(6) : 0));
+            if (points > 400) b = Math.min(points, a + 20); // keep the text from growing forever
+            StringBuilder insert = new StringBuilder();
+            int n = points > 400 ? 0 : random.nextInt(4);
+            for (int i = 0; i < n; i++) {
+                insert.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            int start = old.offsetByCodePoints(0, a);
+            int end = old.offsetByCodePoints(0, b);
+            String now = old.substring(0, start) + insert + old.substring(end);
+            int before = end - start;
+            int count = insert.length();
+            if (random.nextBoolean()) {
+                // Unchanged text on both sides reported as part of the change
+                int left = start - old.offsetByCodePoints(start, -Math.min(a, random.nextInt(3)));
+                int right = old.offsetByCodePoints(end, Math.min(points - b, random.nextInt(3))) - end;
+                start -= left;
+                before += left + right;
+                count += left + right;
+            }
+            report(now, start, before, count, allowMove);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for overlay frame compression.
+ */
+public class OverlayWireCodecTest {
+
+    private static OverlayFrameWriter.Frame edit(String text, long seq) {
+        OverlayFrameWriter.Frame frame = new OverlayFrameWriter.Frame();
+        frame.kind = OverlayFrameWriter.KIND_EDIT;
+        frame.text = text;
+        frame.seq = seq;
+        frame.firstSeq = seq;
+        return frame;
+    }
+
+    private static String paste(int length, int seed) {
+        StringBuilder sb = new StringBuilder();
+        java.util.Random random = new java.util.Random(seed);
+        String[] words = {"return ", "value ", "overlay ", "naïve ", "日本 ", "\n"};
+        while (sb.length() < length) {
+            sb.append(words[random.nextInt(words.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String roundTrip(OverlayWireCodec encoder, OverlayWireCodec decoder, String text, long seq) {
+        ByteBuffer buf = encoder.encode(edit(text, seq));
+        OverlayFrameWriter.Frame out = new OverlayFrameWriter.Frame();
+        assertTrue(decoder.decode(buf, out));
+        assertEquals(seq, out.seq);
+        return out.text;
+    }
+
+    @Test
+    public void smallFrames_stayUncompressed() {
+        OverlayWireCodec encoder = new OverlayWireCodec();
+        encoder.setCompression(true);
+        ByteBuffer buf = encoder.encode(edit("hello", 1));
+        assertEquals(0, buf.get(1) & OverlayWireCodec.FLAG_DEFLATE);
+        assertEquals(0, encoder.getFramesCompressed());
+    }
+
+    @Test
+    public void largeFrames_compressAndRoundTrip() {
+        OverlayWireCodec encoder = new OverlayWireCodec();
+        encoder.setCompression(true);
+        OverlayWireCodec decoder = new OverlayWireCodec();
+        String text = paste(5000, 1);
+        ByteBuffer buf = encoder.encode(edit(text, 1));
+        assertNotEquals(0, buf.get(1) & OverlayWireCodec.FLAG_DEFLATE);
+        assertTrue(buf.remaining() < text.length() / 2);
+        OverlayFrameWriter.Frame out = new OverlayFrameWriter.Frame();
+        assertTrue(decoder.decode(buf, out));
+        assertEquals(text, out.text);
+        assertEquals(1, encoder.getFramesCompressed());
+    }
+
+    @Test
+    public void historyStaysInStepAcrossFrames() {
+        OverlayWireCodec encoder = new OverlayWireCodec();
+        encoder.setCompression(true);
+        OverlayWireCodec decoder = new OverlayWireCodec();
+        long seq = 1;
+        // Mix of plain and compressed frames, some longer than the whole history
+        for (int length : new int[] {3, 700, 1, 9000, 40, 600, 5000, 2, 513}) {
+            String text = paste(length, length);
+            assertEquals(text, roundTrip(encoder, decoder, text, seq++));
+        }
+    }
+
+    @Test
+    public void repeatedPaste_usesHistoryAsDictionary() {
+        OverlayWireCodec encoder = new OverlayWireCodec();
+        encoder.setCompression(true);
+        OverlayWireCodec decoder = new OverlayWireCodec();
+        // Random digits barely compress on their own; a repeat should come out tiny
+        StringBuilder digits = new StringBuilder();
+        java.util.Random random = new java.util.Random(7);
+        while (digits.length() < 2000) {
+            digits.append(random.nextInt(10));
+        }
+        String text = digits.toString();
+        ByteBuffer first = encoder.encode(edit(text, 1));
+        int firstSize = first.remaining();
+        assertTrue(decoder.decode(first, new OverlayFrameWriter.Frame()));
+        ByteBuffer again = encoder.encode(edit(text, 2));
+        assertTrue(again.remaining() < firstSize / 2);
+        OverlayFrameWriter.Frame out = new OverlayFrameWriter.Frame();
+        assertTrue(decoder.decode(again, out));
+        assertEquals(text, out.text);
+    }
+
+    @Test
+    public void compressionOff_sendsPlainText() {
+        OverlayWireCodec encoder = new OverlayWireCodec();
+        ByteBuffer buf = encoder.encode(edit(paste(5000, 3), 1));
+        assertEquals(0, buf.get(1) & OverlayWireCodec.FLAG_DEFLATE);
+    }
+}
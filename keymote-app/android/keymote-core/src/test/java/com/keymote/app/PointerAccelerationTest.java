@@ -0,0 +1,40 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the touchpad acceleration curve.
+ */
+public class PointerAccelerationTest {
+
+    @Test
+    public void gain_isFlatOutsideRamp() {
+        PointerAcceleration accel = new PointerAcceleration(1, 3, 0.5, 1.5);
+        assertEquals(1, accel.gain(0), 1e-9);
+        assertEquals(1, accel.gain(0.5), 1e-9);
+        assertEquals(3, accel.gain(1.5), 1e-9);
+        assertEquals(3, accel.gain(10), 1e-9);
+    }
+
+    @Test
+    public void gain_rampsLinearly() {
+        PointerAcceleration accel = new PointerAcceleration(1, 3, 0.5, 1.5);
+        assertEquals(2, accel.gain(1.0), 1e-9);
+        assertTrue(accel.gain(0.75) < accel.gain(1.25));
+    }
+
+    @Test
+    public void scale_usesSampleSpeed() {
+        PointerAcceleration accel = new PointerAcceleration(1, 3, 0.5, 1.5);
+        // 3-4-5 triangle: 5 dp in 5 ms = 1 dp/ms
+        assertEquals(2, accel.scale(3, 4, 5), 1e-9);
+        assertEquals(1, accel.scale(3, 4, 0), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRamp_isRejected() {
+        new PointerAcceleration(1, 2, 1, 1);
+    }
+}
@@ -0,0 +1,71 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for per-frame pointer coalescing.
+ */
+public class PointerAccumulatorTest {
+
+    @Test
+    public void moves_coalesceIntoOne() {
+        PointerAccumulator acc = new PointerAccumulator();
+        for (int i = 0; i < 8; i++) acc.move(3, -2);
+        List<PointerAccumulator.Event> out = acc.drain();
+        assertEquals(1, out.size());
+        assertEquals(24, out.get(0).dx);
+        assertEquals(-16, out.get(0).dy);
+        assertEquals(8, acc.getEventsIn());
+        assertEquals(1, acc.getEventsOut());
+    }
+
+    @Test
+    public void fractions_carryAcrossFrames() {
+        PointerAccumulator acc = new PointerAccumulator();
+        acc.move(0.4, -0.4);
+        assertFalse(acc.hasPending());
+        assertTrue(acc.drain().isEmpty());
+        acc.move(0.4, -0.4);
+        acc.move(0.4, -0.4);
+        List<PointerAccumulator.Event> out = acc.drain();
+        assertEquals(1, out.size());
+        assertEquals(1, out.get(0).dx);
+        assertEquals(-1, out.get(0).dy);
+    }
+
+    @Test
+    public void actions_keepOrderWithMotion() {
+        PointerAccumulator acc = new PointerAccumulator();
+        acc.move(5, 0);
+        acc.action("left-down", 0);
+        assertTrue(acc.hasActions());
+        acc.move(7, 1);
+        acc.action("left-up", 0);
+        List<PointerAccumulator.Event> out = acc.drain();
+        assertEquals(4, out.size());
+        assertEquals(PointerAccumulator.MOVE, out.get(0).action);
+        assertEquals(5, out.get(0).dx);
+        assertEquals("left-down", out.get(1).action);
+        assertEquals(7, out.get(2).dx);
+        assertEquals("left-up", out.get(3).action);
+        assertFalse(acc.hasPending());
+    }
+
+    @Test
+    public void consecutiveScrolls_merge() {
+        PointerAccumulator acc = new PointerAccumulator();
+        acc.action(PointerAccumulator.SCROLL, 120);
+        acc.action(PointerAccumulator.SCROLL, 120);
+        acc.move(2, 2);
+        acc.action(PointerAccumulator.SCROLL, -120);
+        List<PointerAccumulator.Event> out = acc.drain();
+        assertEquals(3, out.size());
+        assertEquals(240, out.get(0).delta);
+        assertEquals(PointerAccumulator.MOVE, out.get(1).action);
+        assertEquals(-120, out.get(2).delta);
+    }
+}
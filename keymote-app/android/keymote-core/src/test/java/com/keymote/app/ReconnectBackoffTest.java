@@ -0,0 +1,46 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the overlay reconnect backoff.
+ */
+public class ReconnectBackoffTest {
+
+    @Test
+    public void delaysStayBetweenBaseAndDoublingCeiling() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, new Random(1));
+        long ceiling = 1000;
+        for (int attempt = 0; attempt < 12; attempt++) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(delay >= 1000);
+            assertTrue("attempt " + attempt + ": " + delay, delay <= ceiling);
+            ceiling = Math.min(ceiling * 2, 30000);
+        }
+        assertEquals(12, backoff.getAttempts());
+    }
+
+    @Test
+    public void delaysAreJittered() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, new Random(2));
+        for (int i = 0; i < 5; i++) backoff.nextDelayMs();
+        long first = backoff.nextDelayMs();
+        boolean varied = false;
+        for (int i = 0; i < 10 && !varied; i++) {
+            varied = backoff.nextDelayMs() != first;
+        }
+        assertTrue(varied);
+    }
+
+    @Test
+    public void resetStartsOverAtBase() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1000, 30000, new Random(3));
+        for (int i = 0; i < 8; i++) backoff.nextDelayMs();
+        backoff.reset();
+        assertEquals(1000, backoff.nextDelayMs());
+    }
+}
@@ -0,0 +1,67 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Local unit tests for the gallery scan result cache.
+ */
+public class ScanResultCacheTest {
+
+    private static ScanResultCache.Entry entry(String fingerprint, String data) {
+        return new ScanResultCache.Entry(fingerprint, data, 1080, 2400, "mlkitQr", 1000);
+    }
+
+    @Test
+    public void sameFingerprint_hits() {
+        ScanResultCache cache = new ScanResultCache(4);
+        cache.put("content://media/1", entry("s:100,m:5", "keymote://pair/1"));
+        assertEquals("keymote://pair/1", cache.get("content://media/1", "s:100,m:5").data);
+        assertNull(cache.get("content://media/2", "s:100,m:5"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void changedFile_invalidatesEntry() {
+        ScanResultCache cache = new ScanResultCache(4);
+        cache.put("content://media/1", entry("s:100,m:5", "old"));
+        assertNull(cache.get("content://media/1", "s:120,m:9"));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.size());
+        // Gone for good, even with the old fingerprint
+        assertNull(cache.get("content://media/1", "s:100,m:5"));
+    }
+
+    @Test
+    public void leastRecentlyUsed_isEvicted() {
+        ScanResultCache cache = new ScanResultCache(2);
+        cache.put("a", entry("1", "A"));
+        cache.put("b", entry("1", "B"));
+        assertNotNull(cache.get("a", "1"));
+        cache.put("c", entry("1", "C"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b", "1"));
+        assertNotNull(cache.get("a", "1"));
+        assertNotNull(cache.get("c", "1"));
+    }
+
+    @Test
+    public void serialize_roundTripsPayloadAndOrder() {
+        ScanResultCache cache = new ScanResultCache(2);
+        cache.put("a", entry("1", "line1\nline2\ttab \\ slash"));
+        cache.put("b", entry("2", "B"));
+        cache.get("a", "1");
+
+        ScanResultCache restored = ScanResultCache.parse(cache.serialize() + "garbage\n", 2);
+        assertEquals(2, restored.size());
+        // "b" was least recently used before saving, so it still goes first
+        restored.put("c", entry("3", "C"));
+        assertNull(restored.get("b", "2"));
+        ScanResultCache.Entry a = restored.get("a", "1");
+        assertEquals("line1\nline2\ttab \\ slash", a.data);
+        assertEquals(1080, a.width);
+        assertEquals("mlkitQr", a.via);
+    }
+}
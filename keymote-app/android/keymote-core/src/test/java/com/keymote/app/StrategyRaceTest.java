@@ -0,0 +1,160 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Local unit tests for first-result-wins strategy racing.
+ */
+public class StrategyRaceTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static StrategyRace.Outcome<String> await(StrategyRace<String> race, ExecutorService executor)
+            throws InterruptedException {
+        AtomicReference<StrategyRace.Outcome<String>> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        race.start(executor, outcome -> {
+            result.set(outcome);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void fastestHit_winsAndCancelsTheRest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        StrategyRace<String> race = new StrategyRace<String>()
+                .add("slow", () -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(10_000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                    return "slow";
+                })
+                .add("fast", () -> {
+                    // Win only once "slow" is running, so it is interrupted rather than dropped
+                    started.await();
+                    return "fast";
+                });
+        StrategyRace.Outcome<String> outcome = await(race, executor);
+        assertEquals("fast", outcome.winner);
+        assertEquals("fast", outcome.value);
+        assertEquals(StrategyRace.Status.CANCELLED, outcome.attempts.get(0).status);
+        assertEquals(StrategyRace.Status.WON, outcome.attempts.get(1).status);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void misses_doNotWin() throws Exception {
+        StrategyRace<String> race = new StrategyRace<String>()
+                .add("none", () -> null)
+                .add("later", () -> {
+                    Thread.sleep(50);
+                    return "found";
+                });
+        StrategyRace.Outcome<String> outcome = await(race, executor);
+        assertEquals("later", outcome.winner);
+        assertEquals(StrategyRace.Status.MISSED, outcome.attempts.get(0).status);
+        assertTrue(outcome.attempts.get(1).elapsedMs >= 40);
+    }
+
+    @Test
+    public void allMissing_reportsOnceWithFailures() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        StrategyRace<String> race = new StrategyRace<String>()
+                .add("a", () -> null)
+                .add("b", () -> {
+                    throw new IllegalStateException("boom");
+                });
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<StrategyRace.Outcome<String>> result = new AtomicReference<>();
+        race.start(executor, outcome -> {
+            calls.incrementAndGet();
+            result.set(outcome);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(1, calls.get());
+        assertNull(result.get().winner);
+        assertEquals(StrategyRace.Status.FAILED, result.get().attempts.get(1).status);
+        assertEquals("boom", result.get().attempts.get(1).error);
+    }
+
+    @Test
+    public void queuedStrategies_areDroppedAfterAWin() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        try {
+            AtomicInteger ran = new AtomicInteger();
+            StrategyRace<String> race = new StrategyRace<String>()
+                    .add("first", () -> "hit")
+                    .add("second", () -> {
+                        ran.incrementAndGet();
+                        return "also";
+                    });
+            StrategyRace.Outcome<String> outcome = await(race, single);
+            assertEquals("first", outcome.winner);
+            single.shutdown();
+            assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(0, ran.get());
+            assertEquals(StrategyRace.Status.CANCELLED, outcome.attempts.get(1).status);
+        } finally {
+            single.shutdownNow();
+        }
+    }
+
+    @Test
+    public void settled_waitsForLosersToStop() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch settled = new CountDownLatch(1);
+        AtomicInteger settledCalls = new AtomicInteger();
+        StrategyRace<String> race = new StrategyRace<String>()
+                .add("stubborn", () -> {
+                    // Ignores interruption, like a decoder deep in native code
+                    started.countDown();
+                    while (true) {
+                        try {
+                            release.await();
+                            return "late";
+                        } catch (InterruptedException ignored) {
+                        }
+                    }
+                })
+                .add("fast", () -> {
+                    started.await();
+                    return "fast";
+                })
+                .whenSettled(() -> {
+                    settledCalls.incrementAndGet();
+                    settled.countDown();
+                });
+        StrategyRace.Outcome<String> outcome = await(race, executor);
+        assertEquals("fast", outcome.winner);
+        assertFalse(settled.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(settled.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(1, settledCalls.get());
+    }
+}
@@ -0,0 +1,94 @@
+package com.keymote.app;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.QRCodeWriter;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Local unit tests for the tiled, multi-binarizer ZXing fallback.
+ */
+public class TiledQrDecoderTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    // Noisy mid-grey page with a QR code drawn at (x, y)
+    private static byte[] page(int width, int height, String text, int size, int x, int y) throws Exception {
+        Random random = new Random(7);
+        byte[] luma = new byte[width * height];
+        for (int i = 0; i < luma.length; i++) luma[i] = (byte) (110 + random.nextInt(40));
+        if (text != null) {
+            BitMatrix code = new QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, size, size);
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    luma[(y + row) * width + x + col] = (byte) (code.get(col, row) ? 20 : 235);
+                }
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void codeInLargeImage_isFound() throws Exception {
+        byte[] luma = page(1600, 1300, "keymote://pair/1234", 150, 1300, 1000);
+        TiledQrDecoder.Match match = new TiledQrDecoder(pool).decode(luma, 1600, 1300);
+        assertNotNull(match);
+        assertEquals("keymote://pair/1234", match.text);
+        assertEquals(BarcodeFormat.QR_CODE, match.format);
+        assertTrue(match.attempted >= 1 && match.attempted <= match.passes);
+    }
+
+    @Test
+    public void noCode_triesEveryPass() throws Exception {
+        byte[] luma = page(1000, 800, null, 0, 0, 0);
+        TiledQrDecoder decoder = new TiledQrDecoder(pool).setFormats(List.of(BarcodeFormat.QR_CODE));
+        assertNull(decoder.decode(luma, 1000, 800));
+    }
+
+    @Test
+    public void passes_coverImageWithBothBinarizers() {
+        List<TiledQrDecoder.Pass> passes = TiledQrDecoder.passes(new byte[2000 * 1500], 2000, 1500);
+        assertEquals("full hybrid", passes.get(0).name);
+        assertEquals("full histogram", passes.get(1).name);
+        assertEquals("half hybrid", passes.get(2).name);
+        assertEquals(1000, passes.get(2).dataWidth);
+        boolean right = false;
+        boolean bottom = false;
+        for (TiledQrDecoder.Pass pass : passes) {
+            assertTrue(pass.left + pass.width <= pass.dataWidth);
+            assertTrue(pass.top + pass.height <= pass.dataHeight);
+            if (pass.name.startsWith("tile")) {
+                right |= pass.left + pass.width == 2000;
+                bottom |= pass.top + pass.height == 1500;
+            }
+        }
+        assertTrue(right && bottom);
+        // Small images are only tried whole
+        assertEquals(2, TiledQrDecoder.passes(new byte[400 * 300], 400, 300).size());
+    }
+
+    @Test
+    public void argbToLuma_matchesZXing() {
+        int[] argb = {0xff000000, 0xffffffff, 0xff336699, 0x80fe01c3};
+        byte[] luma = new byte[argb.length + 1];
+        TiledQrDecoder.argbToLuma(argb, argb.length, luma, 1);
+        byte[] expected = new RGBLuminanceSource(argb.length, 1, argb).getMatrix();
+        for (int i = 0; i < argb.length; i++) {
+            assertEquals(expected[i], luma[i + 1]);
+        }
+    }
+}
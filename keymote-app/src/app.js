@@ -62,6 +62,10 @@ const connectionLog = {
     }
 };
 
+// Messages the desktop injects the same way whichever channel they arrive on;
+// these may ride the overlay service's native socket instead of P2P
+const NATIVE_INPUT_TYPES = new Set(['text', 'key', 'shortcut', 'mouse']);
+
 class RemoteInputApp {
     constructor() {
         this.peer = null;
@@ -86,6 +90,18 @@ class RemoteInputApp {
         this.typingDelay = parseInt(localStorage.getItem('typingDelay') || '50', 10);
         this.hapticFeedback = localStorage.getItem('hapticFeedback') !== 'false';
         this.overlayBubbleEnabled = localStorage.getItem('overlayBubble') === 'true';
+        // Overlay service's desktop connection, shared for input while it is up
+        this.nativeLink = { connected: false, appInput: false };
+        // Pairing credentials of the current P2P session, handed to the overlay service:
+        // the desktop takes app input and mouse ops on the relay only once they check out
+        this.overlayCredentials = {};
+        // Touchpad events collected during the current animation frame
+        this.pointerQueue = [];
+        this.pointerQueuedAt = 0;
+        this.pointerFrame = null;
+        this.pointerCarry = { x: 0, y: 0 };
+        // Last time native was told about input, for the CPU/Wi-Fi lock policy
+        this.inputNotedAt = 0;
 
         this.theme = localStorage.getItem('theme') || 'dark';
 
@@ -433,8 +449,23 @@ class RemoteInputApp {
                 return;
             }
 
-            // Call native plugin - it handles image picking + ML Kit scanning
-            const result = await GalleryQrScanner.scanFromGallery();
+            // Call native plugin - it handles image picking + ML Kit scanning.
+            // Several screenshots may be picked; each result streams back as it
+            // is decoded, and the first code found is used straight away.
+            let handled = false;
+            const useResult = (r) => {
+                if (handled || !r.found || !r.data) return;
+                handled = true;
+                console.log('QR found (Native):', r.data);
+                this.handleQrData(r.data);
+            };
+            const listener = await GalleryQrScanner.addListener('galleryScanResult', useResult);
+            let result;
+            try {
+                result = await GalleryQrScanner.scanManyFromGallery();
+            } finally {
+                listener.remove();
+            }
             console.log('Native gallery scan result:', result);
 
             // Show debug with copy option
@@ -445,10 +476,8 @@ class RemoteInputApp {
                 return;
             }
 
-            if (result.found && result.data) {
-                console.log('QR found (Native):', result.data);
-                this.handleQrData(result.data);
-            } else {
+            (result.results || []).forEach(useResult);
+            if (!handled) {
                 // Native scan reported failure (e.g. "Strategies 1-4 failed")
                 // Try fallback JS scanner if native found nothing
                 console.log('Native scan empty, trying JS fallback...');
@@ -1435,7 +1464,7 @@ class RemoteInputApp {
                             longPressTimer = null;
                         }
 
-                        this.sendMouse('move', { dx: Math.round(dx), dy: Math.round(dy) });
+                        this.sendMouse('move', { dx, dy });
                         lastTouch = { x: e.touches[0].clientX, y: e.touches[0].clientY };
                     }
                 } else if (e.touches.length === 2 && lastPinchDist !== null) {
@@ -1671,6 +1700,7 @@ class RemoteInputApp {
                         connectionLog.log('auth_success', { computerName: this.computerName });
                         this.isConnected = true;
                         this.isAuthenticated = true;
+                        this.overlayCredentials = { deviceId: this.deviceId, token };
 
                         // Track last connected hostId for presence-based reconnection
                         if (isSecure) this.lastConnectedHostId = pinOrHostId;
@@ -2257,6 +2287,7 @@ class RemoteInputApp {
                 console.warn('[FloatingOverlay] Plugin not available');
                 return;
             }
+            this.attachNativeLink(FloatingInput);
 
             // Listen for permission granted after returning from Settings
             if (!this._overlayPermissionListener) {
@@ -2267,7 +2298,8 @@ class RemoteInputApp {
                         if (relayInfo) {
                             await FloatingInput.startOverlay({
                                 ips: relayInfo.ips,
-                                port: relayInfo.port
+                                port: relayInfo.port,
+                                ...this.overlayCredentials
                             });
                         }
                         console.log('[FloatingOverlay] Started after permission grant');
@@ -2291,7 +2323,8 @@ class RemoteInputApp {
 
             await FloatingInput.startOverlay({
                 ips: relayInfo.ips,
-                port: relayInfo.port
+                port: relayInfo.port,
+                ...this.overlayCredentials
             });
             console.log('[FloatingOverlay] Started with relay:', relayInfo.ips, 'port:', relayInfo.port);
         } catch (err) {
@@ -2299,6 +2332,22 @@ class RemoteInputApp {
         }
     }
 
+    // Follow the overlay service's connection; while the desktop takes app input
+    // on it, send() routes input there so overlay and app input share one
+    // ordered stream (and one keepalive) instead of racing over two
+    async attachNativeLink(FloatingInput) {
+        if (this._nativeLinkListener) return;
+        try {
+            this._nativeLinkListener = FloatingInput.addListener('nativeLinkState', (state) => {
+                this.nativeLink = state;
+                console.log('[NativeLink]', state.appInput ? 'Input shares the overlay connection' : 'Input on P2P');
+            });
+            this.nativeLink = await FloatingInput.attachNativeLink();
+        } catch (err) {
+            console.warn('[NativeLink] Unavailable:', err.message);
+        }
+    }
+
     async stopFloatingOverlay() {
         try {
             const { FloatingInput } = window.Capacitor?.Plugins || {};
@@ -2310,6 +2359,7 @@ class RemoteInputApp {
             }
 
             await FloatingInput.stopOverlay();
+            this.nativeLink = { connected: false, appInput: false };
             console.log('[FloatingOverlay] Stopped');
         } catch { }
     }
@@ -2320,6 +2370,7 @@ class RemoteInputApp {
         this.acquireWakeLock();
         this.startKeepAliveAudio();
         this.startForegroundService();
+        window.Capacitor?.Plugins?.FloatingInput?.setSessionActive({ active: true }).catch(() => { });
         // Floating overlay starts when overlay-relay-info arrives from desktop
         // (sent right after auth-result, handled in P2P data listener)
         this._startConnectionWatchdog();
@@ -2331,6 +2382,7 @@ class RemoteInputApp {
         this.releaseWakeLock();
         this.stopKeepAliveAudio();
         this.stopForegroundService();
+        window.Capacitor?.Plugins?.FloatingInput?.setSessionActive({ active: false }).catch(() => { });
         // NOTE: Do NOT stop the floating overlay here.
         // The overlay runs in a separate process with its own WebSocket connection.
         // It reconnects independently and survives P2P disconnects and app kills.
@@ -2574,7 +2626,12 @@ class RemoteInputApp {
     }
 
     send(m) {
-        // P2P Only
+        if (NATIVE_INPUT_TYPES.has(m.type)) this.noteInputActivity();
+        if (this.nativeLink.appInput && NATIVE_INPUT_TYPES.has(m.type)) {
+            this.sendNative(m);
+            return true;
+        }
+        // Everything else (auth, screen, audio) is P2P only
         if (this.p2pConn && this.p2pConn.open) {
             this.p2pConn.send(m);
             return true;
@@ -2582,6 +2639,31 @@ class RemoteInputApp {
         return false;
     }
 
+    // Keeps the native locks from idling out while the user is typing or pointing;
+    // at most once a second, well inside the policy's active window
+    noteInputActivity() {
+        const now = Date.now();
+        if (now - this.inputNotedAt < 1000) return;
+        this.inputNotedAt = now;
+        window.Capacitor?.Plugins?.FloatingInput?.noteInputActivity().catch(() => { });
+    }
+
+    // Resolves once the service has written the frame to its socket; anything it
+    // dropped on the way (full ring, link gone) goes over P2P instead
+    sendNative(m) {
+        const { FloatingInput } = window.Capacitor?.Plugins || {};
+        const fallback = () => {
+            if (this.p2pConn && this.p2pConn.open) this.p2pConn.send(m);
+        };
+        if (!FloatingInput) {
+            fallback();
+            return;
+        }
+        FloatingInput.sendInput({ message: m })
+            .then(({ sent }) => { if (!sent) fallback(); })
+            .catch(fallback);
+    }
+
     handleInput(e) {
         const v = e.target.value;
         if (v.length > this.lastValue.length) this.sendText(v.slice(this.lastValue.length));
@@ -2637,7 +2719,63 @@ class RemoteInputApp {
     }
 
     sendMouse(action, opts = {}) {
-        this.send({ type: 'mouse', action, ...opts });
+        this.queuePointer({ action, ...opts });
+        if (action !== 'move') {
+            // Clicks and scrolls go now, behind the motion queued before them
+            this.flushPointer();
+        }
+    }
+
+    // Pointer events are sent once per animation frame: as one batch to the
+    // native PointerInput plugin while the overlay's connection takes app input
+    // (it coalesces again on vsync), otherwise summed here into one P2P move
+    queuePointer(e) {
+        if (!this.pointerQueue.length) this.pointerQueuedAt = Date.now();
+        this.pointerQueue.push(e);
+        if (!this.pointerFrame) this.pointerFrame = requestAnimationFrame(() => this.flushPointer());
+    }
+
+    flushPointer() {
+        if (this.pointerFrame) {
+            cancelAnimationFrame(this.pointerFrame);
+            this.pointerFrame = null;
+        }
+        const events = this.pointerQueue;
+        if (!events.length) return;
+        this.pointerQueue = [];
+        this.noteInputActivity();
+        const { PointerInput } = window.Capacitor?.Plugins || {};
+        if (PointerInput && this.nativeLink.appInput) {
+            // Unsent: the whole batch, or just the buttons and scrolls a dropped link didn't take
+            PointerInput.sendBatch({ events, t: this.pointerQueuedAt })
+                .then(({ sent, events: unsent }) => { if (!sent) this.sendPointerEvents(unsent || events); })
+                .catch(() => this.sendPointerEvents(events));
+            return;
+        }
+        this.sendPointerEvents(events);
+    }
+
+    // Moves merge into whole pixels; the fraction carries into the next frame
+    sendPointerEvents(events) {
+        for (const e of events) {
+            if (e.action === 'move') {
+                this.pointerCarry.x += e.dx || 0;
+                this.pointerCarry.y += e.dy || 0;
+                continue;
+            }
+            this.sendPointerCarry();
+            this.send({ type: 'mouse', ...e });
+        }
+        this.sendPointerCarry();
+    }
+
+    sendPointerCarry() {
+        const dx = Math.trunc(this.pointerCarry.x);
+        const dy = Math.trunc(this.pointerCarry.y);
+        if (!dx && !dy) return;
+        this.pointerCarry.x -= dx;
+        this.pointerCarry.y -= dy;
+        this.send({ type: 'mouse', action: 'move', dx, dy });
     }
 
     toggleMod(m) { this.modifiers[m] = !this.modifiers[m]; this.el[m]?.classList.toggle('active', this.modifiers[m]); }
@@ -31,6 +31,7 @@ const os = require('os');
 const fs = require('fs');
 const http = require('http');
 const { WebSocketServer } = require('ws');
+const overlayProtocol = require('./overlay-protocol');
 const AutoLaunch = require('auto-launch');
 
 // Enable live reload in development
@@ -55,7 +56,9 @@ try {
     console.warn('[Main] Keyboard injector not available:', error.message);
     keyboardInjector = {
         initialize: () => true,
-        handleKeyEvent: (event) => { console.log('[Mock] Key:', event); return true; }
+        handleKeyEvent: (event) => { console.log('[Mock] Key:', event); return true; },
+        whenInjected: (callback) => callback(),
+        cancelQueued: () => 0
     };
 }
 
@@ -293,6 +296,13 @@ function stopCursorPolling() {
 let overlayWss = null;
 let overlayWsPort = 38745; // Fixed port so overlay can reconnect after Electron restart
 
+// Last outbox seq applied per overlay session, so ops replayed after a reconnect
+// are never typed twice. Survives reconnects, not an Electron restart (the
+// overlay then resumes from the seq it last saw acked).
+const overlaySessions = new Map();
+// Marks the overlay's own text/edit/key frames in the injector queue
+const OVERLAY_INPUT_TAG = 'overlay';
+
 function startOverlayRelay(retryCount = 0) {
     overlayWss = new WebSocketServer({ port: overlayWsPort, host: '0.0.0.0' });
 
@@ -302,15 +312,117 @@ function startOverlayRelay(retryCount = 0) {
 
     overlayWss.on('connection', (ws) => {
         console.log('[OverlayRelay] Mobile overlay connected');
-
-        ws.on('message', (raw) => {
+        let session = null;
+        let resendRequestedAt = -1;
+        // App input and mouse ops drive the whole desktop, so they need a paired
+        // device's token first; the overlay's own text ops don't
+        let authenticated = false;
+        const decoder = overlayProtocol.createDecoder();
+
+        // Announce binary framing; older overlays ignore this and keep sending JSON
+        // (cursor: edits may move the caret before deleting, for mid-text corrections;
+        // acks: sequenced frames are acked so the overlay can trim and replay its outbox;
+        // deflate: large text fields may be compressed against the connection's text history;
+        // auth: send {type: 'auth', deviceId, token} to unlock app and mouse, which the
+        // reply announces: app input wrapped as {type: 'app', data}, and the touchpad's
+        // unsequenced mouse ops)
+        ws.send(JSON.stringify({ type: 'hello', proto: overlayProtocol.PROTOCOL_VERSION, binary: true, cursor: true, acks: true, deflate: true, auth: true }));
+
+        ws.on('message', (raw, isBinary) => {
+            let data;
+            if (isBinary) {
+                try {
+                    data = decoder.decode(raw);
+                } catch (e) {
+                    // The compression history may be out of step now; a fresh connection
+                    // resets it on both ends and the overlay replays what wasn't acked
+                    console.warn('[OverlayRelay] Bad frame, dropping connection:', e.message);
+                    ws.close(1002, 'bad frame');
+                    return;
+                }
+            }
             try {
-                const data = JSON.parse(raw);
+                if (!isBinary) data = JSON.parse(raw);
+                if (data.type === 'resume') {
+                    session = String(data.session);
+                    if (!overlaySessions.has(session)) overlaySessions.set(session, data.seq || 0);
+                    const applied = overlaySessions.get(session);
+                    ws.send(JSON.stringify({ type: 'ack', seq: applied, resume: true }));
+                    console.log(`[OverlayRelay] Session ${session} resumed at seq ${applied}`);
+                    return;
+                }
+                if (data.type === 'auth') {
+                    authenticated = typeof data.deviceId === 'string' && typeof data.token === 'string'
+                        && tokenStorage.validateToken(data.deviceId, data.token);
+                    ws.send(JSON.stringify({ type: 'auth', ok: authenticated, app: authenticated, mouse: authenticated }));
+                    if (authenticated) console.log(`[OverlayRelay] Device ${data.deviceId} authenticated`);
+                    else console.warn('[OverlayRelay] Rejected overlay auth: unknown device or token');
+                    return;
+                }
+                if ((data.type === 'app' || data.type === 'mouse') && !authenticated) {
+                    console.warn(`[OverlayRelay] Ignoring ${data.type} input from an unauthenticated socket`);
+                    return;
+                }
+                if (data.type === 'app') {
+                    // App input sharing the overlay's socket: same dispatch as the P2P path
+                    if (data.data) handleRemoteInput(data.data);
+                    return;
+                }
+                if (data.type === 'mouse') {
+                    // Touchpad: one coalesced op per frame, never replayed
+                    if (mouseInjector) mouseInjector.handleMouseEvent(data);
+                    return;
+                }
+                if (data.type === 'cancel') {
+                    // The overlay stopped a chunked paste; don't type what's still queued.
+                    // The overlay holds its other ops while a paste streams, so its queued
+                    // items are the paste; app and P2P input queued alongside is kept
+                    if (keyboardInjector) keyboardInjector.cancelQueued(OVERLAY_INPUT_TAG);
+                    return;
+                }
+                if (data.seq && session) {
+                    const applied = overlaySessions.get(session);
+                    const from = data.from || data.seq;
+                    if (data.seq <= applied) {
+                        // Replayed duplicate: already typed
+                        ws.send(JSON.stringify({ type: 'ack', seq: applied }));
+                        return;
+                    }
+                    if (from !== applied + 1) {
+                        // Gap (the overlay dropped a frame): ask once for a replay
+                        if (resendRequestedAt !== applied) {
+                            resendRequestedAt = applied;
+                            ws.send(JSON.stringify({ type: 'ack', seq: applied, resend: true }));
+                            console.warn(`[OverlayRelay] Seq gap: expected ${applied + 1}, got ${from}; requested replay`);
+                        }
+                        return;
+                    }
+                }
+
                 if (data.type === 'text' && data.text && keyboardInjector) {
-                    keyboardInjector.handleKeyEvent({ type: 'text', text: data.text, delay: data.delay || 0 });
+                    keyboardInjector.handleKeyEvent({ type: 'text', text: data.text, delay: data.delay || 0 }, OVERLAY_INPUT_TAG);
                     console.log(`[OverlayRelay] Injected text: ${data.text.length} chars`);
+                } else if (data.type === 'edit' && keyboardInjector) {
+                    // Atomic replace from the overlay diff: caret move + N backspaces + insert, applied in one pass
+                    keyboardInjector.handleKeyEvent({ type: 'edit', move: data.move || 0, delete: data.delete || 0, text: data.text || '', delay: data.delay || 0 }, OVERLAY_INPUT_TAG);
+                    console.log(`[OverlayRelay] Applied edit: move ${data.move || 0} -${data.delete || 0} +${(data.text || '').length} chars`);
                 } else if (data.type === 'key' && keyboardInjector) {
-                    keyboardInjector.handleKeyEvent(data);
+                    keyboardInjector.handleKeyEvent(data, OVERLAY_INPUT_TAG);
+                }
+
+                if (data.seq && session) {
+                    // Applied (queued) now, so replays are deduplicated; acked once typed,
+                    // with the desktop-side inject time so the overlay can split its latency
+                    overlaySessions.set(session, data.seq);
+                    const seq = data.seq;
+                    const receivedAt = Date.now();
+                    const ack = () => {
+                        if (ws.readyState === ws.OPEN) {
+                            ws.send(JSON.stringify({ type: 'ack', seq, inj: Date.now() - receivedAt }));
+                        }
+                    };
+                    if (keyboardInjector) keyboardInjector.whenInjected(ack);
+                    else ack();
                 }
             } catch (e) {
                 console.warn('[OverlayRelay] Bad message:', e.message);
@@ -558,7 +670,11 @@ ipcMain.handle('get-sources', async () => {
 });
 
 // P2P Remote Input Handler
-ipcMain.on('remote-input', (event, data) => {
+ipcMain.on('remote-input', (event, data) => handleRemoteInput(data));
+
+// Input from the phone app, whether it came over P2P (via the renderer) or
+// over the overlay relay's socket
+function handleRemoteInput(data) {
     if (!data) return;
 
     // Mouse events
@@ -583,7 +699,7 @@ ipcMain.on('remote-input', (event, data) => {
     if (data.x !== undefined || data.dx !== undefined) {
         if (mouseInjector) mouseInjector.handleMouseEvent(data);
     }
-});
+}
 
 ipcMain.handle('get-connection-status', () => {
     // P2P mode - connection is managed by renderer.js PeerJS
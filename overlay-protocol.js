@@ -0,0 +1,174 @@
+/**
+ * Overlay Protocol - Binary frame decoding for the Android overlay relay
+ * Mirrors OverlayWireCodec.java: [version][opcode][fields...], varint lengths, UTF-8 strings
+ * Version 2 frames carry the overlay outbox range after the opcode: varint seq, varint span
+ * FLAG_DEFLATE on the opcode marks a raw-DEFLATE text field (varint rawLen, varint compLen,
+ * bytes) whose preset dictionary is the last 4 KB of text seen on the connection
+ */
+
+const zlib = require('zlib');
+
+const PROTOCOL_VERSION = 2;
+
+const OP_TEXT = 0x01;
+const OP_EDIT = 0x02;
+const OP_KEY = 0x03;
+const OP_REPLACE = 0x04; // caret move + delete + insert
+const FLAG_DEFLATE = 0x80;
+const HISTORY_SIZE = 4 * 1024; // must match OverlayWireCodec.HISTORY_SIZE
+
+// Interned key codes — order must match KEY_NAMES in OverlayWireCodec.java
+const KEY_NAMES = [
+    'Backspace', 'Enter', 'Tab', 'Escape', 'Delete', 'Space',
+    'ArrowLeft', 'ArrowRight', 'ArrowUp', 'ArrowDown',
+    'Home', 'End', 'PageUp', 'PageDown'
+];
+
+// Text carried on one connection, kept in step with the phone's encode history
+class TextHistory {
+    constructor() {
+        this.bytes = Buffer.alloc(HISTORY_SIZE * 2);
+        this.length = 0;
+    }
+
+    append(src) {
+        if (src.length >= HISTORY_SIZE) {
+            src.copy(this.bytes, 0, src.length - HISTORY_SIZE);
+            this.length = HISTORY_SIZE;
+            return;
+        }
+        if (this.length + src.length > this.bytes.length) {
+            const keep = HISTORY_SIZE - src.length;
+            this.bytes.copy(this.bytes, 0, this.length - keep, this.length);
+            this.length = keep;
+        }
+        src.copy(this.bytes, this.length);
+        this.length += src.length;
+    }
+
+    dictionary() {
+        return this.bytes.subarray(Math.max(0, this.length - HISTORY_SIZE), this.length);
+    }
+}
+
+class FrameReader {
+    constructor(buf, history) {
+        this.buf = buf;
+        this.pos = 0;
+        this.history = history;
+    }
+
+    byte() {
+        if (this.pos >= this.buf.length) throw new Error('Truncated frame');
+        return this.buf[this.pos++];
+    }
+
+    varint() {
+        let value = 0, shift = 0, b;
+        do {
+            b = this.byte();
+            value += (b & 0x7F) * 2 ** shift;
+            shift += 7;
+        } while (b & 0x80);
+        return value;
+    }
+
+    utf8(len) {
+        if (this.pos + len > this.buf.length) throw new Error('Truncated frame');
+        const s = this.buf.toString('utf8', this.pos, this.pos + len);
+        this.pos += len;
+        return s;
+    }
+
+    bytes(len) {
+        if (this.pos + len > this.buf.length) throw new Error('Truncated frame');
+        const b = this.buf.subarray(this.pos, this.pos + len);
+        this.pos += len;
+        return b;
+    }
+
+    // A text field of an edit op; every one feeds the connection's history
+    text(deflated) {
+        const len = this.varint();
+        if (!this.history) {
+            if (deflated) throw new Error('Compressed frame needs a connection decoder');
+            return this.utf8(len);
+        }
+        let raw;
+        if (deflated) {
+            const compressed = this.bytes(this.varint());
+            const dictionary = this.history.dictionary();
+            raw = zlib.inflateRawSync(compressed, dictionary.length ? { dictionary } : {});
+            if (raw.length !== len) throw new Error('Corrupt compressed text');
+        } else {
+            raw = this.bytes(len);
+        }
+        this.history.append(raw);
+        return raw.toString('utf8');
+    }
+}
+
+/**
+ * Decode one binary overlay frame into the same shape as the JSON frames
+ * ({ type: 'text' | 'edit' | 'key', seq?, from? }). Throws on malformed input.
+ * Stateless: compressed frames need a decoder from createDecoder().
+ */
+function decodeFrame(buf) {
+    return decodeWith(new FrameReader(buf, null));
+}
+
+/**
+ * Per-connection decoder that tracks the text history compressed frames are
+ * encoded against. Every binary frame on the connection must go through it,
+ * in order, including duplicates that are dropped afterwards.
+ */
+function createDecoder() {
+    const history = new TextHistory();
+    return { decode: (buf) => decodeWith(new FrameReader(buf, history)) };
+}
+
+function decodeWith(r) {
+    const version = r.byte();
+    if (version < 1 || version > PROTOCOL_VERSION) throw new Error(`Unsupported protocol version ${version}`);
+
+    const op = r.byte();
+    if (version < 2) return decodeOp(r, op);
+
+    const seq = r.varint();
+    const span = r.varint();
+    const frame = decodeOp(r, op);
+    frame.seq = seq;
+    frame.from = seq - span;
+    return frame;
+}
+
+function decodeOp(r, op) {
+    const deflated = (op & FLAG_DEFLATE) !== 0;
+    switch (op & ~FLAG_DEFLATE) {
+        case OP_TEXT:
+            return { type: 'text', text: r.text(deflated) };
+        case OP_EDIT: {
+            const del = r.varint();
+            return { type: 'edit', delete: del, text: r.text(deflated) };
+        }
+        case OP_REPLACE: {
+            const zigzag = r.varint();
+            const move = zigzag % 2 ? -(zigzag + 1) / 2 : zigzag / 2;
+            const del = r.varint();
+            return { type: 'edit', move, delete: del, text: r.text(deflated) };
+        }
+        case OP_KEY: {
+            if (deflated) throw new Error('Key frames are never compressed');
+            const code = r.byte();
+            let key;
+            if (code === 0) key = r.utf8(r.varint());
+            else if (code <= KEY_NAMES.length) key = KEY_NAMES[code - 1];
+            else throw new Error(`Unknown key code ${code}`);
+            return { type: 'key', key, repeat: r.varint() };
+        }
+        default:
+            throw new Error(`Unknown opcode ${op}`);
+    }
+}
+
+module.exports = { PROTOCOL_VERSION, KEY_NAMES, decodeFrame, createDecoder };